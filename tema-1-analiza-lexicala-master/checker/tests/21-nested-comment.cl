@@ -0,0 +1,6 @@
+(* Comments nest (* at any (* depth *) *),
+   and (*) opens one, while -- or "*)" inside do nothing special. *)
+class A {
+    (* (* (* (* (* deep *) *) *) *) *)
+    x : Int <- 1 (* between (**) tokens *) + 2;
+};
@@ -1,12 +1,51 @@
 package cool.compiler;
 
+import java.io.PrintStream;
+import java.util.Arrays;
+
+// Prints the AST one node per line, indented two spaces per level. Lines
+// are gathered in a buffer and written to the stream in large pieces, as
+// one call per line on System.out takes its lock and flushes every time.
+// The stream still encodes the text, so the output is the same as if it
+// were printed line by line. Visiting a Program flushes the buffer at the
+// end; other nodes need an explicit flush().
 public class ASTPrintVisitor implements ASTVisitor<Void> {
+    private static final int FLUSH_LENGTH = 1 << 16;
+    private static final String NEWLINE = System.lineSeparator();
+
+    private final PrintStream out;
+    private final StringBuilder buffer = new StringBuilder(2 * FLUSH_LENGTH);
+    // Indentation of each level, made once.
+    private String[] prefixes = new String[] { "" };
+
     int indent = 0;
 
+    public ASTPrintVisitor() {
+        this(System.out);
+    }
+
+    public ASTPrintVisitor(PrintStream out) {
+        this.out = out;
+    }
+
     void printIndentation(String str) {
-        for (int i = 0; i < indent; i++)
-            System.out.print("  ");
-        System.out.println(str);
+        if (indent >= prefixes.length) {
+            int levels = prefixes.length;
+            prefixes = Arrays.copyOf(prefixes, Math.max(indent + 1, levels * 2));
+            for (int i = levels; i < prefixes.length; i++)
+                prefixes[i] = "  ".repeat(i);
+        }
+
+        buffer.append(prefixes[indent]).append(str).append(NEWLINE);
+        if (buffer.length() >= FLUSH_LENGTH)
+            flush();
+    }
+
+    // Writes out the lines printed so far.
+    public void flush() {
+        out.append(buffer);
+        out.flush();
+        buffer.setLength(0);
     }
 
     @Override
@@ -17,6 +56,7 @@ public class ASTPrintVisitor implements ASTVisitor<Void> {
         for (var classNode : program.classes)
             classNode.accept(this);
         indent--;
+        flush();
         return null;
     }
 
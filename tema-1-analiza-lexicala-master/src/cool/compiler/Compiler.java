@@ -3,9 +3,12 @@ package cool.compiler;
 import org.antlr.v4.runtime.*;
 import org.antlr.v4.runtime.tree.*;
 
+import cool.lexer.*;
 import cool.parser.*;
 
 import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
 
 public class Compiler {
     // Annotates class nodes with the names of files where they are defined.
@@ -17,80 +20,22 @@ public class Compiler {
             return;
         }
         
-        CoolLexer lexer = null;
-        CommonTokenStream tokenStream = null;
-        CoolParser parser = null;
         ParserRuleContext globalTree = null;
         
         // True if any lexical or syntax errors occur.
         boolean lexicalSyntaxErrors = false;
         
         // Parse each input file and build one big parse tree out of
-        // individual parse trees.
-        for (var fileName : args) {
-            var input = CharStreams.fromFileName(fileName);
+        // individual parse trees. Files are parsed concurrently, but merged
+        // and reported in command-line order.
+        for (var parsedFile : parseFiles(args)) {
+            var fileName = parsedFile.fileName();
+            var tree = parsedFile.tree();
             
-            // Lexer
-            if (lexer == null)
-                lexer = new CoolLexer(input);
-            else
-                lexer.setInputStream(input);
-
-            // Token stream
-            if (tokenStream == null)
-                tokenStream = new CommonTokenStream(lexer);
-            else
-                tokenStream.setTokenSource(lexer);
-                
-
-            // Test lexer only.
-//            tokenStream.fill();
-//            List<Token> tokens = tokenStream.getTokens();
-//            tokens.stream().forEach(token -> {
-//                var text = token.getText();
-//                var name = CoolLexer.VOCABULARY.getSymbolicName(token.getType());
-//
-//                System.out.println(text + " : " + name);
-//                //System.out.println(token);
-//            });
-
-            
-            // Parser
-            if (parser == null)
-                parser = new CoolParser(tokenStream);
-            else
-                parser.setTokenStream(tokenStream);
-            
-            // Customized error listener, for including file names in error
-            // messages.
-            var errorListener = new BaseErrorListener() {
-                public boolean errors = false;
-                
-                @Override
-                public void syntaxError(Recognizer<?, ?> recognizer,
-                                        Object offendingSymbol,
-                                        int line, int charPositionInLine,
-                                        String msg,
-                                        RecognitionException e) {
-                    String newMsg = "\"" + new File(fileName).getName() + "\", line " +
-                                        line + ":" + (charPositionInLine + 1) + ", ";
-                    
-                    Token token = (Token)offendingSymbol;
-                    if (token.getType() == CoolLexer.ERROR)
-                        newMsg += "Lexical error: " + token.getText();
-                    else
-                        newMsg += "Syntax error: " + msg;
-                    
-                    System.err.println(newMsg);
-                    errors = true;
-                }
-            };
+            // Report this file's lexical and syntax errors.
+            for (var error : parsedFile.errors())
+                System.err.println(error);
             
-            parser.removeErrorListeners();
-            parser.addErrorListener(errorListener);
-            
-            // Actual parsing
-            var tree = parser.program();
             if (globalTree == null)
                 globalTree = tree;
             else
@@ -109,7 +54,7 @@ public class Compiler {
             }
             
             // Record any lexical or syntax errors.
-            lexicalSyntaxErrors |= errorListener.errors;
+            lexicalSyntaxErrors |= !parsedFile.errors().isEmpty();
         }
 
         // Stop before semantic analysis phase, in case errors occurred.
@@ -129,4 +74,119 @@ public class Compiler {
             System.err.println("Unexpected AST root node type: " + ast.getClass().getSimpleName());
         }
     }
+
+    // Parse tree of one input file, along with its lexical and syntax errors.
+    record ParsedFile(String fileName, CoolParser.ProgramContext tree, List<String> errors) {}
+
+    // Lexes and parses the given files on a pool of worker threads. Each file
+    // gets its own lexer and parser; the shared ATN/DFA caches of CoolLexer
+    // and CoolParser are thread-safe. Results come back in argument order.
+    static List<ParsedFile> parseFiles(String[] fileNames) throws IOException {
+        int threads = Math.min(fileNames.length, Runtime.getRuntime().availableProcessors());
+        if (threads <= 1) {
+            var parsedFiles = new ArrayList<ParsedFile>();
+            for (var fileName : fileNames)
+                parsedFiles.add(parseFile(fileName));
+            return parsedFiles;
+        }
+
+        var pool = Executors.newFixedThreadPool(threads, runnable -> {
+            var thread = new Thread(runnable, "cool-parser");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            var futures = new ArrayList<Future<ParsedFile>>();
+            for (var fileName : fileNames)
+                futures.add(pool.submit(() -> parseFile(fileName)));
+
+            var parsedFiles = new ArrayList<ParsedFile>();
+            for (var future : futures)
+                parsedFiles.add(await(future));
+            return parsedFiles;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    static ParsedFile parseFile(String fileName) throws IOException {
+        var input = CharStreams.fromFileName(fileName);
+        
+        // Lexer
+        var lexer = new CoolLexer(input);
+
+        // Token stream
+        var tokenStream = new CommonTokenStream(lexer);
+
+        // Test lexer only.
+//        tokenStream.fill();
+//        List<Token> tokens = tokenStream.getTokens();
+//        tokens.stream().forEach(token -> {
+//            var text = token.getText();
+//            var name = CoolLexer.VOCABULARY.getSymbolicName(token.getType());
+//
+//            System.out.println(text + " : " + name);
+//            //System.out.println(token);
+//        });
+
+        // Parser
+        var parser = new CoolParser(tokenStream);
+        
+        var errorListener = new FileErrorListener(fileName);
+        parser.removeErrorListeners();
+        parser.addErrorListener(errorListener);
+        
+        // Actual parsing
+        var tree = parser.program();
+        return new ParsedFile(fileName, tree, errorListener.errors);
+    }
+
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while parsing");
+        } catch (ExecutionException e) {
+            var cause = e.getCause();
+            if (cause instanceof IOException ioException)
+                throw ioException;
+            if (cause instanceof RuntimeException runtimeException)
+                throw runtimeException;
+            if (cause instanceof Error error)
+                throw error;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    // Customized error listener, for including file names in error
+    // messages. Messages are collected rather than printed, so that files
+    // parsed concurrently still report their errors in command-line order.
+    static class FileErrorListener extends BaseErrorListener {
+        final String fileName;
+        final List<String> errors = new ArrayList<>();
+
+        FileErrorListener(String fileName) {
+            this.fileName = fileName;
+        }
+
+        @Override
+        public void syntaxError(Recognizer<?, ?> recognizer,
+                                Object offendingSymbol,
+                                int line, int charPositionInLine,
+                                String msg,
+                                RecognitionException e) {
+            String newMsg = "\"" + new File(fileName).getName() + "\", line " +
+                                line + ":" + (charPositionInLine + 1) + ", ";
+            
+            Token token = (Token)offendingSymbol;
+            if (token.getType() == CoolLexer.ERROR)
+                newMsg += "Lexical error: " + token.getText();
+            else
+                newMsg += "Syntax error: " + msg;
+            
+            errors.add(newMsg);
+        }
+    }
 }
@@ -7,30 +7,72 @@ lexer grammar CoolLexer;
 tokens { ERROR }
 
 @members{    
+    // Longest string constant allowed, after decoding.
+    private static final int MAX_STRING_LENGTH = 1024;
+
+    // Reused for decoding every string constant.
+    private final StringBuilder stringBuffer = new StringBuilder();
+
+    // If set, equal string constants share one String.
+    private java.util.Map<String, String> stringTable = null;
+
+    public void setStringTable(java.util.Map<String, String> stringTable) {
+        this.stringTable = stringTable;
+    }
+
+    // Nesting depth of the block comment being skipped.
+    private int commentDepth = 0;
+
     private void raiseError(String msg) {
         setText(msg);
         setType(ERROR);
     }
 
+    // Decodes a string constant in a single pass. \b, \t, \n, \f and \r
+    // stand for the control characters; any other escaped character, an
+    // escaped newline included, stands for itself. A string that gets too
+    // long fails right away, and takes precedence over a null character.
     private void processMyString() {
         String str = getText();
+        StringBuilder buffer = stringBuffer;
+        buffer.setLength(0);
+        boolean hasNull = false;
+
+        // Skip the quotes.
+        int end = str.length() - 1;
+        for (int i = 1; i < end; i++) {
+            char c = str.charAt(i);
+
+            // A backslash right before the closing quote is a plain one.
+            if (c == '\\' && i + 1 < end) {
+                c = str.charAt(++i);
+                switch (c) {
+                    case 'b': c = '\b'; break;
+                    case 't': c = '\t'; break;
+                    case 'n': c = '\n'; break;
+                    case 'f': c = '\f'; break;
+                    case 'r': c = '\r'; break;
+                    default: break;
+                }
+            }
+
+            if (buffer.length() == MAX_STRING_LENGTH) {
+                raiseError("String constant too long");
+                return;
+            }
+            buffer.append(c);
+            hasNull |= c == '\0';
+        }
 
-        str = str.substring(1, str.length() - 1);
-
-        str = str.replace("\\n", "\n");
-        str = str.replace("\\r", "\r");
-        str = str.replace("\\t", "\t");
-        str = str.replace("\\f", "\f");
-        str = str.replace("\\\"", "\"");
-        str = str.replace("\\\\", "\\");
-
-        if (str.length() > 1024) {
-            raiseError("String constant too long");
-        } else if (str.contains("\0")) {
+        if (hasNull) {
             raiseError("String contains null character");
-        } else {
-            setText(str);
+            return;
         }
+
+        str = buffer.toString();
+        if (stringTable != null)
+            str = stringTable.computeIfAbsent(str, s -> s);
+        setText(str);
     }
 }
 // keywords
@@ -117,10 +159,12 @@ LINE_COMMENT
 
 UNMATCHED_BLOCK_COMMENT: '*)' { raiseError("Unmatched *)"); };
 
+// Block comments nest. They are lexed in COMMENT mode, which keeps count
+// of the nesting depth, so that they take linear time and constant stack.
+// The whole comment is one token, grown with more, and thus errors are
+// reported at its start.
 BLOCK_COMMENT
-    : '(*'
-      (BLOCK_COMMENT | .)*?
-      ('*)'{skip();} | EOF { raiseError("EOF in comment"); })
+    : '(*' { commentDepth = 1; } -> more, mode(COMMENT)
     ;
 
 WS
@@ -131,4 +175,33 @@ ERROR_CHAR
     : . {
         raiseError("Invalid character: " + getText());
     }
+    ;
+
+mode COMMENT;
+
+COMMENT_OPEN
+    : '(*' { commentDepth++; } -> more
+    ;
+
+COMMENT_CLOSE
+    : '*)' {
+        if (--commentDepth == 0) {
+            mode(DEFAULT_MODE);
+            skip();
+        } else {
+            more();
+        }
+    }
+    ;
+
+COMMENT_EOF
+    : EOF {
+        mode(DEFAULT_MODE);
+        raiseError("EOF in comment");
+    }
+    ;
+
+// Runs of text, and parentheses or stars not part of the above.
+COMMENT_TEXT
+    : (~[(*]+ | [(*]) -> more
     ;
\ No newline at end of file
@@ -0,0 +1,635 @@
+package cool.compiler;
+
+import cool.structures.Names;
+
+import java.io.*;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+// On-disk cache of the ASTs of source files, so that unchanged files, such
+// as libraries compiled on every run, are neither lexed nor parsed. Entries
+// are keyed by the SHA-256 of the file contents and of the compiler's
+// classes, and thus go stale by themselves when either changes. Only ASTs
+// of files without errors are cached.
+//
+// An entry holds the AST in postfix order: each node is written after its
+// children, as its NodeKind and its own fields, and is read back onto a
+// value stack, like in ASTListenerConstruction, so that reading does not
+// recurse.
+// Positions are stored without the file id, which is given when loading,
+// and with lines as differences from the previous position's.
+// Strings are stored once, and then referred to by index.
+final class ASTCache {
+    private static final int MAGIC = 0x434f4f4c; // "COOL"
+    private static final int FORMAT_VERSION = 1;
+
+    // Hash of the compiler's classes, computed once.
+    private static byte[] fingerprint;
+
+    private final Path directory;
+
+    ASTCache(Path directory) {
+        this.directory = directory;
+    }
+
+    // Cache key of a file with the given contents.
+    static String key(byte[] contents) {
+        var digest = sha256();
+        digest.update(fingerprint());
+        digest.update(contents);
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    // Any class of the compiler can change the AST a file gets, from the
+    // lexer down to the node classes and the cache's own reader and writer,
+    // so the fingerprint is of all of them: the jar they are loaded from,
+    // or every class file of the cool packages when they are loaded from a
+    // directory. Without a location to read, or if reading it fails, keys
+    // are only good for this run.
+    private static synchronized byte[] fingerprint() {
+        if (fingerprint == null) {
+            var digest = sha256();
+            digest.update(bigEndian(FORMAT_VERSION));
+            try {
+                var source = ASTCache.class.getProtectionDomain().getCodeSource();
+                var location = source == null ? null : Path.of(source.getLocation().toURI());
+                if (location == null) {
+                    digest.update(UUID.randomUUID().toString().getBytes(StandardCharsets.UTF_8));
+                } else if (Files.isDirectory(location)) {
+                    var packages = location.resolve("cool");
+                    try (var files = Files.walk(packages)) {
+                        for (var file : files.filter(f -> f.toString().endsWith(".class")).sorted().toList()) {
+                            digest.update(packages.relativize(file).toString().getBytes(StandardCharsets.UTF_8));
+                            digest.update(Files.readAllBytes(file));
+                        }
+                    }
+                } else {
+                    digest.update(Files.readAllBytes(location));
+                }
+            } catch (IOException | UncheckedIOException | URISyntaxException | SecurityException
+                     | IllegalArgumentException e) {
+                // Whatever was hashed so far, this run gets keys of its own.
+                digest.update(UUID.randomUUID().toString().getBytes(StandardCharsets.UTF_8));
+            }
+            fingerprint = digest.digest();
+        }
+        return fingerprint;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform has SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // The cached AST for the given key, with positions in the given file and
+    // names in the given table, or null if there is none. Unreadable entries
+    // count as missing.
+    CompilationUnit load(String key, int fileId, Names names) {
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(directory.resolve(key));
+        } catch (IOException e) {
+            return null;
+        }
+
+        try {
+            return new Reader(bytes, fileId, names).compilationUnit();
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    // Stores the AST under the given key. The entry is written to a
+    // temporary file first and then moved into place, so that concurrent
+    // compilations never see half of it. A cache that cannot be written
+    // only costs time, so failures are ignored.
+    void store(String key, CompilationUnit ast) {
+        var writer = new Writer();
+        writer.writeInt(MAGIC);
+        writer.writeInt(FORMAT_VERSION);
+        writer.walk(ast);
+
+        try {
+            Files.createDirectories(directory);
+            var temporary = Files.createTempFile(directory, key, ".tmp");
+            try {
+                Files.write(temporary, writer.toByteArray());
+                Files.move(temporary, directory.resolve(key), StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+        } catch (IOException e) {
+            // Parsed again next time.
+        }
+    }
+
+    private static byte[] bigEndian(int value) {
+        return new byte[] { (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value };
+    }
+
+    // Writes the nodes in postfix order, each once its children are written.
+    private static final class Writer extends ASTWalk<Void> {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private final Map<String, Integer> strings = new HashMap<>();
+        private int lastLine = 0;
+
+        byte[] toByteArray() {
+            return out.toByteArray();
+        }
+
+        void write(int b) {
+            out.write(b);
+        }
+
+        void writeInt(int value) {
+            out.write(bigEndian(value), 0, 4);
+        }
+
+        void writeVarInt(int value) {
+            while ((value & ~0x7f) != 0) {
+                write((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            write(value);
+        }
+
+        void writeString(String text) {
+            Integer index = strings.get(text);
+            if (index != null) {
+                writeVarInt(index);
+                return;
+            }
+            writeVarInt(strings.size());
+            strings.put(text, strings.size());
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+
+        // Lines as differences from the previous one, which are small.
+        void writePosition(long position) {
+            int line = Position.line(position);
+            int delta = line - lastLine;
+            writeVarInt(delta << 1 ^ delta >> 31);
+            writeVarInt(Position.column(position));
+            lastLine = line;
+        }
+
+        void writeName(Name name) {
+            if (name == null) {
+                write(0);
+                return;
+            }
+            write(1);
+            writeString(name.text);
+            writePosition(name.position);
+        }
+
+        void writeNode(byte tag, ASTNode node) {
+            write(tag);
+            writePosition(node.getPosition());
+        }
+
+        // Absent children are written as NONE. Lists have no absent elements.
+        @Override
+        Void absent() {
+            write(NodeKind.NONE);
+            return null;
+        }
+
+        // Visits the given children of the node of the frame, and returns
+        // true once they are all written.
+        boolean children(Frame<Void> frame, Object... children) {
+            if (frame.visitEach(children))
+                return false;
+            frame.finish(null);
+            return true;
+        }
+
+        void leaf(Frame<Void> frame, byte tag, Leaf leaf) {
+            writeNode(tag, leaf);
+            writeString(leaf.getText());
+            frame.finish(null);
+        }
+
+        @Override
+        void resume(Frame<Void> frame, Id id) {
+            leaf(frame, NodeKind.ID, id);
+        }
+
+        @Override
+        void resume(Frame<Void> frame, Int integer) {
+            leaf(frame, NodeKind.INT, integer);
+        }
+
+        @Override
+        void resume(Frame<Void> frame, Str str) {
+            leaf(frame, NodeKind.STR, str);
+        }
+
+        @Override
+        void resume(Frame<Void> frame, Bool bool) {
+            leaf(frame, NodeKind.BOOL, bool);
+        }
+
+        @Override
+        void resume(Frame<Void> frame, Formal formal) {
+            if (!children(frame, formal.id))
+                return;
+            write(NodeKind.FORMAL);
+            writeName(formal.type);
+        }
+
+        @Override
+        void resume(Frame<Void> frame, Class classs) {
+            if (!children(frame, classs.features))
+                return;
+            writeNode(NodeKind.CLASS, classs);
+            writeName(classs.type);
+            writeName(classs.inherit);
+            writeVarInt(classs.features.size());
+        }
+
+        @Override
+        void resume(Frame<Void> frame, Program program) {
+            throw new IllegalArgumentException("Only compilation units are cached");
+        }
+
+        @Override
+        void resume(Frame<Void> frame, CompilationUnit unit) {
+            if (!children(frame, unit.classes))
+                return;
+            writeNode(NodeKind.COMPILATION_UNIT, unit);
+            writeVarInt(unit.classes.size());
+        }
+
+        @Override
+        void resume(Frame<Void> frame, Local local) {
+            if (!children(frame, local.id, local.init))
+                return;
+            write(NodeKind.LOCAL);
+            writeName(local.type);
+        }
+
+        @Override
+        void resume(Frame<Void> frame, Method method) {
+            if (!children(frame, method.id, method.formals, method.body()))
+                return;
+            write(NodeKind.METHOD);
+            writeName(method.returnType);
+            writeVarInt(method.formals.size());
+        }
+
+        @Override
+        void resume(Frame<Void> frame, Attr attr) {
+            if (!children(frame, attr.id, attr.init))
+                return;
+            write(NodeKind.ATTR);
+            writeName(attr.type);
+        }
+
+        @Override
+        void resume(Frame<Void> frame, Block block) {
+            if (!children(frame, block.expressions))
+                return;
+            writeNode(NodeKind.BLOCK, block);
+            writeVarInt(block.expressions.size());
+        }
+
+        @Override
+        void resume(Frame<Void> frame, If ifExpr) {
+            if (!children(frame, ifExpr.cond, ifExpr.thenBranch, ifExpr.elseBranch))
+                return;
+            writeNode(NodeKind.IF, ifExpr);
+        }
+
+        @Override
+        void resume(Frame<Void> frame, While whileExpr) {
+            if (!children(frame, whileExpr.cond, whileExpr.body))
+                return;
+            writeNode(NodeKind.WHILE, whileExpr);
+        }
+
+        @Override
+        void resume(Frame<Void> frame, Let letExpr) {
+            if (!children(frame, letExpr.localVars, letExpr.body))
+                return;
+            writeNode(NodeKind.LET, letExpr);
+            writeVarInt(letExpr.localVars.size());
+        }
+
+        @Override
+        void resume(Frame<Void> frame, Case caseExpr) {
+            if (!children(frame, caseExpr.expr, caseExpr.branches))
+                return;
+            writeNode(NodeKind.CASE, caseExpr);
+            writeVarInt(caseExpr.branches.size());
+        }
+
+        @Override
+        void resume(Frame<Void> frame, CaseBranch branch) {
+            if (!children(frame, branch.expr))
+                return;
+            writeNode(NodeKind.CASE_BRANCH, branch);
+            writeName(branch.name);
+            writeName(branch.type);
+        }
+
+        @Override
+        void resume(Frame<Void> frame, Assign assign) {
+            if (!children(frame, assign.expr))
+                return;
+            writeNode(NodeKind.ASSIGN, assign);
+            writeName(assign.name);
+        }
+
+        @Override
+        void resume(Frame<Void> frame, Dispatch dispatch) {
+            if (!children(frame, dispatch.args))
+                return;
+            writeNode(NodeKind.DISPATCH, dispatch);
+            writeName(dispatch.name);
+            writeVarInt(dispatch.args.size());
+        }
+
+        @Override
+        void resume(Frame<Void> frame, StaticDispatch staticDispatch) {
+            if (!children(frame, staticDispatch.caller, staticDispatch.args))
+                return;
+            writeNode(NodeKind.STATIC_DISPATCH, staticDispatch);
+            writeName(staticDispatch.type);
+            writeName(staticDispatch.name);
+            writeVarInt(staticDispatch.args.size());
+        }
+
+        @Override
+        void resume(Frame<Void> frame, BinaryOp op) {
+            if (!children(frame, op.left, op.right))
+                return;
+            writeNode(NodeKind.BINARY_OP, op);
+            writeString(op.op);
+        }
+
+        @Override
+        void resume(Frame<Void> frame, Not notExpr) {
+            if (!children(frame, notExpr.expr))
+                return;
+            writeNode(NodeKind.NOT, notExpr);
+        }
+
+        @Override
+        void resume(Frame<Void> frame, IsVoid isVoidExpr) {
+            if (!children(frame, isVoidExpr.expr))
+                return;
+            writeNode(NodeKind.IS_VOID, isVoidExpr);
+        }
+
+        @Override
+        void resume(Frame<Void> frame, New newExpr) {
+            writeNode(NodeKind.NEW, newExpr);
+            writeName(newExpr.type);
+            frame.finish(null);
+        }
+
+        @Override
+        void resume(Frame<Void> frame, Paren paren) {
+            if (!children(frame, paren.expr))
+                return;
+            writeNode(NodeKind.PAREN, paren);
+        }
+
+        @Override
+        void resume(Frame<Void> frame, Neg negExpr) {
+            if (!children(frame, negExpr.expr))
+                return;
+            writeNode(NodeKind.NEG, negExpr);
+        }
+    }
+
+    // Rebuilds an AST from its entry. Malformed entries end in a runtime
+    // exception, from a bad tag, a cast or an index out of bounds.
+    private static final class Reader {
+        private final byte[] bytes;
+        private final int fileId;
+        private final Names names;
+        private int offset = 0;
+        private final List<String> strings = new ArrayList<>();
+        private final List<ASTNode> values = new ArrayList<>();
+        private int lastLine = 0;
+
+        Reader(byte[] bytes, int fileId, Names names) {
+            this.bytes = bytes;
+            this.fileId = fileId;
+            this.names = names;
+        }
+
+        CompilationUnit compilationUnit() {
+            if (readInt() != MAGIC || readInt() != FORMAT_VERSION)
+                throw new IllegalStateException("Not an AST cache entry");
+
+            while (offset < bytes.length)
+                node(bytes[offset++]);
+
+            if (values.size() != 1)
+                throw new IllegalStateException("Truncated AST cache entry");
+            return (CompilationUnit) values.get(0);
+        }
+
+        private int readInt() {
+            int value = 0;
+            for (int i = 0; i < 4; i++)
+                value = value << 8 | bytes[offset++] & 0xff;
+            return value;
+        }
+
+        private int readVarInt() {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = bytes[offset++];
+                value |= (b & 0x7f) << shift;
+                if (b >= 0)
+                    return value;
+            }
+        }
+
+        private String readString() {
+            int index = readVarInt();
+            if (index < strings.size())
+                return strings.get(index);
+
+            int length = readVarInt();
+            var text = new String(bytes, offset, length, StandardCharsets.UTF_8);
+            offset += length;
+            strings.add(text);
+            return text;
+        }
+
+        private long readPosition() {
+            int delta = readVarInt();
+            lastLine += delta >>> 1 ^ -(delta & 1);
+            return Position.of(fileId, lastLine, readVarInt());
+        }
+
+        private Name readName() {
+            if (bytes[offset++] == 0)
+                return null;
+            var text = readString();
+            return new Name(names, text, readPosition());
+        }
+
+        private void push(ASTNode node) {
+            values.add(node);
+        }
+
+        @SuppressWarnings("unchecked")
+        private <T extends ASTNode> T pop() {
+            return (T) values.remove(values.size() - 1);
+        }
+
+        // Pops the last count nodes, in source order.
+        @SuppressWarnings("unchecked")
+        private <T extends ASTNode> List<T> pop(int count) {
+            var top = values.subList(values.size() - count, values.size());
+            var nodes = new ArrayList<T>(count);
+            for (var node : top)
+                nodes.add((T) node);
+            top.clear();
+            return nodes;
+        }
+
+        private void node(byte tag) {
+            switch (tag) {
+                case NodeKind.NONE -> push(null);
+                case NodeKind.ID -> {
+                    long position = readPosition();
+                    push(new Id(names, position, readString()));
+                }
+                case NodeKind.INT -> {
+                    long position = readPosition();
+                    push(new Int(position, readString()));
+                }
+                case NodeKind.STR -> {
+                    long position = readPosition();
+                    push(new Str(position, readString()));
+                }
+                case NodeKind.BOOL -> {
+                    long position = readPosition();
+                    push(new Bool(position, readString()));
+                }
+                case NodeKind.FORMAL -> {
+                    Id id = pop();
+                    push(new Formal(id, readName()));
+                }
+                case NodeKind.LOCAL -> {
+                    Expression init = pop();
+                    Id id = pop();
+                    push(new Local(id, readName(), init));
+                }
+                case NodeKind.ATTR -> {
+                    Expression init = pop();
+                    Id id = pop();
+                    push(new Attr(id, readName(), init));
+                }
+                case NodeKind.METHOD -> {
+                    Name returnType = readName();
+                    Expression body = pop();
+                    List<Formal> formals = pop(readVarInt());
+                    Id id = pop();
+                    push(new Method(id, formals, returnType, body));
+                }
+                case NodeKind.CLASS -> {
+                    long position = readPosition();
+                    Name type = readName();
+                    Name inherit = readName();
+                    List<Feature> features = pop(readVarInt());
+                    push(new Class(position, type, inherit, new LinkedList<>(features)));
+                }
+                case NodeKind.COMPILATION_UNIT -> {
+                    long position = readPosition();
+                    List<Class> classes = pop(readVarInt());
+                    push(new CompilationUnit(position, classes));
+                }
+                case NodeKind.BLOCK -> {
+                    long position = readPosition();
+                    List<Expression> expressions = pop(readVarInt());
+                    push(new Block(position, expressions));
+                }
+                case NodeKind.IF -> {
+                    long position = readPosition();
+                    Expression elseBranch = pop();
+                    Expression thenBranch = pop();
+                    Expression cond = pop();
+                    push(new If(cond, thenBranch, elseBranch, position));
+                }
+                case NodeKind.WHILE -> {
+                    long position = readPosition();
+                    Expression body = pop();
+                    Expression cond = pop();
+                    push(new While(position, cond, body));
+                }
+                case NodeKind.LET -> {
+                    long position = readPosition();
+                    int count = readVarInt();
+                    Expression body = pop();
+                    List<Local> localVars = pop(count);
+                    push(new Let(position, localVars, body));
+                }
+                case NodeKind.CASE -> {
+                    long position = readPosition();
+                    List<CaseBranch> branches = pop(readVarInt());
+                    Expression expr = pop();
+                    push(new Case(position, expr, branches));
+                }
+                case NodeKind.CASE_BRANCH -> {
+                    long position = readPosition();
+                    Name name = readName();
+                    Name type = readName();
+                    Expression expr = pop();
+                    push(new CaseBranch(position, name, type, expr));
+                }
+                case NodeKind.ASSIGN -> {
+                    long position = readPosition();
+                    Expression expr = pop();
+                    push(new Assign(position, readName(), expr));
+                }
+                case NodeKind.DISPATCH -> {
+                    long position = readPosition();
+                    Name name = readName();
+                    List<Expression> args = pop(readVarInt());
+                    push(new Dispatch(position, name, args));
+                }
+                case NodeKind.STATIC_DISPATCH -> {
+                    long position = readPosition();
+                    Name type = readName();
+                    Name name = readName();
+                    List<Expression> args = pop(readVarInt());
+                    Expression caller = pop();
+                    push(new StaticDispatch(position, caller, type, name, args));
+                }
+                case NodeKind.BINARY_OP -> {
+                    long position = readPosition();
+                    Expression right = pop();
+                    Expression left = pop();
+                    push(new BinaryOp(position, left, readString(), right));
+                }
+                case NodeKind.NOT -> push(new Not(readPosition(), pop()));
+                case NodeKind.IS_VOID -> push(new IsVoid(readPosition(), pop()));
+                case NodeKind.NEW -> {
+                    long position = readPosition();
+                    push(new New(position, readName()));
+                }
+                case NodeKind.PAREN -> push(new Paren(readPosition(), pop()));
+                case NodeKind.NEG -> push(new Neg(readPosition(), pop()));
+                default -> throw new IllegalStateException("Bad tag " + tag);
+            }
+        }
+    }
+}
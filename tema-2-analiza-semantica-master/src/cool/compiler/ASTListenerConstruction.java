@@ -0,0 +1,260 @@
+package cool.compiler;
+
+import cool.parser.*;
+import cool.structures.Names;
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.tree.*;
+
+import java.util.*;
+
+// Builds the AST while the parser runs, so that no parse tree is built and
+// none is walked afterwards. Rule exit events come in postfix order, even
+// for the left-recursive expr rule, so each rule pops the nodes of its
+// sub-rules off a value stack and pushes its own node.
+public class ASTListenerConstruction extends CoolParserBaseListener {
+    private final CoolParser parser;
+    // Id of the file being parsed, see Position.
+    private final int fileId;
+    private final Names names;
+    private final List<ASTNode> values = new ArrayList<>();
+    private CompilationUnit ast;
+
+    ASTListenerConstruction(CoolParser parser, int fileId, Names names) {
+        this.parser = parser;
+        this.fileId = fileId;
+        this.names = names;
+    }
+
+    // Makes the parser build the AST through this listener instead of
+    // building a parse tree.
+    void attach() {
+        parser.setBuildParseTree(false);
+        parser.addParseListener(new ParseTreeListener() {
+            @Override
+            public void enterEveryRule(ParserRuleContext ctx) {
+                ctx.enterRule(ASTListenerConstruction.this);
+            }
+
+            // After a syntax error, the contexts may be incomplete and the
+            // stack unbalanced. The AST is not used in that case anyway.
+            @Override
+            public void exitEveryRule(ParserRuleContext ctx) {
+                if (parser.getNumberOfSyntaxErrors() == 0 && ctx.exception == null)
+                    ctx.exitRule(ASTListenerConstruction.this);
+            }
+
+            @Override
+            public void visitTerminal(TerminalNode node) {}
+
+            @Override
+            public void visitErrorNode(ErrorNode node) {}
+        });
+    }
+
+    // The AST of the input, or null if it has syntax errors.
+    CompilationUnit getCompilationUnit() {
+        return parser.getNumberOfSyntaxErrors() == 0 ? ast : null;
+    }
+
+    private long position(Token token) {
+        return Position.of(fileId, token);
+    }
+
+    private Name name(Token token) {
+        return Name.of(names, fileId, token);
+    }
+
+    private Id id(Token token) {
+        return new Id(names, position(token), token.getText());
+    }
+
+    private void push(ASTNode node) {
+        values.add(node);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends ASTNode> T pop() {
+        return (T) values.remove(values.size() - 1);
+    }
+
+    // Pops the last count nodes, in source order.
+    @SuppressWarnings("unchecked")
+    private <T extends ASTNode> List<T> pop(int count) {
+        var top = values.subList(values.size() - count, values.size());
+        var nodes = new ArrayList<T>(count);
+        for (var node : top)
+            nodes.add((T) node);
+        top.clear();
+        return nodes;
+    }
+
+    @Override
+    public void enterProgram(CoolParser.ProgramContext ctx) {
+        // A two-stage parse starts over after an SLL failure.
+        values.clear();
+        ast = null;
+    }
+
+    @Override
+    public void exitProgram(CoolParser.ProgramContext ctx) {
+        List<Class> classes = pop(values.size());
+        ast = new CompilationUnit(position(ctx.getStart()), classes);
+    }
+
+    @Override
+    public void exitClass(CoolParser.ClassContext ctx) {
+        LinkedList<Feature> features = new LinkedList<>(pop(ctx.features.size()));
+        push(new Class(position(ctx.getStart()), name(ctx.type), name(ctx.inherited), features));
+    }
+
+    @Override
+    public void exitFormal(CoolParser.FormalContext ctx) {
+        push(new Formal(id(ctx.name), name(ctx.type)));
+    }
+
+    @Override
+    public void exitLocal(CoolParser.LocalContext ctx) {
+        Expression init = ctx.init != null ? pop() : null;
+        push(new Local(id(ctx.name), name(ctx.type), init));
+    }
+
+    @Override
+    public void exitFeature(CoolParser.FeatureContext ctx) {
+        var id = id(ctx.name);
+
+        if (ctx.returnType == null) {
+            Expression init = ctx.init != null ? pop() : null;
+            push(new Attr(id, name(ctx.type), init));
+        } else {
+            Expression body = pop();
+            List<Formal> formals = pop(ctx.formals.size());
+            push(new Method(id, formals, name(ctx.returnType), body));
+        }
+    }
+
+    @Override
+    public void exitBlock(CoolParser.BlockContext ctx) {
+        List<Expression> exprs = pop(ctx.exprs.size());
+        push(new Block(position(ctx.getStart()), exprs));
+    }
+
+    // Block and parenthesized expressions leave the inner node on the stack.
+
+    @Override
+    public void exitMulDiv(CoolParser.MulDivContext ctx) {
+        exitBinaryOp(ctx.op);
+    }
+
+    @Override
+    public void exitAddSub(CoolParser.AddSubContext ctx) {
+        exitBinaryOp(ctx.op);
+    }
+
+    @Override
+    public void exitRelational(CoolParser.RelationalContext ctx) {
+        exitBinaryOp(ctx.op);
+    }
+
+    private void exitBinaryOp(Token op) {
+        Expression right = pop();
+        Expression left = pop();
+        // Interned, so nodes share the operator strings.
+        push(new BinaryOp(position(op), left, op.getText().intern(), right));
+    }
+
+    @Override
+    public void exitNeg(CoolParser.NegContext ctx) {
+        push(new Neg(position(ctx.getStart()), pop()));
+    }
+
+    @Override
+    public void exitNot(CoolParser.NotContext ctx) {
+        push(new Not(position(ctx.getStart()), pop()));
+    }
+
+    @Override
+    public void exitIsVoid(CoolParser.IsVoidContext ctx) {
+        push(new IsVoid(position(ctx.getStart()), pop()));
+    }
+
+    @Override
+    public void exitId(CoolParser.IdContext ctx) {
+        push(id(ctx.getStart()));
+    }
+
+    @Override
+    public void exitInt(CoolParser.IntContext ctx) {
+        push(new Int(position(ctx.getStart()), ctx.getStart().getText()));
+    }
+
+    @Override
+    public void exitStr(CoolParser.StrContext ctx) {
+        push(new Str(position(ctx.getStart()), ctx.getStart().getText()));
+    }
+
+    @Override
+    public void exitBoolVal(CoolParser.BoolValContext ctx) {
+        push(new Bool(position(ctx.getStart()), ctx.getStart().getText()));
+    }
+
+    @Override
+    public void exitAssignVal(CoolParser.AssignValContext ctx) {
+        push(new Assign(position(ctx.getStart()), name(ctx.name), pop()));
+    }
+
+    @Override
+    public void exitStaticDispatch(CoolParser.StaticDispatchContext ctx) {
+        List<Expression> args = pop(ctx.args.size());
+        Expression caller = pop();
+        push(new StaticDispatch(position(ctx.getStart()), caller, name(ctx.type), name(ctx.id), args));
+    }
+
+    @Override
+    public void exitDispatch(CoolParser.DispatchContext ctx) {
+        List<Expression> args = pop(ctx.args.size());
+        push(new Dispatch(position(ctx.getStart()), name(ctx.name), args));
+    }
+
+    @Override
+    public void exitIfExpr(CoolParser.IfExprContext ctx) {
+        Expression elseB = pop();
+        Expression thenB = pop();
+        Expression cond = pop();
+        push(new If(cond, thenB, elseB, position(ctx.getStart())));
+    }
+
+    @Override
+    public void exitWhileExpr(CoolParser.WhileExprContext ctx) {
+        Expression body = pop();
+        Expression cond = pop();
+        push(new While(position(ctx.getStart()), cond, body));
+    }
+
+    @Override
+    public void exitLetExpr(CoolParser.LetExprContext ctx) {
+        Expression body = pop();
+        List<Local> locals = pop(ctx.localVars.size());
+        push(new Let(position(ctx.getStart()), locals, body));
+    }
+
+    @Override
+    public void exitCaseExpr(CoolParser.CaseExprContext ctx) {
+        // Each branch left its formal and its expression, in this order.
+        List<ASTNode> nodes = pop(2 * ctx.types.size());
+        Expression cond = pop();
+
+        List<CaseBranch> branches = new ArrayList<>();
+        for (int i = 0; i < nodes.size(); i += 2) {
+            var formal = (Formal) nodes.get(i);
+            var expr = (Expression) nodes.get(i + 1);
+            var name = new Name(names, formal.id.nameId, formal.id.getPosition());
+            branches.add(new CaseBranch(formal.getPosition(), name, formal.type, expr));
+        }
+        push(new Case(position(ctx.getStart()), cond, branches));
+    }
+
+    @Override
+    public void exitNewExpr(CoolParser.NewExprContext ctx) {
+        push(new New(position(ctx.getStart()), name(ctx.type)));
+    }
+}
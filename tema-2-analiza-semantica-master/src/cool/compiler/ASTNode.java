@@ -1,161 +1,266 @@
 package cool.compiler;
 import cool.structures.IdSymbol;
+import cool.structures.Names;
 import cool.structures.Symbol;
-import org.antlr.v4.runtime.ParserRuleContext;
 import org.antlr.v4.runtime.Token;
 import java.util.*;
-
-public abstract class ASTNode {
-    protected Token token;
-    protected ParserRuleContext ctx;
+import java.util.function.Supplier;
+
+// The node classes are all in this file, and sealed, so that the kind tag
+// of a node determines its class. See NodeKind and ASTWalk.
+public abstract sealed class ASTNode {
+    // One of NodeKind, never changed.
+    final byte kind;
+    // See Position.
+    protected long position;
+    // Index of the node in the TypeTable that last gave it a type, or NO_ID
+    // until one has.
+    int nodeId = NO_ID;
     protected Symbol symbol;
 
+    static final int NO_ID = -1;
+
     public Symbol getSymbol() {
         return symbol;
     }
 
-    ASTNode(ParserRuleContext ctx, Token token)  {
-        this.ctx = ctx;
-        this.token = token;
+    ASTNode(byte kind, long position)  {
+        this.kind = kind;
+        this.position = position;
     }
 
-    Token getToken() {
-        return token;
+    long getPosition() {
+        return position;
     }
 
-    public <T> T accept(ASTVisitor<T> visitor) {
+    // Visits this node. Visitors that visit children through accept recurse
+    // on the thread's stack; passes over trees of any depth are ASTWalks.
+    public final <T> T accept(ASTVisitor<T> visitor) {
+        return dispatch(visitor);
+    }
+
+    // Calls the visit method for the class of this node.
+    <T> T dispatch(ASTVisitor<T> visitor) {
         return null;
     }
 }
 
-abstract class Expression extends ASTNode {
-    Expression(ParserRuleContext ctx, Token token) {
-        super(ctx, token);
+// Type or identifier name, with its position. Nodes keep these instead of
+// tokens, so that the tokens can be garbage-collected after parsing.
+class Name {
+    final String text;
+    // Id of the text in the Names of the compilation.
+    final int id;
+    final long position;
+
+    Name(Names names, String text, long position) {
+        this(names, names.id(text), position);
+    }
+
+    Name(Names names, int id, long position) {
+        this.id = id;
+        this.text = names.text(id);
+        this.position = position;
+    }
+
+    static Name of(Names names, int fileId, Token token) {
+        return token == null ? null : new Name(names, token.getText(), Position.of(fileId, token));
+    }
+
+    String getText() {
+        return text;
+    }
+}
+
+abstract sealed class Expression extends ASTNode {
+    Expression(byte kind, long position) {
+        super(kind, position);
+    }
+}
+
+// Expression made of a single token: an identifier or a constant.
+abstract sealed class Leaf extends Expression {
+    final String text;
+
+    Leaf(byte kind, long position, String text) {
+        super(kind, position);
+        this.text = text;
+    }
+
+    String getText() {
+        return text;
     }
 }
 
-class Feature extends ASTNode {
-    Feature(ParserRuleContext ctx, Token token) {
-        super(ctx, token);
+abstract sealed class Feature extends ASTNode {
+    Feature(byte kind, long position) {
+        super(kind, position);
     }
 }
 
-class Class extends ASTNode {
-    Token type;
-    Token inherit;
+final class Class extends ASTNode {
+    Name type;
+    Name inherit;
     LinkedList<Feature> features;
 
-    Class(ParserRuleContext ctx, Token token, Token type, Token inherit, LinkedList<Feature> features) {
-        super(ctx, token);
+    Class(long position, Name type, Name inherit, LinkedList<Feature> features) {
+        super(NodeKind.CLASS, position);
         this.type = type;
         this.inherit = inherit;
         this.features = features;
     }
 
-    public <T> T accept(ASTVisitor<T> visitor) {
+    <T> T dispatch(ASTVisitor<T> visitor) {
+        return visitor.visit(this);
+    }
+}
+
+// The classes of all input files, kept per file.
+final class Program extends ASTNode {
+    List<CompilationUnit> units;
+
+    // Positioned at the start of the first file.
+    Program(List<CompilationUnit> units) {
+        super(NodeKind.PROGRAM, units.isEmpty() ? 0 : units.get(0).getPosition());
+        this.units = units;
+    }
+
+    <T> T dispatch(ASTVisitor<T> visitor) {
         return visitor.visit(this);
     }
 }
 
-class Program extends ASTNode {
+// The classes of one input file. Files are parsed into units of their own,
+// which are never merged, so that each can be parsed, cached or replaced
+// without touching the others.
+final class CompilationUnit extends ASTNode {
+    // Id of the file, see Position.
+    final int fileId;
     List<Class> classes;
 
-    Program(ParserRuleContext ctx, Token token, List<Class> classes) {
-        super(ctx, token);
+    CompilationUnit(long position, List<Class> classes) {
+        super(NodeKind.COMPILATION_UNIT, position);
+        this.fileId = Position.fileId(position);
         this.classes = classes;
     }
 
-    public <T> T accept(ASTVisitor<T> visitor) {
+    <T> T dispatch(ASTVisitor<T> visitor) {
         return visitor.visit(this);
     }
 }
 
-class Formal extends ASTNode {
+final class Formal extends ASTNode {
     Id id;
-    Token type;
+    Name type;
 
-    Formal(ParserRuleContext ctx, Id id, Token type) {
-        super(ctx, id.getToken());
+    Formal(Id id, Name type) {
+        super(NodeKind.FORMAL, id.getPosition());
         this.type = type;
         this.id = id;
     }
 
-    public <T> T accept(ASTVisitor<T> visitor) {
+    <T> T dispatch(ASTVisitor<T> visitor) {
         return visitor.visit(this);
     }
 }
 
-class Local extends ASTNode {
+final class Local extends ASTNode {
     Id id;
-    Token type;
+    Name type;
     Expression init;
 
-    Local(ParserRuleContext ctx, Id id, Token type, Expression init) {
-        super(ctx, id.getToken());
+    Local(Id id, Name type, Expression init) {
+        super(NodeKind.LOCAL, id.getPosition());
         this.id = id;
         this.type = type;
         this.init = init;
     }
 
-    public <T> T accept(ASTVisitor<T> visitor) {
+    <T> T dispatch(ASTVisitor<T> visitor) {
         return visitor.visit(this);
     }
 }
 
-class Attr extends Feature {
+final class Attr extends Feature {
     Id id;
-    Token type;
+    Name type;
     Expression init;
-    Attr(ParserRuleContext ctx, Id id, Token type, Expression init) {
-        super(ctx, id.getToken());
+    Attr(Id id, Name type, Expression init) {
+        super(NodeKind.ATTR, id.getPosition());
         this.id = id;
         this.type = type;
         this.init = init;
     }
 
-    public <T> T accept(ASTVisitor<T> visitor) {
+    <T> T dispatch(ASTVisitor<T> visitor) {
         return visitor.visit(this);
     }
 }
 
-class Method extends Feature {
+final class Method extends Feature {
     Id id;
     List<Formal> formals;
-    Token returnType;
-    Expression body;
+    Name returnType;
+    // Null until parsed, for bodies parsed on demand by bodyParser.
+    private Expression body;
+    private Supplier<Expression> bodyParser;
 
-    Method(ParserRuleContext ctx, Id id, List<Formal> formals, Token returnType, Expression body) {
-        super(ctx, id.getToken());
+    Method(Id id, List<Formal> formals, Name returnType, Expression body) {
+        super(NodeKind.METHOD, id.getPosition());
         this.id = id;
         this.formals = formals;
         this.returnType = returnType;
         this.body = body;
     }
 
-    public <T> T accept(ASTVisitor<T> visitor) {
+    // A method whose body is parsed the first time it is asked for.
+    Method(Id id, List<Formal> formals, Name returnType, Supplier<Expression> bodyParser) {
+        super(NodeKind.METHOD, id.getPosition());
+        this.id = id;
+        this.formals = formals;
+        this.returnType = returnType;
+        this.bodyParser = bodyParser;
+    }
+
+    Expression body() {
+        if (body == null) {
+            body = bodyParser.get();
+            bodyParser = null;
+        }
+        return body;
+    }
+
+    <T> T dispatch(ASTVisitor<T> visitor) {
         return visitor.visit(this);
     }
 }
 
-class Assign extends Expression {
-    Token name;
+final class Assign extends Expression {
+    Name name;
     Expression expr;
 
-    Assign(ParserRuleContext ctx, Token token, Token name, Expression expr) {
-        super(ctx, token);
+    Assign(long position, Name name, Expression expr) {
+        super(NodeKind.ASSIGN, position);
         this.name = name;
         this.expr = expr;
     }
 
-    public <T> T accept(ASTVisitor<T> visitor) {
+    <T> T dispatch(ASTVisitor<T> visitor) {
         return visitor.visit(this);
     }
 }
 
-class Id extends Expression {
+final class Id extends Leaf {
+    // Id of the text in the Names of the compilation.
+    final int nameId;
     private IdSymbol symbol;
-    Id(ParserRuleContext ctx, Token token) {
-        super(ctx, token);
+    Id(Names names, long position, String text) {
+        this(names, position, names.id(text));
+    }
+
+    Id(Names names, long position, int nameId) {
+        super(NodeKind.ID, position, names.text(nameId));
+        this.nameId = nameId;
     }
 
     @Override
@@ -167,241 +272,240 @@ class Id extends Expression {
         this.symbol = symbol;
     }
 
-    public <T> T accept(ASTVisitor<T> visitor) {
+    <T> T dispatch(ASTVisitor<T> visitor) {
         return visitor.visit(this);
     }
 }
 
-class Int extends Expression {
-    Int(ParserRuleContext ctx, Token token) {
-        super(ctx, token);
+final class Int extends Leaf {
+    Int(long position, String text) {
+        super(NodeKind.INT, position, text);
     }
 
-    public <T> T accept(ASTVisitor<T> visitor) {
+    <T> T dispatch(ASTVisitor<T> visitor) {
         return visitor.visit(this);
     }
 }
 
-class Str extends Expression {
-    Str(ParserRuleContext ctx, Token token) {
-        super(ctx, token);
+final class Str extends Leaf {
+    Str(long position, String text) {
+        super(NodeKind.STR, position, text);
     }
 
-    public <T> T accept(ASTVisitor<T> visitor) {
+    <T> T dispatch(ASTVisitor<T> visitor) {
         return visitor.visit(this);
     }
 }
 
-class Bool extends Expression {
-    Bool(ParserRuleContext ctx, Token token) { super(ctx, token); }
+final class Bool extends Leaf {
+    Bool(long position, String text) { super(NodeKind.BOOL, position, text); }
 
-    public <T> T accept(ASTVisitor<T> visitor) {
+    <T> T dispatch(ASTVisitor<T> visitor) {
         return visitor.visit(this);
     }
 }
 
-class Block extends Expression {
+final class Block extends Expression {
     List<Expression> expressions;
 
-    public Block(ParserRuleContext ctx, Token token, List<Expression> expressions) {
-        super(ctx, token);
+    public Block(long position, List<Expression> expressions) {
+        super(NodeKind.BLOCK, position);
         this.expressions = expressions;
     }
-    public <T> T accept(ASTVisitor<T> visitor) {
+    <T> T dispatch(ASTVisitor<T> visitor) {
         return visitor.visit(this);
     }
 }
 
-class Let extends Expression {
+final class Let extends Expression {
     List<Local> localVars;
     Expression body;
 
-    Let(ParserRuleContext ctx, Token token, List<Local> localVars, Expression body) {
-        super(ctx, token);
+    Let(long position, List<Local> localVars, Expression body) {
+        super(NodeKind.LET, position);
         this.localVars = localVars;
         this.body = body;
     }
 
-    public <T> T accept(ASTVisitor<T> visitor) {
+    <T> T dispatch(ASTVisitor<T> visitor) {
         return visitor.visit(this);
     }
 }
 
-class If extends Expression {
+final class If extends Expression {
     Expression cond;
     Expression thenBranch;
     Expression elseBranch;
 
-    If(ParserRuleContext ctx,
-       Expression cond,
+    If(Expression cond,
        Expression thenBranch,
        Expression elseBranch,
-       Token start) {
-        super(ctx, start);
+       long position) {
+        super(NodeKind.IF, position);
         this.cond = cond;
         this.thenBranch = thenBranch;
         this.elseBranch = elseBranch;
     }
 
-    public <T> T accept(ASTVisitor<T> visitor) {
+    <T> T dispatch(ASTVisitor<T> visitor) {
         return visitor.visit(this);
     }
 }
 
-class While extends Expression {
+final class While extends Expression {
     Expression cond;
     Expression body;
 
-    While(ParserRuleContext ctx, Token token, Expression cond, Expression body) {
-        super(ctx, token);
+    While(long position, Expression cond, Expression body) {
+        super(NodeKind.WHILE, position);
         this.cond = cond;
         this.body = body;
     }
 
-    public <T> T accept(ASTVisitor<T> visitor) {
+    <T> T dispatch(ASTVisitor<T> visitor) {
         return visitor.visit(this);
     }
 }
 
-class New extends Expression {
-    Token type;
+final class New extends Expression {
+    Name type;
 
-    New(ParserRuleContext ctx, Token token, Token type) {
-        super(ctx, token);
+    New(long position, Name type) {
+        super(NodeKind.NEW, position);
         this.type = type;
     }
 
-    public <T> T accept(ASTVisitor<T> visitor) {
+    <T> T dispatch(ASTVisitor<T> visitor) {
         return visitor.visit(this);
     }
 }
 
-class IsVoid extends Expression {
+final class IsVoid extends Expression {
     Expression expr;
 
-    IsVoid(ParserRuleContext ctx, Token token, Expression expr) {
-        super(ctx, token);
+    IsVoid(long position, Expression expr) {
+        super(NodeKind.IS_VOID, position);
         this.expr = expr;
     }
 
-    public <T> T accept(ASTVisitor<T> visitor) {
+    <T> T dispatch(ASTVisitor<T> visitor) {
         return visitor.visit(this);
     }
 }
 
-class Paren extends Expression {
+final class Paren extends Expression {
     Expression expr;
 
-    public Paren(ParserRuleContext ctx, Token token, Expression expr) {
-        super(ctx, token);
+    public Paren(long position, Expression expr) {
+        super(NodeKind.PAREN, position);
         this.expr = expr;
     }
 
-    public <T> T accept(ASTVisitor<T> visitor) {
+    <T> T dispatch(ASTVisitor<T> visitor) {
         return visitor.visit(this);
     }
 }
 
-class Not extends Expression {
+final class Not extends Expression {
     Expression expr;
 
-    Not(ParserRuleContext ctx, Token token, Expression expr) {
-        super(ctx, token);
+    Not(long position, Expression expr) {
+        super(NodeKind.NOT, position);
         this.expr = expr;
     }
 
-    public <T> T accept(ASTVisitor<T> visitor) {
+    <T> T dispatch(ASTVisitor<T> visitor) {
         return visitor.visit(this);
     }
 }
 
-class Neg extends Expression {
+final class Neg extends Expression {
     Expression expr;
 
-    Neg(ParserRuleContext ctx, Token token, Expression expr) {
-        super(ctx, token);
+    Neg(long position, Expression expr) {
+        super(NodeKind.NEG, position);
         this.expr = expr;
     }
 
-    public <T> T accept(ASTVisitor<T> visitor) {
+    <T> T dispatch(ASTVisitor<T> visitor) {
         return visitor.visit(this);
     }
 }
 
-class BinaryOp extends Expression {
+final class BinaryOp extends Expression {
     String op;
     Expression left, right;
 
-    BinaryOp(ParserRuleContext ctx, Token opTok, Expression left, String op, Expression right) {
-        super(ctx, opTok);
+    BinaryOp(long position, Expression left, String op, Expression right) {
+        super(NodeKind.BINARY_OP, position);
         this.left = left;
         this.op = op;
         this.right = right;
     }
 
-    public <T> T accept(ASTVisitor<T> visitor) {
+    <T> T dispatch(ASTVisitor<T> visitor) {
         return visitor.visit(this);
     }
 }
 
-class Case extends Expression {
+final class Case extends Expression {
     Expression expr;
     List<CaseBranch> branches;
 
-    Case(ParserRuleContext ctx, Token token, Expression expr, List<CaseBranch> branches) {
-        super(ctx, token);
+    Case(long position, Expression expr, List<CaseBranch> branches) {
+        super(NodeKind.CASE, position);
         this.expr = expr;
         this.branches = branches;
     }
 
-    public <T> T accept(ASTVisitor<T> visitor) {
+    <T> T dispatch(ASTVisitor<T> visitor) {
         return visitor.visit(this);
     }
 }
 
-class CaseBranch extends ASTNode {
-    Token name;
-    Token type;
+final class CaseBranch extends ASTNode {
+    Name name;
+    Name type;
     Expression expr;
 
-    CaseBranch(ParserRuleContext ctx, Token token, Token name, Token type, Expression expr) {
-        super(ctx, token);
+    CaseBranch(long position, Name name, Name type, Expression expr) {
+        super(NodeKind.CASE_BRANCH, position);
         this.name = name;
         this.type = type;
         this.expr = expr;
     }
 
-    public <T> T accept(ASTVisitor<T> visitor) {
+    <T> T dispatch(ASTVisitor<T> visitor) {
         return visitor.visit(this);
     }
 }
 
 // ex: f(x, y)
-class Dispatch extends Expression {
-    Token name;
+final class Dispatch extends Expression {
+    Name name;
     List<Expression> args;
 
-    Dispatch(ParserRuleContext ctx, Token token, Token name, List<Expression> args) {
-        super(ctx, token);
+    Dispatch(long position, Name name, List<Expression> args) {
+        super(NodeKind.DISPATCH, position);
         this.name = name;
         this.args = args;
     }
 
     @Override
-    public <T> T accept(ASTVisitor<T> visitor) {
+    <T> T dispatch(ASTVisitor<T> visitor) {
         return visitor.visit(this);
     }
 }
 
 // Static dispatch: expr@Type.method(args)
-class StaticDispatch extends Expression {
+final class StaticDispatch extends Expression {
     Expression caller;
-    Token type;
-    Token name;        // method name
+    Name type;
+    Name name;        // method name
     List<Expression> args;
 
-    StaticDispatch(ParserRuleContext ctx, Token token, Expression caller, Token type, Token name, List<Expression> args) {
-        super(ctx, token);
+    StaticDispatch(long position, Expression caller, Name type, Name name, List<Expression> args) {
+        super(NodeKind.STATIC_DISPATCH, position);
         this.caller = caller;
         this.type = type;
         this.name = name;
@@ -409,7 +513,7 @@ class StaticDispatch extends Expression {
     }
 
     @Override
-    public <T> T accept(ASTVisitor<T> visitor) {
+    <T> T dispatch(ASTVisitor<T> visitor) {
         return visitor.visit(this);
     }
 }
@@ -1,291 +1,441 @@
 package cool.compiler;
 
-public class ASTPrintVisitor implements ASTVisitor<Void> {
+import java.io.PrintStream;
+import java.util.Arrays;
+
+// Prints the AST one node per line, indented two spaces per level. Lines
+// are gathered in a buffer and written to the stream in large pieces, as
+// one call per line on System.out takes its lock and flushes every time.
+// The stream still encodes the text, so the output is the same as if it
+// were printed line by line. Walking a Program flushes the buffer at the
+// end; other nodes need an explicit flush().
+//
+// The printer is an ASTWalk, so trees nest as deep as memory allows.
+@SuppressWarnings("fallthrough")
+public class ASTPrintVisitor extends ASTWalk<Void> {
+    private static final int FLUSH_LENGTH = 1 << 16;
+    private static final String NEWLINE = System.lineSeparator();
+    // Levels that have a prefix of their own. Deeper lines are indented in
+    // pieces, so a deep tree does not keep a prefix for each of its levels.
+    private static final int PREFIX_LEVELS = 64;
+
+    private final PrintStream out;
+    private final StringBuilder buffer = new StringBuilder(2 * FLUSH_LENGTH);
+    // Indentation of each level, made once.
+    private String[] prefixes = new String[] { "" };
+
     int indent = 0;
 
+    public ASTPrintVisitor() {
+        this(System.out);
+    }
+
+    public ASTPrintVisitor(PrintStream out) {
+        this.out = out;
+    }
+
     void printIndentation(String str) {
-        for (int i = 0; i < indent; i++)
-            System.out.print("  ");
-        System.out.println(str);
+        int level = indent;
+        while (level >= PREFIX_LEVELS) {
+            buffer.append(prefix(PREFIX_LEVELS - 1));
+            level -= PREFIX_LEVELS - 1;
+        }
+
+        buffer.append(prefix(level)).append(str).append(NEWLINE);
+        if (buffer.length() >= FLUSH_LENGTH)
+            flush();
     }
 
-    @Override
-    public Void visit(Program program) {
-        printIndentation("program");
-        indent++;
+    private String prefix(int level) {
+        if (level >= prefixes.length) {
+            int levels = prefixes.length;
+            prefixes = Arrays.copyOf(prefixes, Math.max(level + 1, levels * 2));
+            for (int i = levels; i < prefixes.length; i++)
+                prefixes[i] = "  ".repeat(i);
+        }
+        return prefixes[level];
+    }
 
-        for (var classNode : program.classes)
-            classNode.accept(this);
-        indent--;
-        return null;
+    // Writes out the lines printed so far.
+    public void flush() {
+        out.append(buffer);
+        out.flush();
+        buffer.setLength(0);
     }
 
     @Override
-    public Void visit(Id id) {
-        printIndentation(id.getToken().getText());
-        return null;
+    void resume(Frame<Void> frame, Program program) {
+        switch (frame.phase) {
+            case 0:
+                printIndentation("program");
+                indent++;
+                frame.phase = 1;
+            case 1:
+                if (frame.visitNext(program.units))
+                    return;
+                indent--;
+                flush();
+                frame.finish(null);
+        }
     }
 
     @Override
-    public Void visit(Int integer) {
-        printIndentation(integer.token.getText());
-        return null;
+    void resume(Frame<Void> frame, CompilationUnit unit) {
+        if (!frame.visitNext(unit.classes))
+            frame.finish(null);
     }
 
     @Override
-    public Void visit(Str str) {
-        printIndentation(str.getToken().getText());
-        return null;
+    void resume(Frame<Void> frame, Id id) {
+        printIndentation(id.getText());
+        frame.finish(null);
     }
 
     @Override
-    public Void visit(Bool bool) {
-        printIndentation(bool.getToken().getText());
-        return null;
+    void resume(Frame<Void> frame, Int integer) {
+        printIndentation(integer.getText());
+        frame.finish(null);
     }
 
     @Override
-    public Void visit(Formal formal) {
-        printIndentation("formal");
-        indent++;
-        printIndentation(formal.token.getText());
-        printIndentation(formal.type.getText());
-        indent--;
-        return null;
+    void resume(Frame<Void> frame, Str str) {
+        printIndentation(str.getText());
+        frame.finish(null);
     }
 
     @Override
-    public Void visit(Feature feature) {
-        return null;
+    void resume(Frame<Void> frame, Bool bool) {
+        printIndentation(bool.getText());
+        frame.finish(null);
     }
 
     @Override
-    public Void visit(Class classs) {
-        printIndentation("class");
+    void resume(Frame<Void> frame, Formal formal) {
+        printIndentation("formal");
         indent++;
-        printIndentation(classs.type.getText());
-        if (classs.inherit != null)
-            printIndentation(classs.inherit.getText());
-        for (var feature : classs.features) {
-            feature.accept(this);
-        }
+        printIndentation(formal.id.getText());
+        printIndentation(formal.type.getText());
         indent--;
-        return null;
+        frame.finish(null);
     }
 
-
     @Override
-    public Void visit(Local local) {
-        printIndentation("local");
-        indent++;
-        printIndentation(local.token.getText());
-        printIndentation(local.type.getText());
-        if (local.init != null)
-            local.init.accept(this);
-        indent--;
-        return null;
+    void resume(Frame<Void> frame, Class classs) {
+        switch (frame.phase) {
+            case 0:
+                printIndentation("class");
+                indent++;
+                printIndentation(classs.type.getText());
+                if (classs.inherit != null)
+                    printIndentation(classs.inherit.getText());
+                frame.phase = 1;
+            case 1:
+                if (frame.visitNext(classs.features))
+                    return;
+                indent--;
+                frame.finish(null);
+        }
     }
 
     @Override
-    public Void visit(Method method) {
-        printIndentation("method");
-        indent++;
-        printIndentation(method.token.getText());
-
-        for (var arg : method.formals)
-            arg.accept(this);
-
-        printIndentation(method.returnType.getText());
+    void resume(Frame<Void> frame, Local local) {
+        switch (frame.phase) {
+            case 0:
+                printIndentation("local");
+                indent++;
+                printIndentation(local.id.getText());
+                printIndentation(local.type.getText());
+                frame.phase = 1;
+                frame.visit(local.init);
+                return;
+            case 1:
+                indent--;
+                frame.finish(null);
+        }
+    }
 
-        if (method.body instanceof Block) {
-            Block block = (Block) method.body;
-            if (block.expressions.size() == 1) {
-                var expr = block.expressions.get(0);
-                if (expr instanceof Int || expr instanceof Str || expr instanceof Bool || expr instanceof Id) {
-                    printIndentation(expr.getToken().getText());
-                    indent--;
-                    return null;
+    @Override
+    void resume(Frame<Void> frame, Method method) {
+        switch (frame.phase) {
+            case 0:
+                printIndentation("method");
+                indent++;
+                printIndentation(method.id.getText());
+                frame.phase = 1;
+            case 1:
+                if (frame.visitNext(method.formals))
+                    return;
+
+                printIndentation(method.returnType.getText());
+
+                if (method.body() instanceof Block) {
+                    Block block = (Block) method.body();
+                    if (block.expressions.size() == 1) {
+                        var expr = block.expressions.get(0);
+                        if (expr instanceof Leaf leaf) {
+                            printIndentation(leaf.getText());
+                            indent--;
+                            frame.finish(null);
+                            return;
+                        }
+                    }
                 }
-            }
-        }
 
-        if (method.body instanceof Int || method.body instanceof Str || method.body instanceof Bool || method.body instanceof Id) {
-            printIndentation(method.body.getToken().getText());
-        } else {
-            method.body.accept(this);
+                if (method.body() instanceof Leaf leaf) {
+                    printIndentation(leaf.getText());
+                } else {
+                    frame.phase = 2;
+                    frame.visit(method.body());
+                    return;
+                }
+            case 2:
+                indent--;
+                frame.finish(null);
         }
-
-        indent--;
-        return null;
     }
 
     @Override
-    public Void visit(Attr attr) {
-        printIndentation("attribute");
-        indent++;
-        printIndentation(attr.id.toString());
-        printIndentation(attr.type.getText());
-        if (attr.init != null)
-            attr.init.accept(this);
-        indent--;
-        return null;
+    void resume(Frame<Void> frame, Attr attr) {
+        switch (frame.phase) {
+            case 0:
+                printIndentation("attribute");
+                indent++;
+                printIndentation(attr.id.toString());
+                printIndentation(attr.type.getText());
+                frame.phase = 1;
+                frame.visit(attr.init);
+                return;
+            case 1:
+                indent--;
+                frame.finish(null);
+        }
     }
 
     @Override
-    public Void visit(Block block) {
-        printIndentation("block");
-        indent++;
-        for (var expr : block.expressions)
-            if (expr != null)
-                expr.accept(this);
-        indent--;
-        return null;
+    void resume(Frame<Void> frame, Block block) {
+        switch (frame.phase) {
+            case 0:
+                printIndentation("block");
+                indent++;
+                frame.phase = 1;
+            case 1:
+                if (frame.visitNext(block.expressions))
+                    return;
+                indent--;
+                frame.finish(null);
+        }
     }
 
     @Override
-    public Void visit(If ifExpr) {
-        printIndentation("if");
-        indent++;
-        ifExpr.cond.accept(this);
-        ifExpr.thenBranch.accept(this);
-        ifExpr.elseBranch.accept(this);
-        indent--;
-        return null;
+    void resume(Frame<Void> frame, If ifExpr) {
+        switch (frame.phase) {
+            case 0:
+                printIndentation("if");
+                indent++;
+                frame.phase = 1;
+                frame.visit(ifExpr.cond);
+                return;
+            case 1:
+                frame.phase = 2;
+                frame.visit(ifExpr.thenBranch);
+                return;
+            case 2:
+                frame.phase = 3;
+                frame.visit(ifExpr.elseBranch);
+                return;
+            case 3:
+                indent--;
+                frame.finish(null);
+        }
     }
 
     @Override
-    public Void visit(While whileExpr) {
-        printIndentation("while");
-        indent++;
-        whileExpr.cond.accept(this);
-        whileExpr.body.accept(this);
-        indent--;
-        return null;
+    void resume(Frame<Void> frame, While whileExpr) {
+        switch (frame.phase) {
+            case 0:
+                printIndentation("while");
+                indent++;
+                frame.phase = 1;
+                frame.visit(whileExpr.cond);
+                return;
+            case 1:
+                frame.phase = 2;
+                frame.visit(whileExpr.body);
+                return;
+            case 2:
+                indent--;
+                frame.finish(null);
+        }
     }
 
     @Override
-    public Void visit(Let letExpr) {
-        printIndentation("let");
-        indent++;
-        for (var local : letExpr.localVars)
-            local.accept(this);
-        letExpr.body.accept(this);
-        indent--;
-        return null;
+    void resume(Frame<Void> frame, Let letExpr) {
+        switch (frame.phase) {
+            case 0:
+                printIndentation("let");
+                indent++;
+                frame.phase = 1;
+            case 1:
+                if (frame.visitNext(letExpr.localVars))
+                    return;
+                frame.phase = 2;
+                frame.visit(letExpr.body);
+                return;
+            case 2:
+                indent--;
+                frame.finish(null);
+        }
     }
 
     @Override
-    public Void visit(Case caseExpr) {
-        printIndentation("case");
-        indent++;
-        caseExpr.expr.accept(this);
-        for (var branch : caseExpr.branches)
-            branch.accept(this);
-        indent--;
-        return null;
+    void resume(Frame<Void> frame, Case caseExpr) {
+        switch (frame.phase) {
+            case 0:
+                printIndentation("case");
+                indent++;
+                frame.phase = 1;
+                frame.visit(caseExpr.expr);
+                return;
+            case 1:
+                if (frame.visitNext(caseExpr.branches))
+                    return;
+                indent--;
+                frame.finish(null);
+        }
     }
 
     @Override
-    public Void visit(CaseBranch branch) {
-        printIndentation("case branch");
-        indent++;
-        printIndentation(branch.name.getText());
-        printIndentation(branch.type.getText());
-        branch.expr.accept(this);
-        indent--;
-        return null;
+    void resume(Frame<Void> frame, CaseBranch branch) {
+        switch (frame.phase) {
+            case 0:
+                printIndentation("case branch");
+                indent++;
+                printIndentation(branch.name.getText());
+                printIndentation(branch.type.getText());
+                frame.phase = 1;
+                frame.visit(branch.expr);
+                return;
+            case 1:
+                indent--;
+                frame.finish(null);
+        }
     }
 
     @Override
-    public Void visit(Assign assign) {
-        printIndentation("<-");
-        indent++;
-        printIndentation(assign.name.getText());
-        assign.expr.accept(this);
-        indent--;
-        return null;
+    void resume(Frame<Void> frame, Assign assign) {
+        switch (frame.phase) {
+            case 0:
+                printIndentation("<-");
+                indent++;
+                printIndentation(assign.name.getText());
+                frame.phase = 1;
+                frame.visit(assign.expr);
+                return;
+            case 1:
+                indent--;
+                frame.finish(null);
+        }
     }
 
     @Override
-    public Void visit(Dispatch dispatch) {
-        printIndentation("implicit dispatch");
-        indent++;
-        printIndentation(dispatch.name.getText());
-        for (var arg : dispatch.args)
-            arg.accept(this);
-        indent--;
-        return null;
+    void resume(Frame<Void> frame, Dispatch dispatch) {
+        switch (frame.phase) {
+            case 0:
+                printIndentation("implicit dispatch");
+                indent++;
+                printIndentation(dispatch.name.getText());
+                frame.phase = 1;
+            case 1:
+                if (frame.visitNext(dispatch.args))
+                    return;
+                indent--;
+                frame.finish(null);
+        }
     }
 
     @Override
-    public Void visit(StaticDispatch staticDispatch) {
-        printIndentation(".");
-        indent++;
-        staticDispatch.caller.accept(this);
-        if (staticDispatch.type != null) {
-            printIndentation(staticDispatch.type.getText());
+    void resume(Frame<Void> frame, StaticDispatch staticDispatch) {
+        switch (frame.phase) {
+            case 0:
+                printIndentation(".");
+                indent++;
+                frame.phase = 1;
+                frame.visit(staticDispatch.caller);
+                return;
+            case 1:
+                if (staticDispatch.type != null) {
+                    printIndentation(staticDispatch.type.getText());
+                }
+                printIndentation(staticDispatch.name.getText());
+                frame.phase = 2;
+            case 2:
+                if (frame.visitNext(staticDispatch.args))
+                    return;
+                indent--;
+                frame.finish(null);
         }
-        printIndentation(staticDispatch.name.getText());
-        for (var arg : staticDispatch.args)
-            arg.accept(this);
-        indent--;
-        return null;
     }
 
     @Override
-    public Void visit(BinaryOp op) {
-        printIndentation(op.op);
-        indent++;
-        if (op.left != null)
-            op.left.accept(this);
-        if (op.right != null)
-            op.right.accept(this);
-        indent--;
-        return null;
+    void resume(Frame<Void> frame, BinaryOp op) {
+        switch (frame.phase) {
+            case 0:
+                printIndentation(op.op);
+                indent++;
+                frame.phase = 1;
+                frame.visit(op.left);
+                return;
+            case 1:
+                frame.phase = 2;
+                frame.visit(op.right);
+                return;
+            case 2:
+                indent--;
+                frame.finish(null);
+        }
     }
 
     @Override
-    public Void visit(Not notExpr) {
-        printIndentation("not");
-        indent++;
-        notExpr.expr.accept(this);
-        indent--;
-        return null;
+    void resume(Frame<Void> frame, Not notExpr) {
+        unary(frame, "not", notExpr.expr);
     }
 
     @Override
-    public Void visit(IsVoid isVoidExpr) {
-        printIndentation("isvoid");
-        indent++;
-        isVoidExpr.expr.accept(this);
-        indent--;
-        return null;
+    void resume(Frame<Void> frame, IsVoid isVoidExpr) {
+        unary(frame, "isvoid", isVoidExpr.expr);
     }
 
     @Override
-    public Void visit(New newExpr) {
+    void resume(Frame<Void> frame, New newExpr) {
         printIndentation("new");
         indent++;
         printIndentation(newExpr.type.getText());
         indent--;
-        return null;
+        frame.finish(null);
     }
 
     @Override
-    public Void visit(Paren paren) {
-        printIndentation("paren");
-        indent++;
-        paren.expr.accept(this);
-        indent--;
-        return null;
+    void resume(Frame<Void> frame, Paren paren) {
+        unary(frame, "paren", paren.expr);
     }
 
     @Override
-    public Void visit(Neg negExpr) {
-        printIndentation("neg");
-        indent++;
-        negExpr.expr.accept(this);
-        indent--;
-        return null;
+    void resume(Frame<Void> frame, Neg negExpr) {
+        unary(frame, "neg", negExpr.expr);
+    }
+
+    // Prints the given line, with the given operand under it.
+    private void unary(Frame<Void> frame, String str, Expression expr) {
+        switch (frame.phase) {
+            case 0:
+                printIndentation(str);
+                indent++;
+                frame.phase = 1;
+                frame.visit(expr);
+                return;
+            case 1:
+                indent--;
+                frame.finish(null);
+        }
     }
 }
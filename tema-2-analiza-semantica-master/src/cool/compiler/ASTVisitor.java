@@ -11,6 +11,7 @@ public interface ASTVisitor<T> {
     T visit(Feature feature);
     T visit(Class classs);
     T visit(Program program);
+    T visit(CompilationUnit unit);
     T visit(Local local);
     T visit(Method method);
     T visit(Attr attr);
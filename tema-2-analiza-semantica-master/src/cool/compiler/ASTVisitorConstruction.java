@@ -4,9 +4,72 @@ import java.util.ArrayList;
 import java.util.List;
 
 import cool.parser.*;
+import cool.structures.Names;
 import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.tree.ParseTree;
 
 public class ASTVisitorConstruction extends CoolParserBaseVisitor<ASTNode> {
+    // Id of the file being visited, see Position.
+    private final int fileId;
+    private final Names names;
+
+    ASTVisitorConstruction(int fileId, Names names) {
+        this.fileId = fileId;
+        this.names = names;
+    }
+
+    private long position(Token token) {
+        return Position.of(fileId, token);
+    }
+
+    private Name name(Token token) {
+        return Name.of(names, fileId, token);
+    }
+
+    // Nodes built for rule contexts whose parents are not built yet.
+    private final Map<ParseTree, ASTNode> built = new IdentityHashMap<>();
+
+    // The visit methods below find the nodes of their children in built,
+    // so that they do not recurse, and deeply nested trees do not overflow
+    // the stack. A tree that is not there is built by build.
+    @Override
+    public ASTNode visit(ParseTree tree) {
+        if (built.containsKey(tree))
+            return built.get(tree);
+        return build(tree);
+    }
+
+    // Builds the given tree bottom-up, with a stack of the rule contexts on
+    // the path to the current one: each context is visited once all of its
+    // children are, and then its children's nodes are dropped.
+    private ASTNode build(ParseTree root) {
+        var path = new ArrayList<ParseTree>();
+        // Index of the next child to go down to, of each context on the path.
+        int[] nextChildren = new int[64];
+        path.add(root);
+        while (!path.isEmpty()) {
+            int top = path.size() - 1;
+            var tree = path.get(top);
+            if (nextChildren[top] < tree.getChildCount()) {
+                var child = tree.getChild(nextChildren[top]++);
+                if (child instanceof ParserRuleContext) {
+                    if (top + 1 == nextChildren.length)
+                        nextChildren = Arrays.copyOf(nextChildren, nextChildren.length * 2);
+                    nextChildren[top + 1] = 0;
+                    path.add(child);
+                }
+                continue;
+            }
+
+            path.remove(top);
+            var node = tree.accept(this);
+            for (int i = 0; i < tree.getChildCount(); i++)
+                built.remove(tree.getChild(i));
+            built.put(tree, node);
+        }
+        return built.remove(root);
+    }
+
     @Override
     public ASTNode visitProgram(CoolParser.ProgramContext ctx) {
         List<Class> classes = new ArrayList<>();
@@ -14,13 +77,13 @@ public class ASTVisitorConstruction extends CoolParserBaseVisitor<ASTNode> {
             classes.add((Class) visit(classCtx));
         }
 
-        return new Program(ctx, ctx.getStart(), classes);
+        return new CompilationUnit(position(ctx.getStart()), classes);
     }
 
     @Override
     public ASTNode visitClass(CoolParser.ClassContext ctx) {
-        Token className = ctx.TYPE(0).getSymbol();
-        Token parentType = ctx.TYPE().size() > 1 ? ctx.TYPE(1).getSymbol() : null;
+        Name className = name(ctx.TYPE(0).getSymbol());
+        Name parentType = ctx.TYPE().size() > 1 ? name(ctx.TYPE(1).getSymbol()) : null;
 
         LinkedList<Feature> features = new LinkedList<>();
         for (var featCtx : ctx.feature()) {
@@ -29,38 +92,38 @@ public class ASTVisitorConstruction extends CoolParserBaseVisitor<ASTNode> {
                 features.add(feature);
         }
 
-        return new Class(ctx, ctx.getStart(), className, parentType, features);
+        return new Class(position(ctx.getStart()), className, parentType, features);
     }
 
     @Override
     public ASTNode visitFormal(CoolParser.FormalContext ctx) {
         Token name = ctx.ID().getSymbol();
-        Token type = ctx.TYPE().getSymbol();
-        Id id = new Id(ctx, name);
-        return new Formal(ctx, id, type);
+        Name type = name(ctx.TYPE().getSymbol());
+        Id id = new Id(names, position(name), name.getText());
+        return new Formal(id, type);
     }
 
     @Override
     public ASTNode visitLocal(CoolParser.LocalContext ctx) {
         Token name = ctx.ID().getSymbol();
-        Token type = ctx.TYPE().getSymbol();
+        Name type = name(ctx.TYPE().getSymbol());
         Expression init = ctx.expr() != null ? (Expression) visit(ctx.expr()) : null;
-        Id id = new Id(ctx, name);
-        return new Local(ctx, id, type, init);
+        Id id = new Id(names, position(name), name.getText());
+        return new Local(id, type, init);
     }
 
     @Override
     public ASTNode visitFeature(CoolParser.FeatureContext ctx) {
         if (ctx.LPAREN() == null) {
             Token name = ctx.name;
-            Token type = ctx.type;
+            Name type = name(ctx.type);
             Expression init = ctx.init != null ? (Expression) visit(ctx.init) : null;
 
-            Id id = new Id(ctx, name);
-            return new Attr(ctx, id, type, init);
+            Id id = new Id(names, position(name), name.getText());
+            return new Attr(id, type, init);
         } else {
             Token name = ctx.name;
-            Token returnType = ctx.returnType;
+            Name returnType = name(ctx.returnType);
 
             List<Formal> formals = new ArrayList<>();
             for (var fctx : ctx.formal()) {
@@ -68,9 +131,9 @@ public class ASTVisitorConstruction extends CoolParserBaseVisitor<ASTNode> {
             }
 
             Expression body = (Expression) visit(ctx.body);
-            Id id = new Id(ctx, name);
+            Id id = new Id(names, position(name), name.getText());
 
-            return new Method(ctx, id, formals, returnType, body);
+            return new Method(id, formals, returnType, body);
         }
     }
 
@@ -80,11 +143,7 @@ public class ASTVisitorConstruction extends CoolParserBaseVisitor<ASTNode> {
         for (var e : ctx.exprs) {
             exprs.add((Expression) visit(e));
         }
-        return new Block(ctx, ctx.getStart(), exprs);
-    }
-
-    private Expression bin(ParserRuleContext ctx, String op, Token start, Expression l, Expression r) {
-        return new BinaryOp(ctx, start, l, op, r);
+        return new Block(position(ctx.getStart()), exprs);
     }
 
     @Override
@@ -98,7 +157,7 @@ public class ASTVisitorConstruction extends CoolParserBaseVisitor<ASTNode> {
         var r = (Expression) visit(ctx.right);
         String op = (ctx.MULT()!=null) ? "*" : "/";
         Token opTok = (ctx.MULT()!=null) ? ctx.MULT().getSymbol() : ctx.DIV().getSymbol();
-        return new BinaryOp(ctx, opTok, l, op, r);
+        return new BinaryOp(position(opTok), l, op, r);
     }
 
     @Override
@@ -107,7 +166,7 @@ public class ASTVisitorConstruction extends CoolParserBaseVisitor<ASTNode> {
         var r = (Expression) visit(ctx.right);
         String op = (ctx.PLUS()!=null) ? "+" : "-";
         Token opTok = (ctx.PLUS()!=null) ? ctx.PLUS().getSymbol() : ctx.MINUS().getSymbol();
-        return new BinaryOp(ctx, opTok, l, op, r);
+        return new BinaryOp(position(opTok), l, op, r);
     }
 
     @Override
@@ -118,67 +177,67 @@ public class ASTVisitorConstruction extends CoolParserBaseVisitor<ASTNode> {
         if (ctx.LT()!=null)      { op = "<";  opTok = ctx.LT().getSymbol(); }
         else if (ctx.LE()!=null) { op = "<="; opTok = ctx.LE().getSymbol(); }
         else                     { op = "=";  opTok = ctx.EQUAL().getSymbol(); }
-        return new BinaryOp(ctx, opTok, l, op, r);
+        return new BinaryOp(position(opTok), l, op, r);
     }
 
     @Override
     public ASTNode visitNeg(CoolParser.NegContext ctx) {
-        return new Neg(ctx, ctx.getStart(), (Expression) visit(ctx.e));
+        return new Neg(position(ctx.getStart()), (Expression) visit(ctx.e));
     }
 
     @Override
     public ASTNode visitNot(CoolParser.NotContext ctx) {
-        return new Not(ctx, ctx.getStart(), (Expression) visit(ctx.e));
+        return new Not(position(ctx.getStart()), (Expression) visit(ctx.e));
     }
 
     @Override
     public ASTNode visitId(CoolParser.IdContext ctx) {
-        return new Id(ctx, ctx.ID().getSymbol());
+        return new Id(names, position(ctx.ID().getSymbol()), ctx.ID().getText());
     }
 
     @Override
     public ASTNode visitInt(CoolParser.IntContext ctx) {
-        return new Int(ctx, ctx.getStart());
+        return new Int(position(ctx.getStart()), ctx.getStart().getText());
     }
 
     @Override
     public ASTNode visitStr(CoolParser.StrContext ctx) {
-        return new Str(ctx, ctx.getStart());
+        return new Str(position(ctx.getStart()), ctx.getStart().getText());
     }
 
     @Override
     public ASTNode visitBoolVal(CoolParser.BoolValContext ctx) {
-        return new Bool(ctx, ctx.getStart());
+        return new Bool(position(ctx.getStart()), ctx.getStart().getText());
     }
 
     @Override
     public ASTNode visitAssignVal(CoolParser.AssignValContext ctx) {
-        Token name = ctx.name;
+        Name name = name(ctx.name);
         Expression value = (Expression) visit(ctx.init);
-        return new Assign(ctx, ctx.getStart(), name, value);
+        return new Assign(position(ctx.getStart()), name, value);
     }
 
     @Override
     public ASTNode visitStaticDispatch(CoolParser.StaticDispatchContext ctx) {
         Expression caller = (Expression) visit(ctx.target);
-        Token typeTok = ctx.type != null ? ctx.type : null;
-        Token methodName = ctx.id;
+        Name typeName = name(ctx.type);
+        Name methodName = name(ctx.id);
 
         List<Expression> args = new ArrayList<>();
         if (ctx.args != null) {
             for (var a : ctx.args) args.add((Expression) visit(a));
         }
-        return new StaticDispatch(ctx, ctx.getStart(), caller, typeTok, methodName, args);
+        return new StaticDispatch(position(ctx.getStart()), caller, typeName, methodName, args);
     }
 
     @Override
     public ASTNode visitDispatch(CoolParser.DispatchContext ctx) {
-        Token name = ctx.name;
+        Name name = name(ctx.name);
         List<Expression> args = new ArrayList<>();
         if (ctx.args != null) {
             for (var a : ctx.args) args.add((Expression) visit(a));
         }
-        return new Dispatch(ctx, ctx.getStart(), name, args);
+        return new Dispatch(position(ctx.getStart()), name, args);
     }
 
     @Override
@@ -186,14 +245,14 @@ public class ASTVisitorConstruction extends CoolParserBaseVisitor<ASTNode> {
         Expression cond = (Expression) visit(ctx.cond);
         Expression thenB = (Expression) visit(ctx.thenBranch);
         Expression elseB = (Expression) visit(ctx.elseBranch);
-        return new If(ctx, cond, thenB, elseB, ctx.getStart());
+        return new If(cond, thenB, elseB, position(ctx.getStart()));
     }
 
     @Override
     public ASTNode visitWhileExpr(CoolParser.WhileExprContext ctx) {
         Expression cond = (Expression) visit(ctx.cond);
         Expression body = (Expression) visit(ctx.whileBranch);
-        return new While(ctx, ctx.getStart(), cond, body);
+        return new While(position(ctx.getStart()), cond, body);
     }
 
     @Override
@@ -206,7 +265,7 @@ public class ASTVisitorConstruction extends CoolParserBaseVisitor<ASTNode> {
         List<Local> locals = new ArrayList<>();
         for (var lctx : ctx.localVars) locals.add((Local) visit(lctx));
         Expression body = (Expression) visit(ctx.exp);
-        return new Let(ctx, ctx.getStart(), locals, body);
+        return new Let(position(ctx.getStart()), locals, body);
     }
 
     @Override
@@ -216,18 +275,19 @@ public class ASTVisitorConstruction extends CoolParserBaseVisitor<ASTNode> {
         for (int i = 0; i < ctx.types.size(); i++) {
             Formal formal = (Formal) visit(ctx.types.get(i));
             Expression expr = (Expression) visit(ctx.exprs.get(i));
-            branches.add(new CaseBranch(ctx, formal.getToken(), formal.id.getToken(), formal.type, expr));
+            var name = new Name(names, formal.id.nameId, formal.id.getPosition());
+            branches.add(new CaseBranch(formal.getPosition(), name, formal.type, expr));
         }
-        return new Case(ctx, ctx.getStart(), cond, branches);
+        return new Case(position(ctx.getStart()), cond, branches);
     }
 
     @Override
     public ASTNode visitNewExpr(CoolParser.NewExprContext ctx) {
-        return new New(ctx, ctx.getStart(), ctx.type);
+        return new New(position(ctx.getStart()), name(ctx.type));
     }
 
     @Override
     public ASTNode visitIsVoid(CoolParser.IsVoidContext ctx) {
-        return new IsVoid(ctx, ctx.getStart(), (Expression) visit(ctx.e));
+        return new IsVoid(position(ctx.getStart()), (Expression) visit(ctx.e));
     }
 }
@@ -0,0 +1,205 @@
+package cool.compiler;
+
+import java.util.Iterator;
+import java.util.List;
+
+// Pass over an AST that keeps the path from the root to the current node in
+// frames on the heap instead of on the thread's stack, so that nesting
+// depth is bounded by memory and not by the stack size.
+//
+// A pass handles a node in steps. Each step is one call of the resume
+// method for its kind, which either asks for a child to be visited, and is
+// called again with the child's result once that is done, or finishes the
+// node with its own result. Passes write a resume method as the visit
+// method it stands for, cut at each child visit: a switch on the phase of
+// the frame, with one case per place the visit method would recurse, each
+// falling through to the next. What the visit method keeps in locals across
+// a child visit, the step keeps in the frame. Frames are reused from node
+// to node, so a walk allocates only when it gets deeper than it has been.
+//
+// The kind of a node selects its resume method by a switch on NodeKind, so
+// there is no double dispatch through ASTNode.accept.
+abstract class ASTWalk<T> {
+    static final class Frame<T> {
+        private static final byte NONE = 0;
+        private static final byte VISIT = 1;
+        private static final byte FINISH = 2;
+
+        ASTNode node;
+        // Free for the pass, 0 on the first step of a node.
+        int phase;
+        int index;
+        T value;
+        Object saved;
+        // Result of the child visited last, or null on the first step.
+        T child;
+
+        // The frames of the parent and of the child, once there has been one.
+        private final Frame<T> parent;
+        private Frame<T> next;
+
+        private byte action;
+        private ASTNode visited;
+        private T result;
+        // Position of visitEach in its parts, and in the list it is at.
+        private int part;
+        private Iterator<? extends ASTNode> elements;
+
+        private Frame(Frame<T> parent) {
+            this.parent = parent;
+        }
+
+        private void enter(ASTNode node) {
+            this.node = node;
+            phase = 0;
+            index = 0;
+            value = null;
+            saved = null;
+            child = null;
+            part = 0;
+            elements = null;
+        }
+
+        // Visits the given child, which may be null for an absent one, and
+        // resumes this node with its result.
+        void visit(ASTNode child) {
+            visited = child;
+            action = VISIT;
+        }
+
+        // Visits the next of the given nodes and returns true, or returns
+        // false once all of them have been visited, ready for another list.
+        boolean visitNext(List<? extends ASTNode> nodes) {
+            if (elements == null)
+                elements = nodes.iterator();
+            if (elements.hasNext()) {
+                visit(elements.next());
+                return true;
+            }
+            elements = null;
+            return false;
+        }
+
+        // Visits the next of the given nodes and lists of nodes, in order,
+        // and returns true, or returns false once all of them have been
+        // visited. The parts must be the same on every call for a node.
+        boolean visitEach(Object... parts) {
+            while (part < parts.length) {
+                if (!(parts[part] instanceof List<?> list)) {
+                    visit((ASTNode) parts[part++]);
+                    return true;
+                }
+                @SuppressWarnings("unchecked")
+                var nodes = (List<? extends ASTNode>) list;
+                if (visitNext(nodes))
+                    return true;
+                part++;
+            }
+            return false;
+        }
+
+        void finish(T result) {
+            this.result = result;
+            action = FINISH;
+        }
+    }
+
+    // Walks the tree under the given node, and returns the result for it.
+    final T walk(ASTNode root) {
+        if (root == null)
+            return absent();
+
+        var frame = new Frame<T>(null);
+        frame.enter(root);
+        while (true) {
+            frame.action = Frame.NONE;
+            resume(frame);
+
+            if (frame.action == Frame.VISIT) {
+                var child = frame.visited;
+                if (child == null) {
+                    frame.child = absent();
+                    continue;
+                }
+                if (frame.next == null)
+                    frame.next = new Frame<>(frame);
+                frame = frame.next;
+                frame.enter(child);
+            } else if (frame.action == Frame.FINISH) {
+                var result = frame.result;
+                if (frame.parent == null)
+                    return result;
+                frame = frame.parent;
+                frame.child = result;
+            } else {
+                throw new IllegalStateException("Step neither visits nor finishes " + frame.node);
+            }
+        }
+    }
+
+    // Result of an absent child, which is not visited.
+    T absent() {
+        return null;
+    }
+
+    // Calls the resume method for the kind of the node of the frame.
+    private void resume(Frame<T> frame) {
+        var node = frame.node;
+        switch (node.kind) {
+            case NodeKind.ID -> resume(frame, (Id) node);
+            case NodeKind.INT -> resume(frame, (Int) node);
+            case NodeKind.STR -> resume(frame, (Str) node);
+            case NodeKind.BOOL -> resume(frame, (Bool) node);
+            case NodeKind.FORMAL -> resume(frame, (Formal) node);
+            case NodeKind.CLASS -> resume(frame, (Class) node);
+            case NodeKind.PROGRAM -> resume(frame, (Program) node);
+            case NodeKind.COMPILATION_UNIT -> resume(frame, (CompilationUnit) node);
+            case NodeKind.LOCAL -> resume(frame, (Local) node);
+            case NodeKind.METHOD -> resume(frame, (Method) node);
+            case NodeKind.ATTR -> resume(frame, (Attr) node);
+            case NodeKind.BLOCK -> resume(frame, (Block) node);
+            case NodeKind.IF -> resume(frame, (If) node);
+            case NodeKind.WHILE -> resume(frame, (While) node);
+            case NodeKind.LET -> resume(frame, (Let) node);
+            case NodeKind.CASE -> resume(frame, (Case) node);
+            case NodeKind.CASE_BRANCH -> resume(frame, (CaseBranch) node);
+            case NodeKind.ASSIGN -> resume(frame, (Assign) node);
+            case NodeKind.DISPATCH -> resume(frame, (Dispatch) node);
+            case NodeKind.STATIC_DISPATCH -> resume(frame, (StaticDispatch) node);
+            case NodeKind.BINARY_OP -> resume(frame, (BinaryOp) node);
+            case NodeKind.NOT -> resume(frame, (Not) node);
+            case NodeKind.IS_VOID -> resume(frame, (IsVoid) node);
+            case NodeKind.NEW -> resume(frame, (New) node);
+            case NodeKind.PAREN -> resume(frame, (Paren) node);
+            case NodeKind.NEG -> resume(frame, (Neg) node);
+            default -> throw new IllegalStateException("Unknown node kind " + node.kind);
+        }
+    }
+
+    abstract void resume(Frame<T> frame, Id id);
+    abstract void resume(Frame<T> frame, Int integer);
+    abstract void resume(Frame<T> frame, Str str);
+    abstract void resume(Frame<T> frame, Bool bool);
+    abstract void resume(Frame<T> frame, Formal formal);
+    abstract void resume(Frame<T> frame, Class classs);
+    abstract void resume(Frame<T> frame, Program program);
+    abstract void resume(Frame<T> frame, CompilationUnit unit);
+    abstract void resume(Frame<T> frame, Local local);
+    abstract void resume(Frame<T> frame, Method method);
+    abstract void resume(Frame<T> frame, Attr attr);
+    abstract void resume(Frame<T> frame, Block block);
+    abstract void resume(Frame<T> frame, If ifExpr);
+    abstract void resume(Frame<T> frame, While whileExpr);
+    abstract void resume(Frame<T> frame, Let letExpr);
+    abstract void resume(Frame<T> frame, Case caseExpr);
+    abstract void resume(Frame<T> frame, CaseBranch branch);
+    abstract void resume(Frame<T> frame, Assign assign);
+    abstract void resume(Frame<T> frame, Dispatch dispatch);
+    abstract void resume(Frame<T> frame, StaticDispatch staticDispatch);
+    abstract void resume(Frame<T> frame, BinaryOp op);
+    abstract void resume(Frame<T> frame, Not notExpr);
+    abstract void resume(Frame<T> frame, IsVoid isVoidExpr);
+    abstract void resume(Frame<T> frame, New newExpr);
+    abstract void resume(Frame<T> frame, Paren paren);
+    abstract void resume(Frame<T> frame, Neg negExpr);
+}
@@ -0,0 +1,238 @@
+package cool.compiler;
+
+import cool.lexer.CoolLexer;
+import org.antlr.v4.runtime.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Lexes one large file on several threads. The file is cut into chunks at
+// line starts, and every chunk is lexed speculatively from its start, as if
+// CoolLexer were there between two tokens. Lines and columns are exact from
+// the start, as a line start is at column 0 of the line after the newlines
+// before it. The guess itself is wrong when the line start is inside a
+// block comment or a string continued with a backslash.
+//
+// Between two tokens, CoolLexer is always back in its default mode, since
+// strings and nested comments are single tokens, so its whole state is the
+// offset it lexes the next token from. The chunks are put together in order
+// by following the offset the sequential lexer would be at: as soon as it
+// is one that a chunk lexed a token from, that token and all after it in
+// the chunk are the ones the sequential lexer would have produced. Until
+// then, and wherever a chunk guessed wrong, the tokens are lexed again from
+// the real offset, which repairs the chunk. The token stream comes out the
+// same as that of a single CoolLexer, positions included.
+final class ChunkedLexing {
+    // Chunks are at least this long, so that small files are not split.
+    private static final int MIN_CHUNK_LENGTH = 1 << 20;
+    // Chunks per thread, which evens out chunks that lex at different speeds.
+    private static final int CHUNKS_PER_THREAD = 4;
+    private static final int READ_BLOCK_SIZE = 1 << 16;
+
+    private ChunkedLexing() {}
+
+    // Tokens lexed speculatively from the start of a chunk, along with the
+    // offsets they were lexed from, up to the start of the next chunk. The
+    // last one may run past it.
+    private static final class Chunk {
+        final int start;
+        final int line;
+        int end = Integer.MAX_VALUE;
+
+        final List<Token> tokens = new ArrayList<>();
+        int[] froms = new int[1024];
+
+        // Lexer state after the last token.
+        int endIndex;
+        int endLine;
+        int endColumn;
+
+        Chunk(int start, int line) {
+            this.start = start;
+            this.line = line;
+        }
+
+        void add(int from, Token token) {
+            if (tokens.size() == froms.length)
+                froms = Arrays.copyOf(froms, froms.length * 2);
+            froms[tokens.size()] = from;
+            tokens.add(token);
+        }
+
+        // Index of the token lexed from the given offset, or -1.
+        int indexOf(int from) {
+            int index = Arrays.binarySearch(froms, 0, tokens.size(), from);
+            return index < 0 ? -1 : index;
+        }
+    }
+
+    // The code points of the given UTF-8 file, which the chunks share. They
+    // are decoded from the file into the buffer a block at a time, as
+    // CharStreams.fromPath does, so the text is never held in full twice.
+    // Malformed input is replaced, also as there.
+    static CodePointBuffer read(Path file) throws IOException {
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return read(channel, channel.size());
+        }
+    }
+
+    // The same from the contents of a file, already read.
+    static CodePointBuffer read(byte[] contents) throws IOException {
+        return read(Channels.newChannel(new ByteArrayInputStream(contents)), contents.length);
+    }
+
+    private static CodePointBuffer read(ReadableByteChannel channel, long size) throws IOException {
+        var decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        // Builders only take array-backed buffers.
+        var bytes = ByteBuffer.allocate(READ_BLOCK_SIZE);
+        var chars = CharBuffer.allocate(READ_BLOCK_SIZE);
+        var builder = CodePointBuffer.builder((int) Math.min(size, Integer.MAX_VALUE));
+
+        boolean end = false;
+        while (!end) {
+            end = channel.read(bytes) < 0;
+            bytes.flip();
+            decoder.decode(bytes, chars, end);
+            chars.flip();
+            builder.append(chars);
+            bytes.compact();
+            chars.compact();
+        }
+        decoder.flush(chars);
+        chars.flip();
+        builder.append(chars);
+        return builder.build();
+    }
+
+    // A source of the tokens of the given code points, lexed in chunks if
+    // there are enough of them. The lexers intern string constants in the
+    // given table, if any, from several threads at once.
+    static TokenSource lex(CodePointBuffer buffer, String sourceName, ConcurrentMap<String, String> stringTable)
+            throws IOException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        int size = buffer.remaining();
+        return lex(buffer, sourceName, stringTable, Math.max(MIN_CHUNK_LENGTH, size / (threads * CHUNKS_PER_THREAD)));
+    }
+
+    // The same, with chunks of at least the given length.
+    static TokenSource lex(CodePointBuffer buffer, String sourceName, ConcurrentMap<String, String> stringTable,
+                           int chunkLength) throws IOException {
+        int size = buffer.remaining();
+
+        // Chunks start right after a newline.
+        var chunks = new ArrayList<Chunk>();
+        chunks.add(new Chunk(0, 1));
+        int line = 1;
+        int next = chunkLength;
+        for (int i = 0; i < size - 1; i++) {
+            if (buffer.get(i) == '\n') {
+                line++;
+                if (i + 1 >= next) {
+                    chunks.get(chunks.size() - 1).end = i + 1;
+                    chunks.add(new Chunk(i + 1, line));
+                    next = i + 1 + chunkLength;
+                }
+            }
+        }
+
+        if (chunks.size() == 1)
+            return newLexer(buffer, sourceName, stringTable, 0, 1, 0);
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        var pool = Executors.newFixedThreadPool(Math.min(threads, chunks.size()), runnable -> {
+            var thread = new Thread(runnable, "cool-lexer");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            var futures = new ArrayList<Future<Chunk>>();
+            for (var chunk : chunks)
+                futures.add(pool.submit(() -> lexChunk(buffer, sourceName, stringTable, chunk)));
+
+            // State of the sequential lexer, and the lexer repairing chunks,
+            // if any, which is in that state.
+            var tokens = new ArrayList<Token>();
+            int index = 0;
+            line = 1;
+            int column = 0;
+            CoolLexer repair = null;
+
+            for (var future : futures) {
+                var chunk = Compiler.await(future);
+
+                int first;
+                while ((first = chunk.indexOf(index)) < 0 && index < chunk.end) {
+                    if (repair == null)
+                        repair = newLexer(buffer, sourceName, stringTable, index, line, column);
+
+                    var token = repair.nextToken();
+                    tokens.add(token);
+                    index = repair.getInputStream().index();
+                    line = repair.getLine();
+                    column = repair.getCharPositionInLine();
+                    if (token.getType() == Token.EOF)
+                        return new ListTokenSource(tokens, sourceName);
+                }
+
+                if (first >= 0) {
+                    tokens.addAll(chunk.tokens.subList(first, chunk.tokens.size()));
+                    index = chunk.endIndex;
+                    line = chunk.endLine;
+                    column = chunk.endColumn;
+                    repair = null;
+                }
+            }
+
+            // The last chunk lexes to the end, so its tokens end with EOF.
+            return new ListTokenSource(tokens, sourceName);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // Lexes the tokens of a chunk, from its start until the lexer is at the
+    // start of the next chunk or beyond, or up to EOF for the last chunk.
+    private static Chunk lexChunk(CodePointBuffer buffer, String sourceName, Map<String, String> stringTable,
+                                  Chunk chunk) {
+        var lexer = newLexer(buffer, sourceName, stringTable, chunk.start, chunk.line, 0);
+        var input = lexer.getInputStream();
+        while (input.index() < chunk.end) {
+            int from = input.index();
+            var token = lexer.nextToken();
+            chunk.add(from, token);
+            if (token.getType() == Token.EOF)
+                break;
+        }
+
+        chunk.endIndex = input.index();
+        chunk.endLine = lexer.getLine();
+        chunk.endColumn = lexer.getCharPositionInLine();
+        return chunk;
+    }
+
+    // A lexer of its own stream over the shared code points, at the given
+    // offset, line and column.
+    private static CoolLexer newLexer(CodePointBuffer buffer, String sourceName, Map<String, String> stringTable,
+                                      int index, int line, int column) {
+        var input = CodePointCharStream.fromBuffer(buffer, sourceName);
+        input.seek(index);
+        var lexer = new CoolLexer(input);
+        lexer.setStringTable(stringTable);
+        lexer.setLine(line);
+        lexer.setCharPositionInLine(column);
+        return lexer;
+    }
+}
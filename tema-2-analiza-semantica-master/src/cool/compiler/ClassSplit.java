@@ -0,0 +1,244 @@
+package cool.compiler;
+
+import cool.lexer.CoolLexer;
+import cool.parser.CoolParser;
+import cool.structures.Names;
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.Interval;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Parses one large file on several threads, in chunks of whole classes.
+// A pre-scan over the characters finds the "class" keywords outside of
+// braces, strings and comments, where CoolLexer is between tokens and in
+// its default mode. Each chunk is then lexed and parsed on its own, with
+// the lexer starting at the line and column of the chunk in the file, and
+// the classes of all chunks are put back together in source order.
+//
+// Chunks only ever parse files without errors. Anything the pre-scan does
+// not model exactly, such as an unterminated string or comment, stops the
+// split, and any syntax error in a chunk, or a chunk the parser does not
+// read to the end, gives up on the parallel parse. The whole file is then
+// parsed as usual, so that errors are reported as if it had never been
+// split.
+final class ClassSplit {
+    // Chunks are at least this long, so that small files are not split.
+    private static final int MIN_CHUNK_LENGTH = 64 << 10;
+    // Chunks per thread, which evens out classes of different sizes.
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private ClassSplit() {}
+
+    // Part of the text starting at a class, or at the start of the text,
+    // and the line and column that start is at.
+    record Chunk(int start, int end, int line, int column) {}
+
+    // The AST of the given input, parsed in chunks, or null if it is too
+    // small to split or would not parse without errors.
+    static CompilationUnit parse(CharStream input, int fileId, Names names) throws IOException {
+        var text = input.getText(Interval.of(0, input.size() - 1));
+        int threads = Runtime.getRuntime().availableProcessors();
+        return parse(text, fileId, names, Math.max(MIN_CHUNK_LENGTH, text.length() / (threads * CHUNKS_PER_THREAD)));
+    }
+
+    // The same, for the text of a file, with chunks of at least the given
+    // length.
+    static CompilationUnit parse(String text, int fileId, Names names, int chunkLength) throws IOException {
+        var chunks = split(text, chunkLength);
+        if (chunks.size() <= 1)
+            return null;
+
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        var pool = Executors.newFixedThreadPool(Math.min(threads, chunks.size()), runnable -> {
+            var thread = new Thread(runnable, "cool-parser");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            // Repeated string constants share one String in the AST, across
+            // chunks as well.
+            Map<String, String> stringTable = new ConcurrentHashMap<>();
+
+            var futures = new ArrayList<Future<CompilationUnit>>();
+            for (int i = 0; i < chunks.size(); i++) {
+                var chunk = chunks.get(i);
+                boolean last = i == chunks.size() - 1;
+                futures.add(pool.submit(() -> parseChunk(text, chunk, last, fileId, names, stringTable)));
+            }
+
+            var units = new ArrayList<CompilationUnit>();
+            for (var future : futures) {
+                var unit = Compiler.await(future);
+                if (unit == null)
+                    return null;
+                units.add(unit);
+            }
+
+            // The first chunk starts at the start of the file, as does the
+            // unit.
+            List<Class> classes = new ArrayList<>();
+            for (var unit : units)
+                classes.addAll(unit.classes);
+            return new CompilationUnit(units.get(0).getPosition(), classes);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // Parses one chunk, or returns null at the first syntax error. Chunks
+    // but the last must be read to the end: the program rule stops at the
+    // first token that cannot start a class, which, in the whole file,
+    // would have hidden all the classes after it.
+    private static CompilationUnit parseChunk(String text, Chunk chunk, boolean last, int fileId, Names names,
+                                              Map<String, String> stringTable) {
+        var lexer = new CoolLexer(CharStreams.fromString(text.substring(chunk.start(), chunk.end())));
+        lexer.setLine(chunk.line());
+        lexer.setCharPositionInLine(chunk.column());
+        lexer.setStringTable(stringTable);
+        lexer.removeErrorListeners();
+
+        var tokenStream = new CommonTokenStream(lexer);
+        var parser = new CoolParser(tokenStream);
+        parser.removeErrorListeners();
+        parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+        parser.setErrorHandler(new BailErrorStrategy());
+
+        CoolParser.ProgramContext tree;
+        try {
+            tree = parser.program();
+        } catch (ParseCancellationException e) {
+            return null;
+        }
+        if (!last && tokenStream.LA(1) != Token.EOF)
+            return null;
+
+        return (CompilationUnit) new ASTVisitorConstruction(fileId, names).visit(tree);
+    }
+
+    // Splits the text before "class" keywords outside of braces, into chunks
+    // of at least the given length, except for the last one. Returns a
+    // single chunk if the text has anything the scan cannot follow.
+    static List<Chunk> split(String text, int chunkLength) {
+        var whole = List.of(new Chunk(0, text.length(), 1, 0));
+        var chunks = new ArrayList<Chunk>();
+        int start = 0;
+        int startLine = 1;
+        int startColumn = 0;
+        int depth = 0;
+
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            char c = text.charAt(i);
+            char next = i + 1 < length ? text.charAt(i + 1) : 0;
+
+            if (c == '"') {
+                i = stringEnd(text, i);
+            } else if (c == '-' && next == '-') {
+                int newline = text.indexOf('\n', i + 2);
+                i = newline < 0 ? length : newline + 1;
+            } else if (c == '(' && next == '*') {
+                i = commentEnd(text, i);
+            } else if (c == '*' && next == ')') {
+                // Unmatched, a lexical error.
+                return whole;
+            } else if (c == '<' && next == '-') {
+                // An assignment, whose '-' cannot start a line comment.
+                i += 2;
+            } else if (isWordPart(c)) {
+                int end = i + 1;
+                while (end < length && isWordPart(text.charAt(end)))
+                    end++;
+
+                if (depth == 0 && end - i == 5 && text.startsWith("class", i) && i - start >= chunkLength) {
+                    int line = startLine + countNewlines(text, start, i);
+                    int lineStart = text.lastIndexOf('\n', i - 1) + 1;
+                    // Columns count code points, like CoolLexer's.
+                    int column = lineStart > start
+                            ? text.codePointCount(lineStart, i)
+                            : startColumn + text.codePointCount(start, i);
+
+                    chunks.add(new Chunk(start, i, startLine, startColumn));
+                    start = i;
+                    startLine = line;
+                    startColumn = column;
+                }
+                i = end;
+            } else {
+                if (c == '{')
+                    depth++;
+                else if (c == '}')
+                    depth--;
+                i++;
+            }
+
+            if (i < 0)
+                return whole;
+        }
+
+        chunks.add(new Chunk(start, length, startLine, startColumn));
+        return chunks;
+    }
+
+    // Index after the string constant starting at the given index, or -1 if
+    // it does not end in a quote. As in CoolLexer, a backslash escapes the
+    // character after it, so escaped quotes and newlines do not end it.
+    private static int stringEnd(String text, int quote) {
+        for (int i = quote + 1; i < text.length(); i++) {
+            char c = text.charAt(i);
+
+            if (c == '\\') {
+                // A newline escaped on Windows takes two characters.
+                if (text.startsWith("\r\n", i + 1))
+                    i++;
+                i++;
+                continue;
+            }
+            if (c == '"')
+                return i + 1;
+            if (c == '\n' || c == '\r')
+                return -1;
+        }
+        return -1;
+    }
+
+    // Index after the nested comment starting at the given index, or -1 if
+    // the text ends first.
+    private static int commentEnd(String text, int open) {
+        int depth = 1;
+        int i = open + 2;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            char next = i + 1 < text.length() ? text.charAt(i + 1) : 0;
+            if (c == '(' && next == '*') {
+                depth++;
+                i += 2;
+            } else if (c == '*' && next == ')') {
+                i += 2;
+                if (--depth == 0)
+                    return i;
+            } else {
+                i++;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isWordPart(char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '_';
+    }
+
+    private static int countNewlines(String text, int start, int end) {
+        int count = 0;
+        for (int i = start; i < end; i++)
+            if (text.charAt(i) == '\n')
+                count++;
+        return count;
+    }
+}
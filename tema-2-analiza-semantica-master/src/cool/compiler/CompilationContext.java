@@ -0,0 +1,47 @@
+package cool.compiler;
+
+import cool.structures.Names;
+import cool.structures.SymbolTable;
+
+import java.io.PrintStream;
+import java.util.*;
+
+// Everything one compilation owns. Nothing is shared between contexts, so
+// several compilations can run in the same JVM, even concurrently.
+public class CompilationContext {
+    // Input files, indexed by the file ids in AST positions.
+    final List<String> fileNames = new ArrayList<>();
+
+    final PrintStream out;
+    final PrintStream err;
+
+    final SymbolTable symbolTable;
+
+    // Names of the program, interned by the parsers and the AST builders.
+    final Names names = new Names();
+
+    // Types of the nodes of the program, filled by ResolutionPassVisitor.
+    final TypeTable types = new TypeTable();
+
+    public CompilationContext(PrintStream out, PrintStream err) {
+        this.out = out;
+        this.err = err;
+        this.symbolTable = new SymbolTable(err);
+    }
+
+    /**
+     * Displays a semantic error message.
+     *
+     * @param position Position of the error, as packed by Position, which
+     *                 also identifies the file.
+     * @param str The error message.
+     */
+    void error(long position, String str) {
+        symbolTable.error(fileNames.get(Position.fileId(position)),
+                Position.line(position), Position.column(position), str);
+    }
+
+    boolean hasSemanticErrors() {
+        return symbolTable.hasSemanticErrors();
+    }
+}
@@ -0,0 +1,100 @@
+package cool.compiler;
+
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+// Long-lived compiler process. Keeping one JVM around saves the JVM startup,
+// the deserialization of the CoolLexer/CoolParser ATNs and the warm-up of
+// their DFA caches, which are static and therefore shared by all requests.
+//
+// Protocol: every request is one line holding the command-line arguments of
+// a compilation, separated by tab characters. The response is a header line
+// "<stdout bytes> <stderr bytes>", followed by exactly what the command-line
+// compiler would have printed to standard output and standard error.
+// Requests are served one at a time, until the end of the input.
+public class CompileDaemon {
+    static void serve(CompilerOptions options) throws IOException {
+        if (options.daemonSocket == null) {
+            serve(System.in, System.out);
+            return;
+        }
+
+        var path = Path.of(options.daemonSocket);
+        Files.deleteIfExists(path);
+
+        try (var server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(path));
+            while (true) {
+                try (var client = server.accept()) {
+                    serve(Channels.newInputStream(client), Channels.newOutputStream(client));
+                } catch (IOException e) {
+                    // A client going away must not stop the daemon.
+                }
+            }
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    static void serve(InputStream requests, OutputStream responses) throws IOException {
+        var reader = new BufferedReader(new InputStreamReader(requests, StandardCharsets.UTF_8));
+        var writer = new BufferedOutputStream(responses);
+
+        String request;
+        while ((request = reader.readLine()) != null) {
+            var args = request.isEmpty() ? new String[0] : request.split("\t");
+
+            var out = new ByteArrayOutputStream();
+            var err = new ByteArrayOutputStream();
+            compile(args, out, err);
+
+            writer.write((out.size() + " " + err.size() + "\n").getBytes(StandardCharsets.US_ASCII));
+            out.writeTo(writer);
+            err.writeTo(writer);
+            writer.flush();
+        }
+    }
+
+    // Runs one compilation with standard output and error captured. All
+    // compiler state lives in the CompilationContext, so this is reentrant.
+    static void compile(String[] args, OutputStream out, OutputStream err) {
+        var charset = consoleCharset();
+        var context = new CompilationContext(new PrintStream(out, true, charset),
+                                             new PrintStream(err, true, charset));
+        try {
+            CompilerOptions options;
+            try {
+                options = CompilerOptions.parse(args);
+            } catch (IllegalArgumentException e) {
+                context.err.println(e.getMessage());
+                return;
+            }
+
+            if (options.daemon)
+                context.err.println("Already running as a daemon");
+            else
+                Compiler.compile(options, context);
+        } catch (Throwable e) {
+            // What the JVM prints for an exception escaping main.
+            context.err.print("Exception in thread \"main\" ");
+            e.printStackTrace(context.err);
+        } finally {
+            context.out.flush();
+            context.err.flush();
+        }
+    }
+
+    // Encoding of the standard streams, as chosen by System.initPhase1.
+    static Charset consoleCharset() {
+        var encoding = System.getProperty("sun.stdout.encoding");
+        return encoding != null && Charset.isSupported(encoding)
+                ? Charset.forName(encoding)
+                : Charset.defaultCharset();
+    }
+}
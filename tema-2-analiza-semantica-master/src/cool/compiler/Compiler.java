@@ -1,146 +1,386 @@
 package cool.compiler;
 
-import cool.structures.SymbolTable;
 import org.antlr.v4.runtime.*;
-import org.antlr.v4.runtime.tree.*;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
 
+import cool.lexer.*;
 import cool.parser.*;
+import cool.structures.Names;
 
 import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
 
 public class Compiler {
-    // Annotates class nodes with the names of files where they are defined.
-    public static ParseTreeProperty<String> fileNames = new ParseTreeProperty<>();
-
     public static void main(String[] args) throws IOException {
-        if (args.length == 0) {
-            System.err.println("No file(s) given");
+        CompilerOptions options;
+        try {
+            options = CompilerOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            return;
+        }
+
+        if (options.daemon) {
+            CompileDaemon.serve(options);
+            return;
+        }
+
+        compile(options, new CompilationContext(System.out, System.err));
+    }
+
+    static void compile(CompilerOptions options, CompilationContext context) throws IOException {
+        if (options.fileNames.isEmpty()) {
+            context.err.println("No file(s) given");
+            return;
+        }
+        
+        if (options.tokensOnly) {
+            printTokens(options, context);
             return;
         }
+
+        if (options.outlineOnly) {
+            printOutline(options, context);
+            return;
+        }
+
+        // File ids in AST positions are indices in command-line order.
+        context.fileNames.addAll(options.fileNames);
         
-        CoolLexer lexer = null;
-        CommonTokenStream tokenStream = null;
-        CoolParser parser = null;
-        ParserRuleContext globalTree = null;
+        List<CompilationUnit> units = new ArrayList<>();
         
         // True if any lexical or syntax errors occur.
         boolean lexicalSyntaxErrors = false;
         
-        // Parse each input file and build one big parse tree out of
-        // individual parse trees.
-        for (var fileName : args) {
-            var input = CharStreams.fromFileName(fileName);
-            
-            // Lexer
-            if (lexer == null)
-                lexer = new CoolLexer(input);
-            else
-                lexer.setInputStream(input);
-
-            // Token stream
-            if (tokenStream == null)
-                tokenStream = new CommonTokenStream(lexer);
-            else
-                tokenStream.setTokenSource(lexer);
-                
-
-            // Test lexer only.
-//            tokenStream.fill();
-//            List<Token> tokens = tokenStream.getTokens();
-//            tokens.stream().forEach(token -> {
-//                var text = token.getText();
-//                var name = CoolLexer.VOCABULARY.getSymbolicName(token.getType());
-//
-//                System.out.println(text + " : " + name);
-//                //System.out.println(token);
-//            });
-
+        // Parse each input file into its own compilation unit. Files are
+        // parsed concurrently, but gathered and reported in command-line
+        // order.
+        for (var parsedFile : parseFiles(options, context.names)) {
+            var ast = parsedFile.ast();
             
-            // Parser
-            if (parser == null)
-                parser = new CoolParser(tokenStream);
-            else
-                parser.setTokenStream(tokenStream);
-            
-            // Customized error listener, for including file names in error
-            // messages.
-            var errorListener = new BaseErrorListener() {
-                public boolean errors = false;
-                
-                @Override
-                public void syntaxError(Recognizer<?, ?> recognizer,
-                                        Object offendingSymbol,
-                                        int line, int charPositionInLine,
-                                        String msg,
-                                        RecognitionException e) {
-                    String newMsg = "\"" + new File(fileName).getName() + "\", line " +
-                                        line + ":" + (charPositionInLine + 1) + ", ";
-                    
-                    Token token = (Token)offendingSymbol;
-                    if (token.getType() == CoolLexer.ERROR)
-                        newMsg += "Lexical error: " + token.getText();
-                    else
-                        newMsg += "Syntax error: " + msg;
-                    
-                    System.err.println(newMsg);
-                    errors = true;
-                }
-            };
-            
-            parser.removeErrorListeners();
-            parser.addErrorListener(errorListener);
-            
-            // Actual parsing
-            var tree = parser.program();
-            if (globalTree == null)
-                globalTree = tree;
-            else
-                // Add the current parse tree's children to the global tree.
-                for (int i = 0; i < tree.getChildCount(); i++)
-                    globalTree.addAnyChild(tree.getChild(i));
-                    
-            // Annotate class nodes with file names, to be used later
-            // in semantic error messages.
-            for (int i = 0; i < tree.getChildCount(); i++) {
-                var child = tree.getChild(i);
-                // The only ParserRuleContext children of the program node
-                // are class nodes.
-                if (child instanceof ParserRuleContext)
-                    fileNames.put(child, fileName);
-            }
+            // Report this file's lexical and syntax errors.
+            for (var error : parsedFile.errors())
+                context.err.println(error);
             
             // Record any lexical or syntax errors.
-            lexicalSyntaxErrors |= errorListener.errors;
+            lexicalSyntaxErrors |= !parsedFile.errors().isEmpty();
+            
+            if (ast != null)
+                units.add(ast);
         }
 
         // Stop before semantic analysis phase, in case errors occurred.
         if (lexicalSyntaxErrors) {
-            System.err.println("Compilation halted");
+            context.err.println("Compilation halted");
             return;
         }
         
         // TODO Print tree
-        ASTVisitorConstruction astBuilder = new ASTVisitorConstruction();
-        ASTNode ast = astBuilder.visit(globalTree);
+        ASTNode ast = new Program(units);
 
 //        if (ast instanceof Program program) {
 //            ASTPrintVisitor printVisitor = new ASTPrintVisitor();
-//            program.accept(printVisitor);
+//            printVisitor.walk(program);
 //        } else {
 //            System.err.println("Unexpected AST root node type: " + ast.getClass().getSimpleName());
 //        }
 
-        // Populate global scope.
-        SymbolTable.defineBasicClasses();
-
         // TODO Semantic analysis
-        ast.accept(new DefinitionPassVisitor());
-        ast.accept(new ResolutionPassVisitor());
+        new DefinitionPassVisitor(context).walk(ast);
+        new ResolutionPassVisitor(context).walk(ast);
 
-        if (SymbolTable.hasSemanticErrors()) {
-            System.err.println("Compilation halted");
+        if (context.hasSemanticErrors()) {
+            context.err.println("Compilation halted");
             return;
         }
 
     }
+
+    // AST of one input file, along with its lexical and syntax errors. The
+    // AST is null if there are any; the parse tree is not kept either way.
+    record ParsedFile(String fileName, CompilationUnit ast, List<String> errors) {}
+
+    // Lexes and parses the given files on a pool of worker threads. Each file
+    // gets its own lexer and parser; the shared ATN/DFA caches of CoolLexer
+    // and CoolParser are thread-safe. Results come back in argument order.
+    static List<ParsedFile> parseFiles(CompilerOptions options, Names names) throws IOException {
+        var cache = options.astCacheDirectory == null ? null : new ASTCache(Paths.get(options.astCacheDirectory));
+        int threads = Math.min(options.fileNames.size(), Runtime.getRuntime().availableProcessors());
+        if (threads <= 1) {
+            var parsedFiles = new ArrayList<ParsedFile>();
+            for (int fileId = 0; fileId < options.fileNames.size(); fileId++)
+                parsedFiles.add(parseFile(options.fileNames.get(fileId), fileId, options, cache, names));
+            return parsedFiles;
+        }
+
+        var pool = Executors.newFixedThreadPool(threads, runnable -> {
+            var thread = new Thread(runnable, "cool-parser");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            var futures = new ArrayList<Future<ParsedFile>>();
+            for (int fileId = 0; fileId < options.fileNames.size(); fileId++) {
+                var fileName = options.fileNames.get(fileId);
+                var id = fileId;
+                futures.add(pool.submit(() -> parseFile(fileName, id, options, cache, names)));
+            }
+
+            var parsedFiles = new ArrayList<ParsedFile>();
+            for (var future : futures)
+                parsedFiles.add(await(future));
+            return parsedFiles;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // Parses the given file, or loads its AST from the given cache, if any.
+    static ParsedFile parseFile(String fileName, int fileId, CompilerOptions options, ASTCache cache, Names names)
+            throws IOException {
+        if (cache == null)
+            return parseSource(fileName, null, fileId, options, names);
+
+        // Cached ASTs skip lexing and parsing altogether. Files with errors
+        // are not cached, so that their errors are reported every time. The
+        // contents are read once, and the bytes hashed are the ones lexed.
+        var contents = Files.readAllBytes(Paths.get(fileName));
+        var key = ASTCache.key(contents);
+        var ast = cache.load(key, fileId, names);
+        if (ast != null)
+            return new ParsedFile(fileName, ast, List.of());
+
+        // Storing an outline would parse all of its method bodies.
+        var parsedFile = parseSource(fileName, contents, fileId, options, names);
+        if (parsedFile.ast() != null && !options.outlineOnly)
+            cache.store(key, parsedFile.ast());
+        return parsedFile;
+    }
+
+    // Parses the given file, from its contents if they were read already,
+    // or else from the file.
+    static ParsedFile parseSource(String fileName, byte[] contents, int fileId, CompilerOptions options, Names names)
+            throws IOException {
+        // Chunked lexing shares the code points of the file between its
+        // lexers, so they are read once, straight into its buffer, and the
+        // stream for everything else is over the same buffer.
+        CodePointBuffer codePoints = null;
+        CharStream input;
+        if (options.parallelLexing && !options.scanner) {
+            codePoints = contents != null ? ChunkedLexing.read(contents) : ChunkedLexing.read(Paths.get(fileName));
+            input = CodePointCharStream.fromBuffer(codePoints, fileName);
+        } else if (options.mappedInput) {
+            input = contents != null
+                    ? MappedCharStream.fromBytes(contents, fileName)
+                    : MappedCharStream.fromFileName(fileName);
+        } else {
+            input = contents != null ? decode(contents, fileName) : CharStreams.fromFileName(fileName);
+        }
+
+        // Large files without errors are parsed in parallel, a chunk of
+        // classes per task.
+        if (options.splitFiles) {
+            var ast = ClassSplit.parse(input, fileId, names);
+            if (ast != null)
+                return new ParsedFile(fileName, ast, List.of());
+        }
+        
+        // Lexer. Repeated string constants share one String in the AST.
+        TokenSource lexer;
+        if (options.scanner) {
+            var scanner = new CoolScanner(input);
+            scanner.setStringTable(new HashMap<>());
+            lexer = scanner;
+        } else if (codePoints != null) {
+            lexer = ChunkedLexing.lex(codePoints, fileName, new ConcurrentHashMap<>());
+        } else {
+            var coolLexer = new CoolLexer(input);
+            coolLexer.setStringTable(new HashMap<>());
+            lexer = coolLexer;
+        }
+
+        // Token stream
+        var tokenStream = new CommonTokenStream(lexer);
+
+        // Files without syntax errors need nothing more. The others are
+        // parsed again by CoolParser, for its error reporting. Outlines
+        // leave method bodies to be parsed on demand.
+        if (options.descentParsing || options.outlineOnly) {
+            var ast = new CoolDescent(tokenStream, fileId, names, options.outlineOnly).parse();
+            if (ast != null)
+                return new ParsedFile(fileName, ast, List.of());
+            tokenStream.seek(0);
+        }
+
+        // Parser
+        var parser = new CoolParser(tokenStream);
+        
+        var errorListener = new FileErrorListener(fileName);
+        parser.removeErrorListeners();
+        
+        ASTListenerConstruction astBuilder = null;
+        if (options.directAst) {
+            astBuilder = new ASTListenerConstruction(parser, fileId, names);
+            astBuilder.attach();
+        }
+        
+        // Actual parsing
+        var tree = options.twoStageParsing
+                ? parseTwoStage(parser, errorListener)
+                : parseFullLL(parser, errorListener);
+        
+        if (!errorListener.errors.isEmpty())
+            return new ParsedFile(fileName, null, errorListener.errors);
+        
+        var ast = astBuilder != null
+                ? astBuilder.getCompilationUnit()
+                : (CompilationUnit) new ASTVisitorConstruction(fileId, names).visit(tree);
+        return new ParsedFile(fileName, ast, errorListener.errors);
+    }
+
+    // The given UTF-8 contents, decoded as CharStreams.fromFileName decodes
+    // a file, malformed input replaced.
+    static CharStream decode(byte[] contents, String fileName) throws IOException {
+        return CharStreams.fromChannel(Channels.newChannel(new ByteArrayInputStream(contents)),
+                StandardCharsets.UTF_8, 4096, CodingErrorAction.REPLACE, fileName, contents.length);
+    }
+
+    // Prints every token of the given files as "text : NAME", EOF included.
+    // Characters are read through an UnbufferedCharStream and each token is
+    // written out as soon as it is lexed, so only the current token is ever
+    // held in memory. Tokens copy their text, as the stream drops it.
+    static void printTokens(CompilerOptions options, CompilationContext context) throws IOException {
+        var out = new BufferedWriter(new OutputStreamWriter(context.out, CompileDaemon.consoleCharset()), 1 << 16);
+
+        for (var fileName : options.fileNames) {
+            try (var in = Files.newInputStream(Paths.get(fileName))) {
+                var input = new UnbufferedCharStream(in, 1 << 12, StandardCharsets.UTF_8);
+                input.name = fileName;
+
+                TokenSource lexer = options.scanner ? new CoolScanner(input) : new CoolLexer(input);
+                lexer.setTokenFactory(new CommonTokenFactory(true));
+
+                Token token;
+                do {
+                    token = lexer.nextToken();
+                    var text = token.getType() == Token.EOF ? "<EOF>" : token.getText();
+                    out.write(text);
+                    out.write(" : ");
+                    out.write(CoolLexer.VOCABULARY.getSymbolicName(token.getType()));
+                    out.newLine();
+                } while (token.getType() != Token.EOF);
+            }
+        }
+
+        out.flush();
+    }
+
+    // Prints the classes of the given files, with their attributes and
+    // method signatures, in source order. Files with syntax errors outside
+    // of method bodies print their errors instead.
+    static void printOutline(CompilerOptions options, CompilationContext context) throws IOException {
+        for (var parsedFile : parseFiles(options, context.names)) {
+            for (var error : parsedFile.errors())
+                context.err.println(error);
+            if (parsedFile.ast() == null)
+                continue;
+
+            for (var classNode : parsedFile.ast().classes) {
+                context.out.print("class " + classNode.type.getText());
+                if (classNode.inherit != null)
+                    context.out.print(" inherits " + classNode.inherit.getText());
+                context.out.println();
+
+                for (var feature : classNode.features) {
+                    if (feature instanceof Attr attr) {
+                        context.out.println("  " + attr.id.getText() + " : " + attr.type.getText());
+                    } else if (feature instanceof Method method) {
+                        var formals = new StringJoiner(", ");
+                        for (var formal : method.formals)
+                            formals.add(formal.id.getText() + " : " + formal.type.getText());
+                        context.out.println("  " + method.id.getText() + "(" + formals + ") : "
+                                + method.returnType.getText());
+                    }
+                }
+            }
+        }
+    }
+
+    static CoolParser.ProgramContext parseFullLL(CoolParser parser, ANTLRErrorListener errorListener) {
+        parser.addErrorListener(errorListener);
+        return parser.program();
+    }
+
+    // Tries the cheaper SLL prediction first, bailing out at the first
+    // syntax error. Only inputs that SLL cannot handle, including all inputs
+    // with real errors, are parsed again with full LL prediction and the
+    // usual error reporting, so diagnostics are unchanged.
+    static CoolParser.ProgramContext parseTwoStage(CoolParser parser, ANTLRErrorListener errorListener) {
+        parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+        parser.setErrorHandler(new BailErrorStrategy());
+        try {
+            return parser.program();
+        } catch (ParseCancellationException e) {
+            // Rewinds the token stream as well.
+            parser.reset();
+            parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+            parser.setErrorHandler(new DefaultErrorStrategy());
+            return parseFullLL(parser, errorListener);
+        }
+    }
+
+    static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while parsing");
+        } catch (ExecutionException e) {
+            var cause = e.getCause();
+            if (cause instanceof IOException ioException)
+                throw ioException;
+            if (cause instanceof RuntimeException runtimeException)
+                throw runtimeException;
+            if (cause instanceof Error error)
+                throw error;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    // Customized error listener, for including file names in error
+    // messages. Messages are collected rather than printed, so that files
+    // parsed concurrently still report their errors in command-line order.
+    static class FileErrorListener extends BaseErrorListener {
+        final String fileName;
+        final List<String> errors = new ArrayList<>();
+
+        FileErrorListener(String fileName) {
+            this.fileName = fileName;
+        }
+
+        @Override
+        public void syntaxError(Recognizer<?, ?> recognizer,
+                                Object offendingSymbol,
+                                int line, int charPositionInLine,
+                                String msg,
+                                RecognitionException e) {
+            String newMsg = "\"" + new File(fileName).getName() + "\", line " +
+                                line + ":" + (charPositionInLine + 1) + ", ";
+            
+            Token token = (Token)offendingSymbol;
+            if (token.getType() == CoolLexer.ERROR)
+                newMsg += "Lexical error: " + token.getText();
+            else
+                newMsg += "Syntax error: " + msg;
+            
+            errors.add(newMsg);
+        }
+    }
 }
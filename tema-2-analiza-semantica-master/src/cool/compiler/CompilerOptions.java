@@ -0,0 +1,84 @@
+package cool.compiler;
+
+import java.util.*;
+
+// Command-line options of the compiler. Options start with "--"; every other
+// argument is the name of an input file.
+public class CompilerOptions {
+    // Parse with SLL prediction first and rerun with full LL prediction only
+    // if the SLL pass fails.
+    boolean twoStageParsing = false;
+
+    // Build the AST from parser events instead of from a parse tree, which
+    // is then never built.
+    boolean directAst = false;
+
+    // Read ASCII input files through MappedCharStream.
+    boolean mappedInput = false;
+
+    // Lex with the hand-written CoolScanner instead of the generated
+    // CoolLexer.
+    boolean scanner = false;
+
+    // Parse with the hand-written CoolDescent, falling back to CoolParser
+    // only for files with syntax errors.
+    boolean descentParsing = false;
+
+    // Lex large files in parallel, in chunks of lines. Has no effect with
+    // the scanner, and takes precedence over mapped input.
+    boolean parallelLexing = false;
+
+    // Parse large files in parallel, split into chunks of classes.
+    boolean splitFiles = false;
+
+    // Directory of the ASTCache, or null to always parse.
+    String astCacheDirectory = null;
+
+    // Only print the classes, attributes and method signatures of the input
+    // files. Method bodies are skipped by the parser and never parsed.
+    boolean outlineOnly = false;
+
+    // Only print the tokens of the input files, streaming them so that
+    // memory use does not depend on the size of the input.
+    boolean tokensOnly = false;
+
+    // Serve compile requests from a long-lived process instead of compiling
+    // the given files, over standard input/output or, if daemonSocket is
+    // set, over a Unix-domain socket.
+    boolean daemon = false;
+    String daemonSocket = null;
+
+    final List<String> fileNames = new ArrayList<>();
+
+    static CompilerOptions parse(String[] args) {
+        var options = new CompilerOptions();
+
+        for (var arg : args) {
+            switch (arg) {
+                case "--sll" -> options.twoStageParsing = true;
+                case "--direct-ast" -> options.directAst = true;
+                case "--mmap" -> options.mappedInput = true;
+                case "--scanner" -> options.scanner = true;
+                case "--descent" -> options.descentParsing = true;
+                case "--split" -> options.splitFiles = true;
+                case "--parallel-lex" -> options.parallelLexing = true;
+                case "--tokens" -> options.tokensOnly = true;
+                case "--outline" -> options.outlineOnly = true;
+                case "--daemon" -> options.daemon = true;
+                default -> {
+                    if (arg.startsWith("--daemon=")) {
+                        options.daemon = true;
+                        options.daemonSocket = arg.substring("--daemon=".length());
+                    } else if (arg.startsWith("--ast-cache=")) {
+                        options.astCacheDirectory = arg.substring("--ast-cache=".length());
+                    } else if (arg.startsWith("--"))
+                        throw new IllegalArgumentException("Unknown option " + arg);
+                    else
+                        options.fileNames.add(arg);
+                }
+            }
+        }
+
+        return options;
+    }
+}
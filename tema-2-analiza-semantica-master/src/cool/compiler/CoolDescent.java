@@ -0,0 +1,391 @@
+package cool.compiler;
+
+import cool.parser.CoolParser;
+import cool.structures.Names;
+import org.antlr.v4.runtime.*;
+
+import java.util.*;
+
+// Hand-written recursive-descent parser for the language of CoolParser.g4.
+// It builds the same AST as ASTVisitorConstruction, positions included, but
+// without a parse tree or adaptive prediction: every decision is made on at
+// most two tokens of lookahead.
+//
+// Expressions are parsed by precedence climbing, with the precedences ANTLR
+// gives the alternatives of the left-recursive expr rule, earlier ones
+// binding tighter: dispatch, then * and /, then + and -, then <, <= and =,
+// all left-associative. Prefix alternatives parse their operand at their
+// own precedence, so an assignment takes a single primary expression, let
+// and isvoid bodies and ~ take dispatches, and not takes everything.
+//
+// It reports no errors. At the first unexpected token it gives up, and the
+// file is parsed again with CoolParser, so diagnostics are exactly ANTLR's.
+// Like CoolParser, whose program rule does not end in EOF, it stops at the
+// first token that cannot start a class.
+//
+// With lazy bodies, the braces of method bodies are only matched, and each
+// body is parsed from its first token when Method.body is first called, for
+// passes that only need signatures. Errors inside bodies then go unnoticed
+// until that call, which throws IllegalStateException for them.
+public class CoolDescent {
+    // Precedences of the operators in the expr rule.
+    private static final int DISPATCH = 19;
+    private static final int MUL_DIV = 4;
+    private static final int ADD_SUB = 3;
+    private static final int RELATIONAL = 2;
+
+    // Precedences the prefix alternatives parse their operands at.
+    private static final int ASSIGN_VALUE = 20;
+    private static final int LET_BODY = 14;
+    private static final int ISVOID_OPERAND = 11;
+    private static final int NEG_OPERAND = 10;
+    private static final int NOT_OPERAND = 1;
+
+    // Thrown at the first syntax error. The stack trace is of no use, as
+    // the error is reported by CoolParser.
+    private static final class SyntaxError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        SyntaxError() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final SyntaxError SYNTAX_ERROR = new SyntaxError();
+
+    private final TokenStream tokens;
+    // Id of the file being parsed, see Position.
+    private final int fileId;
+    private final Names names;
+    private final boolean lazyBodies;
+
+    CoolDescent(TokenStream tokens, int fileId, Names names) {
+        this(tokens, fileId, names, false);
+    }
+
+    CoolDescent(TokenStream tokens, int fileId, Names names, boolean lazyBodies) {
+        this.tokens = tokens;
+        this.fileId = fileId;
+        this.names = names;
+        this.lazyBodies = lazyBodies;
+    }
+
+    // The AST of the input, or null if it has syntax errors. In that case
+    // the token stream is left where parsing stopped.
+    CompilationUnit parse() {
+        try {
+            return program();
+        } catch (SyntaxError e) {
+            return null;
+        }
+    }
+
+    private long position(Token token) {
+        return Position.of(fileId, token);
+    }
+
+    private Name name(Token token) {
+        return Name.of(names, fileId, token);
+    }
+
+    private Id id(Token token) {
+        return new Id(names, position(token), token.getText());
+    }
+
+    private int peek() {
+        return tokens.LA(1);
+    }
+
+    // EOF is never matched, so it is never consumed either.
+    private Token match(int type) {
+        var token = tokens.LT(1);
+        if (token.getType() != type)
+            throw SYNTAX_ERROR;
+        tokens.consume();
+        return token;
+    }
+
+    private boolean skip(int type) {
+        if (tokens.LA(1) != type)
+            return false;
+        tokens.consume();
+        return true;
+    }
+
+    private CompilationUnit program() {
+        var start = tokens.LT(1);
+        List<Class> classes = new ArrayList<>();
+        while (peek() == CoolParser.CLASS)
+            classes.add(classDefinition());
+
+        return new CompilationUnit(position(start), classes);
+    }
+
+    private Class classDefinition() {
+        var start = match(CoolParser.CLASS);
+        Name className = name(match(CoolParser.TYPE));
+        Name parentType = skip(CoolParser.INHERITS) ? name(match(CoolParser.TYPE)) : null;
+        match(CoolParser.LBRACE);
+
+        LinkedList<Feature> features = new LinkedList<>();
+        while (peek() == CoolParser.ID) {
+            features.add(feature());
+            match(CoolParser.SEMI);
+        }
+        match(CoolParser.RBRACE);
+        match(CoolParser.SEMI);
+
+        return new Class(position(start), className, parentType, features);
+    }
+
+    private Feature feature() {
+        var name = match(CoolParser.ID);
+        if (skip(CoolParser.COLON)) {
+            Name type = name(match(CoolParser.TYPE));
+            Expression init = skip(CoolParser.ASSIGN) ? expr(0) : null;
+            return new Attr(id(name), type, init);
+        }
+
+        match(CoolParser.LPAREN);
+        List<Formal> formals = new ArrayList<>();
+        if (!skip(CoolParser.RPAREN)) {
+            do {
+                formals.add(formal());
+            } while (skip(CoolParser.COMMA));
+            match(CoolParser.RPAREN);
+        }
+        match(CoolParser.COLON);
+        Name returnType = name(match(CoolParser.TYPE));
+        match(CoolParser.LBRACE);
+        if (lazyBodies) {
+            int bodyStart = tokens.index();
+            skipBody();
+            match(CoolParser.RBRACE);
+            return new Method(id(name), formals, returnType, () -> parseBody(bodyStart));
+        }
+        Expression body = expr(0);
+        match(CoolParser.RBRACE);
+
+        return new Method(id(name), formals, returnType, body);
+    }
+
+    // Skips to the brace closing a method body, which bodies can only hold
+    // in pairs, as blocks.
+    private void skipBody() {
+        int depth = 0;
+        while (true) {
+            switch (peek()) {
+                case CoolParser.LBRACE -> depth++;
+                case CoolParser.RBRACE -> {
+                    if (depth-- == 0)
+                        return;
+                }
+                case Token.EOF -> throw SYNTAX_ERROR;
+            }
+            tokens.consume();
+        }
+    }
+
+    // The body of a method starting at the given token, up to its closing
+    // brace.
+    private Expression parseBody(int bodyStart) {
+        var parser = new CoolDescent(tokens, fileId, names);
+        tokens.seek(bodyStart);
+        try {
+            Expression body = parser.expr(0);
+            parser.match(CoolParser.RBRACE);
+            return body;
+        } catch (SyntaxError e) {
+            var token = tokens.LT(1);
+            throw new IllegalStateException("Syntax error in method body at line " + token.getLine() + ":"
+                    + (token.getCharPositionInLine() + 1));
+        }
+    }
+
+    private Formal formal() {
+        var name = match(CoolParser.ID);
+        match(CoolParser.COLON);
+        return new Formal(id(name), name(match(CoolParser.TYPE)));
+    }
+
+    private Local local() {
+        var name = match(CoolParser.ID);
+        match(CoolParser.COLON);
+        Name type = name(match(CoolParser.TYPE));
+        Expression init = skip(CoolParser.ASSIGN) ? expr(0) : null;
+        return new Local(id(name), type, init);
+    }
+
+    // An expression whose operators all have at least the given precedence.
+    private Expression expr(int precedence) {
+        // Start of the whole expression, which is the position of static
+        // dispatches, as in the parse tree.
+        var start = tokens.LT(1);
+        var left = primary();
+
+        while (true) {
+            switch (peek()) {
+                case CoolParser.AT, CoolParser.DOT -> {
+                    if (precedence > DISPATCH)
+                        return left;
+                    left = staticDispatch(start, left);
+                }
+                case CoolParser.MULT, CoolParser.DIV -> {
+                    if (precedence > MUL_DIV)
+                        return left;
+                    left = binaryOp(left, MUL_DIV + 1);
+                }
+                case CoolParser.PLUS, CoolParser.MINUS -> {
+                    if (precedence > ADD_SUB)
+                        return left;
+                    left = binaryOp(left, ADD_SUB + 1);
+                }
+                case CoolParser.LT, CoolParser.LE, CoolParser.EQUAL -> {
+                    if (precedence > RELATIONAL)
+                        return left;
+                    left = binaryOp(left, RELATIONAL + 1);
+                }
+                default -> {
+                    return left;
+                }
+            }
+        }
+    }
+
+    private Expression binaryOp(Expression left, int rightPrecedence) {
+        var opToken = tokens.LT(1);
+        tokens.consume();
+        String op = switch (opToken.getType()) {
+            case CoolParser.MULT -> "*";
+            case CoolParser.DIV -> "/";
+            case CoolParser.PLUS -> "+";
+            case CoolParser.MINUS -> "-";
+            case CoolParser.LT -> "<";
+            case CoolParser.LE -> "<=";
+            default -> "=";
+        };
+        var right = expr(rightPrecedence);
+        return new BinaryOp(position(opToken), left, op, right);
+    }
+
+    private Expression staticDispatch(Token start, Expression caller) {
+        Name typeName = skip(CoolParser.AT) ? name(match(CoolParser.TYPE)) : null;
+        match(CoolParser.DOT);
+        Name methodName = name(match(CoolParser.ID));
+        return new StaticDispatch(position(start), caller, typeName, methodName, args());
+    }
+
+    // Parenthesized, comma-separated arguments.
+    private List<Expression> args() {
+        match(CoolParser.LPAREN);
+        List<Expression> args = new ArrayList<>();
+        if (!skip(CoolParser.RPAREN)) {
+            do {
+                args.add(expr(0));
+            } while (skip(CoolParser.COMMA));
+            match(CoolParser.RPAREN);
+        }
+        return args;
+    }
+
+    private Expression primary() {
+        var token = tokens.LT(1);
+        switch (token.getType()) {
+            case CoolParser.ID -> {
+                tokens.consume();
+                if (skip(CoolParser.ASSIGN))
+                    return new Assign(position(token), name(token), expr(ASSIGN_VALUE));
+                if (peek() == CoolParser.LPAREN)
+                    return new Dispatch(position(token), name(token), args());
+                return id(token);
+            }
+            case CoolParser.IF -> {
+                tokens.consume();
+                Expression cond = expr(0);
+                match(CoolParser.THEN);
+                Expression thenB = expr(0);
+                match(CoolParser.ELSE);
+                Expression elseB = expr(0);
+                match(CoolParser.FI);
+                return new If(cond, thenB, elseB, position(token));
+            }
+            case CoolParser.WHILE -> {
+                tokens.consume();
+                Expression cond = expr(0);
+                match(CoolParser.LOOP);
+                Expression body = expr(0);
+                match(CoolParser.POOL);
+                return new While(position(token), cond, body);
+            }
+            case CoolParser.LBRACE -> {
+                tokens.consume();
+                List<Expression> exprs = new ArrayList<>();
+                while (!skip(CoolParser.RBRACE)) {
+                    exprs.add(expr(0));
+                    match(CoolParser.SEMI);
+                }
+                return new Block(position(token), exprs);
+            }
+            case CoolParser.LET -> {
+                tokens.consume();
+                List<Local> locals = new ArrayList<>();
+                do {
+                    locals.add(local());
+                } while (skip(CoolParser.COMMA));
+                match(CoolParser.IN);
+                return new Let(position(token), locals, expr(LET_BODY));
+            }
+            case CoolParser.CASE -> {
+                tokens.consume();
+                Expression cond = expr(0);
+                match(CoolParser.OF);
+                List<CaseBranch> branches = new ArrayList<>();
+                do {
+                    Formal formal = formal();
+                    match(CoolParser.RESULTS);
+                    Expression expr = expr(0);
+                    match(CoolParser.SEMI);
+                    var name = new Name(names, formal.id.nameId, formal.id.getPosition());
+                    branches.add(new CaseBranch(formal.getPosition(), name, formal.type, expr));
+                } while (peek() != CoolParser.ESAC);
+                tokens.consume();
+                return new Case(position(token), cond, branches);
+            }
+            case CoolParser.NEW -> {
+                tokens.consume();
+                return new New(position(token), name(match(CoolParser.TYPE)));
+            }
+            case CoolParser.ISVOID -> {
+                tokens.consume();
+                return new IsVoid(position(token), expr(ISVOID_OPERAND));
+            }
+            case CoolParser.NEG -> {
+                tokens.consume();
+                return new Neg(position(token), expr(NEG_OPERAND));
+            }
+            case CoolParser.NOT -> {
+                tokens.consume();
+                return new Not(position(token), expr(NOT_OPERAND));
+            }
+            case CoolParser.LPAREN -> {
+                tokens.consume();
+                Expression e = expr(0);
+                match(CoolParser.RPAREN);
+                return e;
+            }
+            case CoolParser.INT -> {
+                tokens.consume();
+                return new Int(position(token), token.getText());
+            }
+            case CoolParser.STRING -> {
+                tokens.consume();
+                return new Str(position(token), token.getText());
+            }
+            case CoolParser.BOOL -> {
+                tokens.consume();
+                return new Bool(position(token), token.getText());
+            }
+            default -> throw SYNTAX_ERROR;
+        }
+    }
+}
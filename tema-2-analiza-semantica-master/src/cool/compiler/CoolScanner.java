@@ -0,0 +1,434 @@
+package cool.compiler;
+
+import cool.lexer.CoolLexer;
+import cool.lexer.StringConstants;
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.misc.Interval;
+import org.antlr.v4.runtime.misc.Pair;
+
+import java.util.*;
+
+// Hand-written replacement for the generated CoolLexer, driven by a
+// character class table and a keyword table instead of the ATN simulator.
+// It produces the same tokens, positions and error messages, including in
+// the corner cases that follow from CoolLexer.g4's longest-match rules.
+public class CoolScanner implements TokenSource {
+    // Character classes, for ASCII characters. Everything else is OTHER.
+    private static final byte OTHER = 0;
+    private static final byte LOWER = 1;
+    private static final byte UPPER = 2;
+    private static final byte DIGIT = 3;
+    private static final byte UNDERSCORE = 4;
+    private static final byte SPACE = 5;
+    private static final byte SYMBOL = 6;
+
+    private static final byte[] CLASSES = new byte[128];
+
+    // Token types of single-character symbols.
+    private static final int[] SYMBOLS = new int[128];
+
+    private static final Map<String, Integer> KEYWORDS = new HashMap<>();
+    private static final int MAX_KEYWORD_LENGTH = "inherits".length();
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++)
+            CLASSES[c] = LOWER;
+        for (char c = 'A'; c <= 'Z'; c++)
+            CLASSES[c] = UPPER;
+        for (char c = '0'; c <= '9'; c++)
+            CLASSES[c] = DIGIT;
+        CLASSES['_'] = UNDERSCORE;
+        for (char c : " \n\f\r\t".toCharArray())
+            CLASSES[c] = SPACE;
+
+        symbol('~', CoolLexer.NEG);
+        symbol('.', CoolLexer.DOT);
+        symbol(':', CoolLexer.COLON);
+        symbol(';', CoolLexer.SEMI);
+        symbol(',', CoolLexer.COMMA);
+        symbol('@', CoolLexer.AT);
+        symbol('(', CoolLexer.LPAREN);
+        symbol(')', CoolLexer.RPAREN);
+        symbol('{', CoolLexer.LBRACE);
+        symbol('}', CoolLexer.RBRACE);
+        symbol('+', CoolLexer.PLUS);
+        symbol('-', CoolLexer.MINUS);
+        symbol('*', CoolLexer.MULT);
+        symbol('/', CoolLexer.DIV);
+        symbol('=', CoolLexer.EQUAL);
+        symbol('<', CoolLexer.LT);
+        // Only starts other tokens.
+        CLASSES['"'] = SYMBOL;
+
+        KEYWORDS.put("class", CoolLexer.CLASS);
+        KEYWORDS.put("inherits", CoolLexer.INHERITS);
+        KEYWORDS.put("let", CoolLexer.LET);
+        KEYWORDS.put("in", CoolLexer.IN);
+        KEYWORDS.put("new", CoolLexer.NEW);
+        KEYWORDS.put("isvoid", CoolLexer.ISVOID);
+        KEYWORDS.put("not", CoolLexer.NOT);
+        KEYWORDS.put("if", CoolLexer.IF);
+        KEYWORDS.put("then", CoolLexer.THEN);
+        KEYWORDS.put("else", CoolLexer.ELSE);
+        KEYWORDS.put("fi", CoolLexer.FI);
+        KEYWORDS.put("while", CoolLexer.WHILE);
+        KEYWORDS.put("loop", CoolLexer.LOOP);
+        KEYWORDS.put("pool", CoolLexer.POOL);
+        KEYWORDS.put("case", CoolLexer.CASE);
+        KEYWORDS.put("of", CoolLexer.OF);
+        KEYWORDS.put("esac", CoolLexer.ESAC);
+        KEYWORDS.put("true", CoolLexer.BOOL);
+        KEYWORDS.put("false", CoolLexer.BOOL);
+    }
+
+    private static void symbol(char c, int type) {
+        CLASSES[c] = SYMBOL;
+        SYMBOLS[c] = type;
+    }
+
+    private final CharStream input;
+    private final Pair<TokenSource, CharStream> source;
+    private TokenFactory<?> factory = CommonTokenFactory.DEFAULT;
+
+    // Position of the next character.
+    private int line = 1;
+    private int column = 0;
+
+    // Start of the current token.
+    private int tokenStart;
+    private int tokenLine;
+    private int tokenColumn;
+
+    // Reused for decoding every string constant.
+    private final StringBuilder stringBuffer = new StringBuilder();
+
+    // If set, equal string constants share one String.
+    private Map<String, String> stringTable = null;
+
+    public CoolScanner(CharStream input) {
+        this.input = input;
+        this.source = new Pair<>(this, input);
+    }
+
+    public void setStringTable(Map<String, String> stringTable) {
+        this.stringTable = stringTable;
+    }
+
+    @Override
+    public Token nextToken() {
+        // Keeps the text of the token available in unbuffered streams.
+        int marker = input.mark();
+        try {
+            return scan();
+        } finally {
+            input.release(marker);
+        }
+    }
+
+    private Token scan() {
+        while (true) {
+            tokenStart = input.index();
+            tokenLine = line;
+            tokenColumn = column;
+
+            int c = input.LA(1);
+            if (c == IntStream.EOF)
+                return factory.create(source, Token.EOF, null, Token.DEFAULT_CHANNEL,
+                        tokenStart, tokenStart - 1, line, column);
+
+            switch (c < 128 ? CLASSES[c] : OTHER) {
+                case LOWER, UPPER, UNDERSCORE:
+                    return identifier(c);
+                case DIGIT:
+                    return number();
+                case SPACE:
+                    int length = 1;
+                    while (isSpace(input.LA(length + 1)))
+                        length++;
+                    consumeLines(length);
+                    continue;
+                case SYMBOL:
+                    var token = symbol(c);
+                    if (token != null)
+                        return token;
+                    continue;
+                default:
+                    consume(1);
+                    return error("Invalid character: " + Character.toString(c));
+            }
+        }
+    }
+
+    // Returns null for comments.
+    private Token symbol(int c) {
+        int next = input.LA(2);
+
+        switch (c) {
+            case '"':
+                return string();
+            case '.':
+                if (isDigit(next))
+                    return number();
+                break;
+            case '<':
+                if (next == '-')
+                    return emit(CoolLexer.ASSIGN, 2);
+                if (next == '=')
+                    return emit(CoolLexer.LE, 2);
+                break;
+            case '=':
+                if (next == '>')
+                    return emit(CoolLexer.RESULTS, 2);
+                break;
+            case '-':
+                if (next == '-') {
+                    lineComment();
+                    return null;
+                }
+                break;
+            case '(':
+                if (next == '*')
+                    return blockComment();
+                break;
+            case '*':
+                if (next == ')') {
+                    consume(2);
+                    return error("Unmatched *)");
+                }
+                break;
+        }
+
+        return emit(SYMBOLS[c], 1);
+    }
+
+    private Token identifier(int first) {
+        int length = 1;
+        while (isIdentifierPart(input.LA(length + 1)))
+            length++;
+        consume(length);
+
+        var text = input.getText(Interval.of(tokenStart, tokenStart + length - 1));
+        if (CLASSES[first] == UPPER)
+            return create(CoolLexer.TYPE, text);
+
+        var keyword = length <= MAX_KEYWORD_LENGTH ? KEYWORDS.get(text) : null;
+        return create(keyword != null ? keyword : CoolLexer.ID, text);
+    }
+
+    // DIGITS ('.' DIGITS?)? EXPONENT? or '.' DIGITS EXPONENT?, where only
+    // DIGITS alone is an INT.
+    private Token number() {
+        boolean isFloat = false;
+        int length = 0;
+
+        while (isDigit(input.LA(length + 1)))
+            length++;
+        if (input.LA(length + 1) == '.') {
+            isFloat = true;
+            length++;
+            while (isDigit(input.LA(length + 1)))
+                length++;
+        }
+
+        // The exponent is only taken if it has digits.
+        if (input.LA(length + 1) == 'e') {
+            int sign = input.LA(length + 2) == '+' || input.LA(length + 2) == '-' ? 1 : 0;
+            if (isDigit(input.LA(length + 2 + sign))) {
+                isFloat = true;
+                length += 2 + sign;
+                while (isDigit(input.LA(length + 1)))
+                    length++;
+            }
+        }
+
+        consume(length);
+        return create(isFloat ? CoolLexer.FLOAT : CoolLexer.INT, null);
+    }
+
+    // Outcomes of the three STRING alternatives.
+    private static final int CLOSED = 1;
+    private static final int UNTERMINATED = 2;
+    private static final int EOF_IN_STRING = 3;
+
+    // A backslash escapes the character after it, a newline included, so
+    // the string ends at the first quote or newline that is not escaped, or
+    // at the end of the input. A carriage return not followed by a newline
+    // cannot be part of it, escaped or not.
+    private Token string() {
+        int length = 0;
+        int outcome = 0;
+
+        for (int k = 2; ; k++) {
+            int c = input.LA(k);
+
+            if (c == '\\') {
+                int escaped = input.LA(k + 1);
+                if (escaped == IntStream.EOF) {
+                    length = k;
+                    outcome = EOF_IN_STRING;
+                    break;
+                }
+                if (escaped == '\r') {
+                    if (input.LA(k + 2) != '\n')
+                        break;
+                    k++;
+                }
+                k++;
+            } else if (c == IntStream.EOF) {
+                length = k - 1;
+                outcome = EOF_IN_STRING;
+                break;
+            } else if (c == '"' || c == '\n') {
+                length = k;
+                outcome = c == '"' ? CLOSED : UNTERMINATED;
+                break;
+            } else if (c == '\r') {
+                if (input.LA(k + 1) == '\n') {
+                    length = k + 1;
+                    outcome = UNTERMINATED;
+                }
+                break;
+            }
+        }
+
+        // Only the quote itself, which is an invalid character.
+        if (outcome == 0) {
+            consume(1);
+            return error("Invalid character: \"");
+        }
+
+        consumeLines(length);
+        if (outcome == UNTERMINATED)
+            return error(StringConstants.UNTERMINATED);
+        if (outcome == EOF_IN_STRING)
+            return error(StringConstants.EOF_IN_STRING);
+        return decodeString(input.getText(Interval.of(tokenStart, input.index() - 1)));
+    }
+
+    // Same decoding as CoolLexer.processMyString.
+    private Token decodeString(String str) {
+        String error = StringConstants.decode(str, stringBuffer);
+        if (error != null)
+            return error(error);
+        return create(CoolLexer.STRING, StringConstants.intern(stringBuffer.toString(), stringTable));
+    }
+
+    // Up to and including the end of the line.
+    private void lineComment() {
+        int length = 2;
+        for (int c = input.LA(3); c != IntStream.EOF; c = input.LA(length + 1)) {
+            length++;
+            if (c == '\n')
+                break;
+        }
+        consumeLines(length);
+    }
+
+    // Nested comments, tracked with a depth counter. Returns null, or an
+    // error if the input ends first.
+    private Token blockComment() {
+        int length = 2;
+        int depth = 1;
+
+        while (depth > 0) {
+            int c = input.LA(length + 1);
+            if (c == IntStream.EOF) {
+                consumeLines(length);
+                return error("EOF in comment");
+            }
+
+            int next = input.LA(length + 2);
+            if (c == '(' && next == '*') {
+                length += 2;
+                depth++;
+            } else if (c == '*' && next == ')') {
+                length += 2;
+                depth--;
+            } else {
+                length++;
+            }
+        }
+
+        consumeLines(length);
+        return null;
+    }
+
+    private static boolean isDigit(int c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isIdentifierPart(int c) {
+        return c >= 0 && c < 128 && CLASSES[c] >= LOWER && CLASSES[c] <= UNDERSCORE;
+    }
+
+    private static boolean isSpace(int c) {
+        return c >= 0 && c < 128 && CLASSES[c] == SPACE;
+    }
+
+    // Tokens are scanned with lookahead from their start and consumed at
+    // once. This is for tokens without newlines. Not a seek, which
+    // UnbufferedCharStream does not support up to the end of its buffer.
+    private void consume(int length) {
+        column += length;
+        for (int i = 0; i < length; i++)
+            input.consume();
+    }
+
+    // Keeps track of newlines in the consumed text.
+    private void consumeLines(int length) {
+        for (int i = 0; i < length; i++) {
+            if (input.LA(1) == '\n') {
+                line++;
+                column = 0;
+            } else {
+                column++;
+            }
+            input.consume();
+        }
+    }
+
+    private Token emit(int type, int length) {
+        consume(length);
+        return create(type, null);
+    }
+
+    private Token error(String message) {
+        return create(CoolLexer.ERROR, message);
+    }
+
+    // A null text is read from the input when needed.
+    private Token create(int type, String text) {
+        return factory.create(source, type, text, Token.DEFAULT_CHANNEL,
+                tokenStart, input.index() - 1, tokenLine, tokenColumn);
+    }
+
+    @Override
+    public int getLine() {
+        return line;
+    }
+
+    @Override
+    public int getCharPositionInLine() {
+        return column;
+    }
+
+    @Override
+    public CharStream getInputStream() {
+        return input;
+    }
+
+    @Override
+    public String getSourceName() {
+        return input.getSourceName();
+    }
+
+    @Override
+    public void setTokenFactory(TokenFactory<?> factory) {
+        this.factory = factory;
+    }
+
+    @Override
+    public TokenFactory<?> getTokenFactory() {
+        return factory;
+    }
+}
@@ -2,279 +2,313 @@ package cool.compiler;
 
 import cool.structures.*;
 
-public class DefinitionPassVisitor implements ASTVisitor<Void> {
-    private Scope currentScope = SymbolTable.globals;
-    RulesChecker validateChecks = new RulesChecker();
-
-    @Override
-    public Void visit(Program program) {
-        program.classes.forEach(cls -> cls.accept(this));
-        return null;
+// Steps fall through from phase to phase, as ASTWalk describes.
+@SuppressWarnings("fallthrough")
+public class DefinitionPassVisitor extends ASTWalk<Void> {
+    private final CompilationContext context;
+    private final Names names;
+    private final Scope globals;
+    private Scope currentScope;
+    RulesChecker validateChecks;
+
+    public DefinitionPassVisitor(CompilationContext context) {
+        this.context = context;
+        this.names = context.names;
+        this.globals = context.symbolTable.globals;
+        this.currentScope = globals;
+        this.validateChecks = new RulesChecker(context);
     }
 
     @Override
-    public Void visit(Id id) {
-
-        return null;
+    void resume(Frame<Void> frame, Program program) {
+        if (!frame.visitNext(program.units))
+            frame.finish(null);
     }
 
     @Override
-    public Void visit(Int integer) {
-
-        return null;
+    void resume(Frame<Void> frame, CompilationUnit unit) {
+        if (!frame.visitNext(unit.classes))
+            frame.finish(null);
     }
 
     @Override
-    public Void visit(Str str) {
-
-        return null;
+    void resume(Frame<Void> frame, Id id) {
+        frame.finish(null);
     }
 
     @Override
-    public Void visit(Bool bool) {
-
-        return null;
+    void resume(Frame<Void> frame, Int integer) {
+        frame.finish(null);
     }
 
     @Override
-    public Void visit(Formal formal) {
-        IdSymbol sym = new IdSymbol(formal.id.token.getText());
-        if(!validateChecks.checkFormalDefinition(formal, currentScope))
-            return null;
-
-        sym.setScope(currentScope);
-        currentScope.add(sym);
-        formal.id.setSymbol(sym);
-
-        return null;
+    void resume(Frame<Void> frame, Str str) {
+        frame.finish(null);
     }
 
     @Override
-    public Void visit(Feature feature) {
-        return null;
+    void resume(Frame<Void> frame, Bool bool) {
+        frame.finish(null);
     }
 
     @Override
-    public Void visit(Class classs) {
-        String name = classs.type.getText();
-        String parent = "Object";
-        ClassSymbol classSymbol = new ClassSymbol(name, parent);
-
-        // illegal name SELF_TYPE & redefinition
-        if (!validateChecks.checkClassName(classs, currentScope))
-            return null;
-
-        // check illegal parent
-        if (classs.inherit != null) {
-            validateChecks.checkParentName(classs);
-            classSymbol.setParentName(classs.inherit.getText());
+    void resume(Frame<Void> frame, Formal formal) {
+        IdSymbol sym = new IdSymbol(names, formal.id.nameId);
+        if (validateChecks.checkFormalDefinition(formal, currentScope)) {
+            sym.setScope(currentScope);
+            currentScope.add(sym);
+            formal.id.setSymbol(sym);
         }
-
-        currentScope.add(classSymbol);
-        currentScope = (Scope) classSymbol;
-
-        for (var f : classs.features)
-            f.accept(this);
-
-        currentScope = SymbolTable.globals;
-        return null;
+        frame.finish(null);
     }
 
-
     @Override
-    public Void visit(Local local) {
-        // illegal name
-        if ("self".equals(local.id.getToken().getText())) {
-            SymbolTable.error(local.ctx, local.id.getToken(),
-                    "Let variable has illegal name self");
-            return null;
+    void resume(Frame<Void> frame, Class classs) {
+        switch (frame.phase) {
+            case 0:
+                ClassSymbol classSymbol = new ClassSymbol(names, classs.type.id, Names.OBJECT);
+
+                // illegal name SELF_TYPE & redefinition
+                if (!validateChecks.checkClassName(classs, currentScope)) {
+                    frame.finish(null);
+                    return;
+                }
+
+                // check illegal parent
+                if (classs.inherit != null) {
+                    validateChecks.checkParentName(classs);
+                    classSymbol.setParentId(classs.inherit.id);
+                }
+
+                currentScope.add(classSymbol);
+                currentScope = (Scope) classSymbol;
+                frame.phase = 1;
+            case 1:
+                if (frame.visitNext(classs.features))
+                    return;
+                currentScope = globals;
+                frame.finish(null);
         }
-
-        IdSymbol sym = new IdSymbol(local.id.getToken().getText());
-        sym.setScope(currentScope);
-        currentScope.add(sym);
-        local.id.setSymbol(sym);
-
-        if (local.init != null) {
-            local.init.accept(this);
-        }
-
-        return null;
     }
 
     @Override
-    public Void visit(Method method) {
-        MethodSymbol sym = new MethodSymbol(method.id.token.getText(), currentScope);
-
-        // duplicate in the same class
-        if (!validateChecks.checkMethodDefinition(method, currentScope)) {
-            return null;
+    void resume(Frame<Void> frame, Local local) {
+        switch (frame.phase) {
+            case 0:
+                // illegal name
+                if (local.id.nameId == Names.SELF) {
+                    context.error(local.id.position,
+                            "Let variable has illegal name self");
+                    frame.finish(null);
+                    return;
+                }
+
+                IdSymbol sym = new IdSymbol(names, local.id.nameId);
+                sym.setScope(currentScope);
+                currentScope.add(sym);
+                local.id.setSymbol(sym);
+
+                frame.phase = 1;
+                frame.visit(local.init);
+                return;
+            case 1:
+                frame.finish(null);
         }
-
-        ((ClassSymbol) currentScope).addMethod(sym);
-        sym.setType(new ClassSymbol(method.returnType.getText(), ""));
-        sym.setScope(currentScope);
-        method.id.setSymbol(sym);
-
-        currentScope = sym;
-        for (var formal :method.formals)
-            formal.accept(this);
-        method.body.accept(this);
-
-        currentScope = currentScope.getParent();
-        return null;
     }
 
     @Override
-    public Void visit(Attr attr) {
-        var name = attr.id.getToken().getText();
-
-        if ("self".equals(name)) {
-            SymbolTable.error(attr.ctx, attr.id.getToken(),
-                    "Class " + ((ClassSymbol) currentScope).getName() + " has attribute with illegal name self");
-            return null;
+    void resume(Frame<Void> frame, Method method) {
+        switch (frame.phase) {
+            case 0:
+                MethodSymbol sym = new MethodSymbol(names, method.id.nameId, currentScope);
+
+                // duplicate in the same class
+                if (!validateChecks.checkMethodDefinition(method, currentScope)) {
+                    frame.finish(null);
+                    return;
+                }
+
+                ((ClassSymbol) currentScope).addMethod(sym);
+                sym.setType(new ClassSymbol(names, method.returnType.id, Names.NONE));
+                sym.setScope(currentScope);
+                method.id.setSymbol(sym);
+
+                currentScope = sym;
+                frame.phase = 1;
+            case 1:
+                if (frame.visitNext(method.formals))
+                    return;
+                frame.phase = 2;
+                frame.visit(method.body());
+                return;
+            case 2:
+                currentScope = currentScope.getParent();
+                frame.finish(null);
         }
+    }
 
-        if (((ClassSymbol) currentScope).hasAttribute(name)) {
-            SymbolTable.error(attr.ctx, attr.id.getToken(),
-                    "Class " + ((ClassSymbol) currentScope).getName() + " redefines attribute " + name);
-            return null;
+    @Override
+    void resume(Frame<Void> frame, Attr attr) {
+        switch (frame.phase) {
+            case 0:
+                var name = attr.id.getText();
+
+                if (attr.id.nameId == Names.SELF) {
+                    context.error(attr.id.position,
+                            "Class " + ((ClassSymbol) currentScope).getName() + " has attribute with illegal name self");
+                    frame.finish(null);
+                    return;
+                }
+
+                if (((ClassSymbol) currentScope).hasAttribute(attr.id.nameId)) {
+                    context.error(attr.id.position,
+                            "Class " + ((ClassSymbol) currentScope).getName() + " redefines attribute " + name);
+                    frame.finish(null);
+                    return;
+                }
+
+                var sym = new IdSymbol(names, attr.id.nameId);
+                sym.setScope(currentScope);
+                attr.id.setSymbol(sym);
+                currentScope.add(sym);
+
+                frame.phase = 1;
+                frame.visit(attr.init);
+                return;
+            case 1:
+                frame.finish(null);
         }
-
-        var sym = new IdSymbol(name);
-        sym.setScope(currentScope);
-        attr.id.setSymbol(sym);
-        currentScope.add(sym);
-
-        if (attr.init != null) attr.init.accept(this);
-        return null;
     }
 
     @Override
-    public Void visit(Block block) {
-
-        return null;
+    void resume(Frame<Void> frame, Block block) {
+        frame.finish(null);
     }
 
     @Override
-    public Void visit(If ifExpr) {
-
-        return null;
+    void resume(Frame<Void> frame, If ifExpr) {
+        frame.finish(null);
     }
 
     @Override
-    public Void visit(While whileExpr) {
-
-        return null;
+    void resume(Frame<Void> frame, While whileExpr) {
+        frame.finish(null);
     }
 
+    // The scope to restore is saved in the frame, and the scope of the
+    // locals so far is the current one between them.
     @Override
-    public Void visit(Let let) {
-        var saved = currentScope;
-
-        // scope let
-        Scope s = new DefaultScope(currentScope);
-
-        // for each local declare local
-        for (var local : let.localVars) {
-            s = new DefaultScope(s);
-            currentScope = s;
-            local.accept(this);        // check name 'self'
+    void resume(Frame<Void> frame, Let let) {
+        switch (frame.phase) {
+            case 0:
+                frame.saved = currentScope;
+
+                // scope let
+                currentScope = new DefaultScope(currentScope);
+                frame.phase = 1;
+            case 1:
+                // for each local declare local
+                if (frame.index < let.localVars.size()) {
+                    currentScope = new DefaultScope(currentScope);
+                    frame.visit(let.localVars.get(frame.index++));        // check name 'self'
+                    return;
+                }
+
+                frame.phase = 2;
+                frame.visit(let.body);
+                return;
+            case 2:
+                currentScope = (Scope) frame.saved;
+                frame.finish(null);
         }
-
-        currentScope = s;
-        if (let.body != null) {
-            let.body.accept(this);
-        }
-
-        currentScope = saved;
-        return null;
     }
 
     @Override
-    public Void visit(Case caseExpr) {
-        if (caseExpr.expr != null)
-            caseExpr.expr.accept(this);
-
-        var saved = currentScope;
-
-        for (var br : caseExpr.branches) {
-            currentScope = new DefaultScope(saved);
-            br.accept(this);
+    void resume(Frame<Void> frame, Case caseExpr) {
+        switch (frame.phase) {
+            case 0:
+                frame.phase = 1;
+                frame.visit(caseExpr.expr);
+                return;
+            case 1:
+                frame.saved = currentScope;
+                frame.phase = 2;
+            case 2:
+                var saved = (Scope) frame.saved;
+                currentScope = new DefaultScope(saved);
+                if (frame.visitNext(caseExpr.branches))
+                    return;
+
+                currentScope = saved;
+                frame.finish(null);
         }
-
-        currentScope = saved;
-        return null;
     }
 
     @Override
-    public Void visit(CaseBranch branch) {
-        // illegal name self"
-        if ("self".equals(branch.name.getText())) {
-            SymbolTable.error(branch.ctx, branch.name, "Case variable has illegal name self");
-            return null;
+    void resume(Frame<Void> frame, CaseBranch branch) {
+        switch (frame.phase) {
+            case 0:
+                // illegal name self"
+                if (branch.name.id == Names.SELF) {
+                    context.error(branch.name.position, "Case variable has illegal name self");
+                    frame.finish(null);
+                    return;
+                }
+
+                IdSymbol sym = new IdSymbol(names, branch.name.id);
+                sym.setScope(currentScope);
+                currentScope.add(sym);
+
+                frame.phase = 1;
+                frame.visit(branch.expr);
+                return;
+            case 1:
+                frame.finish(null);
         }
-
-        IdSymbol sym = new IdSymbol(branch.name.getText());
-        sym.setScope(currentScope);
-        currentScope.add(sym);
-
-        if (branch.expr != null)
-            branch.expr.accept(this);
-        return null;
     }
 
     @Override
-    public Void visit(Assign assign) {
-
-        return null;
+    void resume(Frame<Void> frame, Assign assign) {
+        frame.finish(null);
     }
 
     @Override
-    public Void visit(Dispatch dispatch) {
-
-        return null;
+    void resume(Frame<Void> frame, Dispatch dispatch) {
+        frame.finish(null);
     }
 
     @Override
-    public Void visit(StaticDispatch staticDispatch) {
-
-        return null;
+    void resume(Frame<Void> frame, StaticDispatch staticDispatch) {
+        frame.finish(null);
     }
 
     @Override
-    public Void visit(BinaryOp op) {
-
-        return null;
+    void resume(Frame<Void> frame, BinaryOp op) {
+        frame.finish(null);
     }
 
     @Override
-    public Void visit(Not notExpr) {
-
-        return null;
+    void resume(Frame<Void> frame, Not notExpr) {
+        frame.finish(null);
     }
 
     @Override
-    public Void visit(IsVoid isVoidExpr) {
-
-        return null;
+    void resume(Frame<Void> frame, IsVoid isVoidExpr) {
+        frame.finish(null);
     }
 
     @Override
-    public Void visit(New newExpr) {
-
-        return null;
+    void resume(Frame<Void> frame, New newExpr) {
+        frame.finish(null);
     }
 
     @Override
-    public Void visit(Paren paren) {
-
-        return null;
+    void resume(Frame<Void> frame, Paren paren) {
+        frame.finish(null);
     }
 
     @Override
-    public Void visit(Neg negExpr) {
-
-        return null;
+    void resume(Frame<Void> frame, Neg negExpr) {
+        frame.finish(null);
     }
 }
@@ -0,0 +1,463 @@
+package cool.compiler;
+
+import cool.structures.Names;
+
+import java.util.*;
+
+// Compact form of the AST of a compilation unit, with the nodes in parallel
+// arrays instead of one object per node: NodeKind, first child, next sibling,
+// position and text, the last as an index in a table of distinct strings.
+// Names and absent children are nodes too, of kinds NAME and NONE, so that
+// an object AST can be rebuilt from it as it was.
+//
+// Nodes are numbered in preorder, the unit being node 0, so the children of
+// a node come after it and all descendants before its next sibling. A node
+// has its fixed children first, in the order of the fields of its class,
+// and then the elements of its list, if it has one:
+//
+//   COMPILATION_UNIT  classes
+//   CLASS             type, inherit, features
+//   ATTR, LOCAL       id, type, init
+//   METHOD            id, return type, body, formals
+//   FORMAL            id, type
+//   LET               body, locals
+//   CASE              expression, branches
+//   CASE_BRANCH       name, type, expression
+//   ASSIGN            name, expression
+//   DISPATCH          name, arguments
+//   STATIC_DISPATCH   caller, type, name, arguments
+//
+// and the other expressions their subexpressions in source order. Leaves
+// and binary operators keep their text or operator in the node.
+//
+// The arrays are walked with a Cursor, or turned back into an object AST.
+// This is a representation only: the compiler keeps and passes object ASTs,
+// and FlatAST is what their heap and walks are measured against.
+final class FlatAST {
+    // First child or next sibling of a node that has none, and text of a
+    // node without one.
+    static final int NO_NODE = -1;
+    private static final int NO_TEXT = -1;
+
+    private byte[] kinds = new byte[1024];
+    private int[] firstChildren = new int[1024];
+    private int[] nextSiblings = new int[1024];
+    private long[] positions = new long[1024];
+    private int[] texts = new int[1024];
+    private int size = 0;
+
+    private String[] strings;
+
+    private FlatAST() {}
+
+    static FlatAST of(CompilationUnit unit) {
+        var ast = new FlatAST();
+        var builder = ast.new Builder();
+        builder.build(unit);
+
+        ast.kinds = Arrays.copyOf(ast.kinds, ast.size);
+        ast.firstChildren = Arrays.copyOf(ast.firstChildren, ast.size);
+        ast.nextSiblings = Arrays.copyOf(ast.nextSiblings, ast.size);
+        ast.positions = Arrays.copyOf(ast.positions, ast.size);
+        ast.texts = Arrays.copyOf(ast.texts, ast.size);
+        ast.strings = builder.strings.toArray(new String[0]);
+        return ast;
+    }
+
+    int size() {
+        return size;
+    }
+
+    byte kind(int node) {
+        return kinds[node];
+    }
+
+    int firstChild(int node) {
+        return firstChildren[node];
+    }
+
+    int nextSibling(int node) {
+        return nextSiblings[node];
+    }
+
+    long position(int node) {
+        return positions[node];
+    }
+
+    String text(int node) {
+        int text = texts[node];
+        return text == NO_TEXT ? null : strings[text];
+    }
+
+    Cursor cursor() {
+        return new Cursor();
+    }
+
+    // Walks the tree from the unit down, keeping the path back up, so that
+    // passes need no recursion.
+    final class Cursor {
+        private int node = 0;
+        private int[] parents = new int[64];
+        private int depth = 0;
+
+        int node() {
+            return node;
+        }
+
+        byte kind() {
+            return kinds[node];
+        }
+
+        long position() {
+            return positions[node];
+        }
+
+        String text() {
+            return FlatAST.this.text(node);
+        }
+
+        // Levels below the unit.
+        int depth() {
+            return depth;
+        }
+
+        boolean gotoFirstChild() {
+            int child = firstChildren[node];
+            if (child == NO_NODE)
+                return false;
+
+            if (depth == parents.length)
+                parents = Arrays.copyOf(parents, depth * 2);
+            parents[depth++] = node;
+            node = child;
+            return true;
+        }
+
+        boolean gotoNextSibling() {
+            int sibling = nextSiblings[node];
+            if (sibling == NO_NODE)
+                return false;
+            node = sibling;
+            return true;
+        }
+
+        boolean gotoParent() {
+            if (depth == 0)
+                return false;
+            node = parents[--depth];
+            return true;
+        }
+    }
+
+    // Rebuilds the object AST, with names in the given table. Nodes are
+    // built from the last one back, so the children of every node are built
+    // before it, without recursion.
+    CompilationUnit toCompilationUnit(Names names) {
+        var values = new Object[size];
+        var children = new ArrayList<Object>();
+        for (int node = size - 1; node >= 0; node--) {
+            children.clear();
+            for (int child = firstChildren[node]; child != NO_NODE; child = nextSiblings[child]) {
+                children.add(values[child]);
+                values[child] = null;
+            }
+            values[node] = build(node, names, children);
+        }
+        return (CompilationUnit) values[0];
+    }
+
+    private Object build(int node, Names names, List<Object> children) {
+        long position = positions[node];
+        String text = text(node);
+        return switch (kinds[node]) {
+            case NodeKind.NONE -> null;
+            case NodeKind.NAME -> new Name(names, text, position);
+            case NodeKind.COMPILATION_UNIT -> new CompilationUnit(position, rest(children, 0));
+            case NodeKind.CLASS -> new Class(position, (Name) children.get(0), (Name) children.get(1),
+                    new LinkedList<>(rest(children, 2)));
+            case NodeKind.ATTR -> new Attr((Id) children.get(0), (Name) children.get(1),
+                    (Expression) children.get(2));
+            case NodeKind.METHOD -> new Method((Id) children.get(0), rest(children, 3), (Name) children.get(1),
+                    (Expression) children.get(2));
+            case NodeKind.FORMAL -> new Formal((Id) children.get(0), (Name) children.get(1));
+            case NodeKind.LOCAL -> new Local((Id) children.get(0), (Name) children.get(1),
+                    (Expression) children.get(2));
+            case NodeKind.ID -> new Id(names, position, text);
+            case NodeKind.INT -> new Int(position, text);
+            case NodeKind.STR -> new Str(position, text);
+            case NodeKind.BOOL -> new Bool(position, text);
+            case NodeKind.BLOCK -> new Block(position, rest(children, 0));
+            case NodeKind.IF -> new If((Expression) children.get(0), (Expression) children.get(1),
+                    (Expression) children.get(2), position);
+            case NodeKind.WHILE -> new While(position, (Expression) children.get(0), (Expression) children.get(1));
+            case NodeKind.LET -> new Let(position, rest(children, 1), (Expression) children.get(0));
+            case NodeKind.CASE -> new Case(position, (Expression) children.get(0), rest(children, 1));
+            case NodeKind.CASE_BRANCH -> new CaseBranch(position, (Name) children.get(0), (Name) children.get(1),
+                    (Expression) children.get(2));
+            case NodeKind.ASSIGN -> new Assign(position, (Name) children.get(0), (Expression) children.get(1));
+            case NodeKind.DISPATCH -> new Dispatch(position, (Name) children.get(0), rest(children, 1));
+            case NodeKind.STATIC_DISPATCH -> new StaticDispatch(position, (Expression) children.get(0),
+                    (Name) children.get(1), (Name) children.get(2), rest(children, 3));
+            case NodeKind.BINARY_OP -> new BinaryOp(position, (Expression) children.get(0), text,
+                    (Expression) children.get(1));
+            case NodeKind.NOT -> new Not(position, (Expression) children.get(0));
+            case NodeKind.IS_VOID -> new IsVoid(position, (Expression) children.get(0));
+            case NodeKind.NEW -> new New(position, (Name) children.get(0));
+            case NodeKind.PAREN -> new Paren(position, (Expression) children.get(0));
+            case NodeKind.NEG -> new Neg(position, (Expression) children.get(0));
+            default -> throw new IllegalStateException("Unknown node kind " + kinds[node]);
+        };
+    }
+
+    // The children from the given one on, which are all of one list.
+    @SuppressWarnings("unchecked")
+    private static <T> List<T> rest(List<Object> children, int from) {
+        return new ArrayList<>((List<T>) children.subList(from, children.size()));
+    }
+
+    private int add(byte kind, long position, int text) {
+        if (size == kinds.length) {
+            int capacity = size * 2;
+            kinds = Arrays.copyOf(kinds, capacity);
+            firstChildren = Arrays.copyOf(firstChildren, capacity);
+            nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+            positions = Arrays.copyOf(positions, capacity);
+            texts = Arrays.copyOf(texts, capacity);
+        }
+
+        kinds[size] = kind;
+        firstChildren[size] = NO_NODE;
+        nextSiblings[size] = NO_NODE;
+        positions[size] = position;
+        texts[size] = text;
+        return size++;
+    }
+
+    // Appends the nodes of an object AST in preorder. Every visit adds its
+    // node and returns its number, and leaves the children to build, which
+    // adds them from a stack of the nodes whose children are not all added
+    // yet, so that deep trees do not overflow the stack.
+    private final class Builder implements ASTVisitor<Integer> {
+        final List<String> strings = new ArrayList<>();
+        private final Map<String, Integer> stringIndices = new HashMap<>();
+        private final ArrayDeque<Open> open = new ArrayDeque<>();
+
+        // A node whose children are being added, which may be nodes, names,
+        // lists of nodes, or null for absent ones.
+        private static final class Open {
+            final int node;
+            final Object[] children;
+            int last = NO_NODE;
+            // The child advance moved to.
+            Object child;
+            private int part = 0;
+            private Iterator<?> elements;
+
+            Open(int node, Object[] children) {
+                this.node = node;
+                this.children = children;
+            }
+
+            boolean advance() {
+                while (part < children.length) {
+                    if (!(children[part] instanceof List<?> list)) {
+                        child = children[part++];
+                        return true;
+                    }
+                    if (elements == null)
+                        elements = list.iterator();
+                    if (elements.hasNext()) {
+                        child = elements.next();
+                        return true;
+                    }
+                    elements = null;
+                    part++;
+                }
+                return false;
+            }
+        }
+
+        // Adds the given node and everything under it.
+        int build(ASTNode root) {
+            int node = root.accept(this);
+            while (!open.isEmpty()) {
+                var parent = open.peek();
+                if (parent.advance())
+                    parent.last = link(parent.node, parent.last, flatten(parent.child));
+                else
+                    open.pop();
+            }
+            return node;
+        }
+
+        // Adds a node, whose children are added next.
+        private int node(byte kind, long position, String text, Object... children) {
+            int node = add(kind, position, intern(text));
+            if (children.length > 0)
+                open.push(new Open(node, children));
+            return node;
+        }
+
+        private int flatten(Object child) {
+            if (child == null)
+                return add(NodeKind.NONE, 0, NO_TEXT);
+            if (child instanceof Name name)
+                return add(NodeKind.NAME, name.position, intern(name.text));
+            return ((ASTNode) child).accept(this);
+        }
+
+        private int link(int parent, int last, int child) {
+            if (last == NO_NODE)
+                firstChildren[parent] = child;
+            else
+                nextSiblings[last] = child;
+            return child;
+        }
+
+        private int intern(String text) {
+            if (text == null)
+                return NO_TEXT;
+            return stringIndices.computeIfAbsent(text, s -> {
+                strings.add(s);
+                return strings.size() - 1;
+            });
+        }
+
+        @Override
+        public Integer visit(Id id) {
+            return node(NodeKind.ID, id.getPosition(), id.getText());
+        }
+
+        @Override
+        public Integer visit(Int integer) {
+            return node(NodeKind.INT, integer.getPosition(), integer.getText());
+        }
+
+        @Override
+        public Integer visit(Str str) {
+            return node(NodeKind.STR, str.getPosition(), str.getText());
+        }
+
+        @Override
+        public Integer visit(Bool bool) {
+            return node(NodeKind.BOOL, bool.getPosition(), bool.getText());
+        }
+
+        @Override
+        public Integer visit(Formal formal) {
+            return node(NodeKind.FORMAL, formal.getPosition(), null, formal.id, formal.type);
+        }
+
+        @Override
+        public Integer visit(Feature feature) {
+            throw new IllegalArgumentException("Feature without a kind");
+        }
+
+        @Override
+        public Integer visit(Class classs) {
+            return node(NodeKind.CLASS, classs.getPosition(), null, classs.type, classs.inherit, classs.features);
+        }
+
+        @Override
+        public Integer visit(Program program) {
+            throw new IllegalArgumentException("Only compilation units are flattened");
+        }
+
+        @Override
+        public Integer visit(CompilationUnit unit) {
+            return node(NodeKind.COMPILATION_UNIT, unit.getPosition(), null, unit.classes);
+        }
+
+        @Override
+        public Integer visit(Local local) {
+            return node(NodeKind.LOCAL, local.getPosition(), null, local.id, local.type, local.init);
+        }
+
+        @Override
+        public Integer visit(Method method) {
+            return node(NodeKind.METHOD, method.getPosition(), null, method.id, method.returnType, method.body(),
+                    method.formals);
+        }
+
+        @Override
+        public Integer visit(Attr attr) {
+            return node(NodeKind.ATTR, attr.getPosition(), null, attr.id, attr.type, attr.init);
+        }
+
+        @Override
+        public Integer visit(Block block) {
+            return node(NodeKind.BLOCK, block.getPosition(), null, block.expressions);
+        }
+
+        @Override
+        public Integer visit(If ifExpr) {
+            return node(NodeKind.IF, ifExpr.getPosition(), null, ifExpr.cond, ifExpr.thenBranch, ifExpr.elseBranch);
+        }
+
+        @Override
+        public Integer visit(While whileExpr) {
+            return node(NodeKind.WHILE, whileExpr.getPosition(), null, whileExpr.cond, whileExpr.body);
+        }
+
+        @Override
+        public Integer visit(Let letExpr) {
+            return node(NodeKind.LET, letExpr.getPosition(), null, letExpr.body, letExpr.localVars);
+        }
+
+        @Override
+        public Integer visit(Case caseExpr) {
+            return node(NodeKind.CASE, caseExpr.getPosition(), null, caseExpr.expr, caseExpr.branches);
+        }
+
+        @Override
+        public Integer visit(CaseBranch branch) {
+            return node(NodeKind.CASE_BRANCH, branch.getPosition(), null, branch.name, branch.type, branch.expr);
+        }
+
+        @Override
+        public Integer visit(Assign assign) {
+            return node(NodeKind.ASSIGN, assign.getPosition(), null, assign.name, assign.expr);
+        }
+
+        @Override
+        public Integer visit(Dispatch dispatch) {
+            return node(NodeKind.DISPATCH, dispatch.getPosition(), null, dispatch.name, dispatch.args);
+        }
+
+        @Override
+        public Integer visit(StaticDispatch staticDispatch) {
+            return node(NodeKind.STATIC_DISPATCH, staticDispatch.getPosition(), null, staticDispatch.caller,
+                    staticDispatch.type, staticDispatch.name, staticDispatch.args);
+        }
+
+        @Override
+        public Integer visit(BinaryOp op) {
+            return node(NodeKind.BINARY_OP, op.getPosition(), op.op, op.left, op.right);
+        }
+
+        @Override
+        public Integer visit(Not notExpr) {
+            return node(NodeKind.NOT, notExpr.getPosition(), null, notExpr.expr);
+        }
+
+        @Override
+        public Integer visit(IsVoid isVoidExpr) {
+            return node(NodeKind.IS_VOID, isVoidExpr.getPosition(), null, isVoidExpr.expr);
+        }
+
+        @Override
+        public Integer visit(New newExpr) {
+            return node(NodeKind.NEW, newExpr.getPosition(), null, newExpr.type);
+        }
+
+        @Override
+        public Integer visit(Paren paren) {
+            return node(NodeKind.PAREN, paren.getPosition(), null, paren.expr);
+        }
+
+        @Override
+        public Integer visit(Neg negExpr) {
+            return node(NodeKind.NEG, negExpr.getPosition(), null, negExpr.expr);
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package cool.compiler;
+
+import cool.lexer.CoolLexer;
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.misc.Interval;
+
+import java.util.*;
+
+// Tokens of a buffer being edited, kept up to date by re-lexing only around
+// each edit. Every token remembers the lexer state it was lexed from: the
+// offset, line and column right after the previous token, where CoolLexer
+// is always back in its default mode, since strings and nested comments are
+// single tokens. It also remembers how far the lexer read ahead for it.
+//
+// An edit restarts the lexer from the first token that read any of the
+// edited text. Re-lexing stops as soon as a new token would be lexed from
+// the same offset and line/column state as an old token after the edit,
+// because from there on the old tokens would come out the same.
+//
+// Tokens are kept in a gap buffer. Those after the gap are positioned
+// relative to the end of the buffer, so an edit does not shift the tokens
+// after it, and the work per edit is proportional to the text re-lexed and
+// to the distance from the previous edit. The buffer is kept as code
+// points, and offsets and columns, those of edits included, are counted in
+// code points, as CoolLexer counts them on any stream from CharStreams.
+public class IncrementalTokens {
+    // One token, with offsets and lines relative to the end of the buffer
+    // when after the gap.
+    private static final class Entry {
+        int type;
+        String text;
+
+        // Lexer state the token was lexed from.
+        int from;
+        int fromLine;
+        int fromColumn;
+
+        int start;
+        int stop;
+        int line;
+        int column;
+
+        // Furthest offset read ahead for this token or any before it.
+        int reach;
+
+        void shift(int offsetDelta, int lineDelta) {
+            from += offsetDelta;
+            start += offsetDelta;
+            stop += offsetDelta;
+            reach += offsetDelta;
+            fromLine += lineDelta;
+            line += lineDelta;
+        }
+    }
+
+    // Code points of the buffer, up to length.
+    private int[] text;
+    private int length;
+    // Lines in the buffer, that is, newlines plus one.
+    private int lineCount;
+
+    private final TextStream input = new TextStream();
+    private final CoolLexer lexer = new CoolLexer(input);
+
+    private Entry[] entries = new Entry[1024];
+    private int gapStart = 0;
+    private int gapEnd = entries.length;
+
+    public IncrementalTokens(CharSequence text) {
+        this.text = text.codePoints().toArray();
+        this.length = this.text.length;
+        this.lineCount = 1 + countNewlines(this.text, 0, length);
+        lexer.removeErrorListeners();
+        relex(0, 1, 0, 0);
+    }
+
+    public String getText() {
+        return new String(text, 0, length);
+    }
+
+    // Number of tokens, EOF included.
+    public int size() {
+        return gapStart + entries.length - gapEnd;
+    }
+
+    public Token get(int index) {
+        Objects.checkIndex(index, size());
+        boolean afterGap = index >= gapStart;
+        var entry = entries[afterGap ? index + gapEnd - gapStart : index];
+        int offsetDelta = afterGap ? length : 0;
+        int lineDelta = afterGap ? lineCount : 0;
+
+        var token = new CommonToken(entry.type, entry.text);
+        token.setStartIndex(entry.start + offsetDelta);
+        token.setStopIndex(entry.stop + offsetDelta);
+        token.setLine(entry.line + lineDelta);
+        token.setCharPositionInLine(entry.column);
+        token.setTokenIndex(index);
+        return token;
+    }
+
+    public List<Token> getTokens() {
+        var tokens = new ArrayList<Token>(size());
+        for (int i = 0; i < size(); i++)
+            tokens.add(get(i));
+        return tokens;
+    }
+
+    /**
+     * Replaces part of the buffer and updates the tokens.
+     *
+     * @param offset Start of the replaced text, in code points.
+     * @param removedLength Length of the replaced text, in code points.
+     * @param insertedText The new text.
+     * @return The number of tokens lexed again.
+     */
+    public int edit(int offset, int removedLength, String insertedText) {
+        Objects.checkFromIndexSize(offset, removedLength, length);
+
+        // The restart state is read before the edit, in which it is valid.
+        // EOF reads the end of the buffer, so there always is such a token.
+        moveGap(firstReaching(offset));
+        var restart = entries[gapEnd];
+        int from = restart.from + length;
+        int fromLine = restart.fromLine + lineCount;
+        int fromColumn = restart.fromColumn;
+
+        var inserted = insertedText.codePoints().toArray();
+        lineCount += countNewlines(inserted, 0, inserted.length)
+                - countNewlines(text, offset, offset + removedLength);
+        replace(offset, removedLength, inserted);
+
+        return relex(from, fromLine, fromColumn, offset + inserted.length);
+    }
+
+    // Lexes at the gap from the given state until it reaches the same state
+    // as a token after the gap that was lexed from after editEnd, or EOF.
+    // Tokens after the gap that are passed over are dropped.
+    private int relex(int from, int line, int column, int editEnd) {
+        lexer.setInputStream(input);
+        input.seek(from);
+        lexer.setLine(line);
+        lexer.setCharPositionInLine(column);
+
+        int reach = gapStart > 0 ? entries[gapStart - 1].reach : -1;
+        int lexed = 0;
+
+        while (true) {
+            while (gapEnd < entries.length && entries[gapEnd].from + length < from)
+                entries[gapEnd++] = null;
+
+            // Tails of old tokens lexed from before editEnd map below it.
+            if (from >= editEnd && gapEnd < entries.length) {
+                var next = entries[gapEnd];
+                if (next.from + length == from && next.fromLine + lineCount == line && next.fromColumn == column)
+                    break;
+            }
+
+            input.lookahead = from;
+            var token = lexer.nextToken();
+            lexed++;
+
+            var entry = new Entry();
+            entry.type = token.getType();
+            entry.text = token.getText();
+            entry.from = from;
+            entry.fromLine = line;
+            entry.fromColumn = column;
+            entry.start = token.getStartIndex();
+            entry.stop = token.getStopIndex();
+            entry.line = token.getLine();
+            entry.column = token.getCharPositionInLine();
+            entry.reach = reach = Math.max(reach, input.lookahead);
+            insert(entry);
+
+            from = token.getStopIndex() + 1;
+            line = lexer.getLine();
+            column = lexer.getCharPositionInLine();
+
+            if (token.getType() == Token.EOF) {
+                Arrays.fill(entries, gapEnd, entries.length, null);
+                gapEnd = entries.length;
+                break;
+            }
+        }
+
+        // Reaches are running maximums, which must include the new tokens.
+        for (int i = gapEnd; i < entries.length && entries[i].reach + length < reach; i++)
+            entries[i].reach = reach - length;
+
+        return lexed;
+    }
+
+    // Index of the first token that read at or after the given offset.
+    private int firstReaching(int offset) {
+        int low = 0;
+        int high = size() - 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (reach(middle) >= offset)
+                high = middle;
+            else
+                low = middle + 1;
+        }
+        return low;
+    }
+
+    private int reach(int index) {
+        return index < gapStart
+                ? entries[index].reach
+                : entries[index + gapEnd - gapStart].reach + length;
+    }
+
+    // Moves the gap before the token at the given index.
+    private void moveGap(int index) {
+        while (gapStart > index) {
+            var entry = entries[--gapStart];
+            entries[gapStart] = null;
+            entry.shift(-length, -lineCount);
+            entries[--gapEnd] = entry;
+        }
+        while (gapStart < index) {
+            var entry = entries[gapEnd];
+            entries[gapEnd++] = null;
+            entry.shift(length, lineCount);
+            entries[gapStart++] = entry;
+        }
+    }
+
+    private void insert(Entry entry) {
+        if (gapStart == gapEnd) {
+            var grown = new Entry[entries.length * 2];
+            int tail = entries.length - gapEnd;
+            System.arraycopy(entries, 0, grown, 0, gapStart);
+            System.arraycopy(entries, gapEnd, grown, grown.length - tail, tail);
+            gapEnd = grown.length - tail;
+            entries = grown;
+        }
+        entries[gapStart++] = entry;
+    }
+
+    // Replaces code points of the buffer, moving the ones after them.
+    private void replace(int offset, int removedLength, int[] inserted) {
+        int newLength = length - removedLength + inserted.length;
+        if (newLength > text.length)
+            text = Arrays.copyOf(text, Math.max(newLength, text.length * 2));
+        System.arraycopy(text, offset + removedLength, text, offset + inserted.length,
+                length - offset - removedLength);
+        System.arraycopy(inserted, 0, text, offset, inserted.length);
+        length = newLength;
+    }
+
+    private static int countNewlines(int[] text, int start, int end) {
+        int count = 0;
+        for (int i = start; i < end; i++)
+            if (text[i] == '\n')
+                count++;
+        return count;
+    }
+
+    // The buffer as a character stream, which records the furthest offset
+    // the lexer reads.
+    private final class TextStream implements CharStream {
+        private int position = 0;
+        int lookahead = 0;
+
+        @Override
+        public int LA(int i) {
+            int offset = i > 0 ? position + i - 1 : position + i;
+            if (i > 0 && offset > lookahead)
+                lookahead = Math.min(offset, length);
+            if (i == 0 || offset < 0 || offset >= length)
+                return IntStream.EOF;
+            return text[offset];
+        }
+
+        @Override
+        public void consume() {
+            if (position >= length)
+                throw new IllegalStateException("cannot consume EOF");
+            position++;
+        }
+
+        // The whole buffer is available, so marks are not needed.
+        @Override
+        public int mark() {
+            return -1;
+        }
+
+        @Override
+        public void release(int marker) {}
+
+        @Override
+        public int index() {
+            return position;
+        }
+
+        @Override
+        public void seek(int index) {
+            position = Math.min(index, length);
+        }
+
+        @Override
+        public int size() {
+            return length;
+        }
+
+        @Override
+        public String getSourceName() {
+            return IntStream.UNKNOWN_SOURCE_NAME;
+        }
+
+        @Override
+        public String getText(Interval interval) {
+            int start = Math.min(interval.a, length);
+            int stop = Math.min(interval.b + 1, length);
+            return start < stop ? new String(text, start, stop - start) : "";
+        }
+    }
+}
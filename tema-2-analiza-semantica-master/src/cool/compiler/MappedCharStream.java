@@ -0,0 +1,140 @@
+package cool.compiler;
+
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.misc.Interval;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+// Character stream over a memory-mapped ASCII file. Unlike the streams of
+// CharStreams, which decode the whole file into a code point array first,
+// this reads characters straight from the mapped bytes and only copies the
+// text of tokens, when the lexer asks for it.
+public class MappedCharStream implements CharStream {
+    // Set in the high bit of every byte that is not ASCII.
+    private static final long NON_ASCII = 0x8080808080808080L;
+
+    private final ByteBuffer bytes;
+    private final int size;
+    private final String sourceName;
+    private int position = 0;
+
+    private MappedCharStream(ByteBuffer bytes, String sourceName) {
+        this.bytes = bytes;
+        this.size = bytes.limit();
+        this.sourceName = sourceName;
+    }
+
+    // Maps the given file if it is ASCII-only. Otherwise, falls back to
+    // CharStreams.fromFileName, which decodes it as UTF-8.
+    static CharStream fromFileName(String fileName) throws IOException {
+        var path = Paths.get(fileName);
+
+        ByteBuffer bytes = null;
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size <= Integer.MAX_VALUE)
+                bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+
+        if (bytes == null || !isAscii(bytes))
+            return CharStreams.fromPath(path);
+        return new MappedCharStream(bytes, fileName);
+    }
+
+    // The same over contents already read, which are decoded as UTF-8 by
+    // Compiler.decode unless they are ASCII-only.
+    static CharStream fromBytes(byte[] contents, String fileName) throws IOException {
+        var bytes = ByteBuffer.wrap(contents);
+        if (!isAscii(bytes))
+            return Compiler.decode(contents, fileName);
+        return new MappedCharStream(bytes, fileName);
+    }
+
+    // Checks eight bytes at a time.
+    static boolean isAscii(ByteBuffer bytes) {
+        var buffer = bytes.duplicate().order(ByteOrder.nativeOrder());
+        int size = buffer.limit();
+        int i = 0;
+
+        for (; i + Long.BYTES <= size; i += Long.BYTES)
+            if ((buffer.getLong(i) & NON_ASCII) != 0)
+                return false;
+        for (; i < size; i++)
+            if (buffer.get(i) < 0)
+                return false;
+        return true;
+    }
+
+    @Override
+    public void consume() {
+        if (position >= size)
+            throw new IllegalStateException("cannot consume EOF");
+        position++;
+    }
+
+    @Override
+    public int LA(int i) {
+        int offset;
+        if (i > 0)
+            offset = position + i - 1;
+        else if (i < 0)
+            offset = position + i;
+        else
+            return 0; // Undefined.
+
+        if (offset < 0 || offset >= size)
+            return IntStream.EOF;
+        return bytes.get(offset);
+    }
+
+    // The whole input is available, so marks are not needed.
+    @Override
+    public int mark() {
+        return -1;
+    }
+
+    @Override
+    public void release(int marker) {}
+
+    @Override
+    public int index() {
+        return position;
+    }
+
+    @Override
+    public void seek(int index) {
+        position = index;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public String getSourceName() {
+        return sourceName;
+    }
+
+    @Override
+    public String getText(Interval interval) {
+        int start = Math.min(interval.a, size);
+        int length = Math.min(interval.b - interval.a + 1, size - start);
+        if (length <= 0)
+            return "";
+
+        var text = new byte[length];
+        bytes.get(start, text);
+        return new String(text, StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public String toString() {
+        return getText(Interval.of(0, size - 1));
+    }
+}
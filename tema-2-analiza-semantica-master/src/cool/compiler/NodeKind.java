@@ -0,0 +1,38 @@
+package cool.compiler;
+
+// Stable tags of the kinds of AST nodes, kept in every ASTNode and in every
+// FlatAST entry. Tags are never renumbered, only added, so that they can be
+// stored and switched on.
+final class NodeKind {
+    static final byte NONE = 0;
+    static final byte COMPILATION_UNIT = 1;
+    static final byte CLASS = 2;
+    static final byte ATTR = 3;
+    static final byte METHOD = 4;
+    static final byte FORMAL = 5;
+    static final byte LOCAL = 6;
+    static final byte ID = 7;
+    static final byte INT = 8;
+    static final byte STR = 9;
+    static final byte BOOL = 10;
+    static final byte BLOCK = 11;
+    static final byte IF = 12;
+    static final byte WHILE = 13;
+    static final byte LET = 14;
+    static final byte CASE = 15;
+    static final byte CASE_BRANCH = 16;
+    static final byte ASSIGN = 17;
+    static final byte DISPATCH = 18;
+    static final byte STATIC_DISPATCH = 19;
+    static final byte BINARY_OP = 20;
+    static final byte NOT = 21;
+    static final byte IS_VOID = 22;
+    static final byte NEW = 23;
+    static final byte PAREN = 24;
+    static final byte NEG = 25;
+    // Only in FlatAST, where names are entries of their own.
+    static final byte NAME = 26;
+    static final byte PROGRAM = 27;
+
+    private NodeKind() {}
+}
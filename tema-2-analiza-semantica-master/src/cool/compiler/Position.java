@@ -0,0 +1,37 @@
+package cool.compiler;
+
+import org.antlr.v4.runtime.Token;
+
+// Source position packed into a long: the file id (an index into
+// CompilationContext.fileNames) in the top 16 bits, then the line in 28 bits
+// and the 0-based column in 20 bits. Longer lines saturate the column.
+final class Position {
+    private static final int LINE_BITS = 28;
+    private static final int COLUMN_BITS = 20;
+    private static final long LINE_MASK = (1L << LINE_BITS) - 1;
+    private static final long COLUMN_MASK = (1L << COLUMN_BITS) - 1;
+
+    private Position() {}
+
+    static long of(int fileId, int line, int column) {
+        return (long) fileId << (LINE_BITS + COLUMN_BITS)
+                | Math.min(line, LINE_MASK) << COLUMN_BITS
+                | Math.min(column, COLUMN_MASK);
+    }
+
+    static long of(int fileId, Token token) {
+        return of(fileId, token.getLine(), token.getCharPositionInLine());
+    }
+
+    static int fileId(long position) {
+        return (int) (position >>> (LINE_BITS + COLUMN_BITS));
+    }
+
+    static int line(long position) {
+        return (int) ((position >>> COLUMN_BITS) & LINE_MASK);
+    }
+
+    static int column(long position) {
+        return (int) (position & COLUMN_MASK);
+    }
+}
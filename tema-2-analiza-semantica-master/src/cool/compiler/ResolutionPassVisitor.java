@@ -2,25 +2,44 @@ package cool.compiler;
 
 import cool.structures.*;
 
-import static cool.structures.SymbolTable.globals;
-
-public class ResolutionPassVisitor implements ASTVisitor<ClassSymbol> {
-    Scope currentScope = globals;
-    RulesChecker validateChecker = new RulesChecker();
-
-    private ClassSymbol INT()   { return (ClassSymbol) globals.lookup("Int"); }
-    private ClassSymbol BOOL()  { return (ClassSymbol) globals.lookup("Bool"); }
-    private ClassSymbol STR()   { return (ClassSymbol) globals.lookup("String"); }
-    private boolean isInt(ClassSymbol t)  { return t != null && "Int".equals(t.getName()); }
-    private boolean isBool(ClassSymbol t) { return t != null && "Bool".equals(t.getName()); }
-    private boolean isStr(ClassSymbol t)  { return t != null && "String".equals(t.getName()); }
+// Steps fall through from phase to phase, as ASTWalk describes.
+@SuppressWarnings("fallthrough")
+public class ResolutionPassVisitor extends ASTWalk<ClassSymbol> {
+    private final CompilationContext context;
+    private final Scope globals;
+    Scope currentScope;
+    RulesChecker validateChecker;
+
+    public ResolutionPassVisitor(CompilationContext context) {
+        this.context = context;
+        this.globals = context.symbolTable.globals;
+        this.currentScope = globals;
+        this.validateChecker = new RulesChecker(context);
+    }
+
+    private ClassSymbol INT()   { return (ClassSymbol) globals.lookup(Names.INT); }
+    private ClassSymbol BOOL()  { return (ClassSymbol) globals.lookup(Names.BOOL); }
+    private ClassSymbol STR()   { return (ClassSymbol) globals.lookup(Names.STRING); }
+    private boolean isInt(ClassSymbol t)  { return t != null && t.getId() == Names.INT; }
+    private boolean isBool(ClassSymbol t) { return t != null && t.getId() == Names.BOOL; }
+    private boolean isStr(ClassSymbol t)  { return t != null && t.getId() == Names.STRING; }
     private boolean isBasic(ClassSymbol t){ return isInt(t) || isBool(t) || isStr(t); }
 
+    // Finishes the node of the frame, and records its type in the type table.
+    private void finish(Frame<ClassSymbol> frame, ClassSymbol type) {
+        context.types.set(frame.node, type);
+        frame.finish(type);
+    }
+
     @Override
-    public ClassSymbol visit(Id id) {
-        String name = id.token.getText();
+    void resume(Frame<ClassSymbol> frame, Id id) {
+        finish(frame, resolveId(id));
+    }
+
+    private ClassSymbol resolveId(Id id) {
+        String name = id.getText();
 
-        if ("self".equals(name)) {
+        if (id.nameId == Names.SELF) {
             Scope s = currentScope;
             while (s != null && !(s instanceof ClassSymbol)) {
                 s = s.getParent();
@@ -28,9 +47,9 @@ public class ResolutionPassVisitor implements ASTVisitor<ClassSymbol> {
             return (ClassSymbol) s;
         }
 
-        Symbol s = currentScope.lookup(name);
+        Symbol s = currentScope.lookup(id.nameId);
         if (!(s instanceof IdSymbol)) {
-            SymbolTable.error(id.ctx, id.token, "Undefined identifier " + name);
+            context.error(id.position, "Undefined identifier " + name);
             return null;
         }
 
@@ -38,22 +57,26 @@ public class ResolutionPassVisitor implements ASTVisitor<ClassSymbol> {
     }
 
     @Override
-    public ClassSymbol visit(Int integer) {
-        return INT();
+    void resume(Frame<ClassSymbol> frame, Int integer) {
+        finish(frame, INT());
     }
 
     @Override
-    public ClassSymbol visit(Str str) {
-        return STR();
+    void resume(Frame<ClassSymbol> frame, Str str) {
+        finish(frame, STR());
     }
 
     @Override
-    public ClassSymbol visit(Bool bool) {
-        return BOOL();
+    void resume(Frame<ClassSymbol> frame, Bool bool) {
+        finish(frame, BOOL());
     }
 
     @Override
-    public ClassSymbol visit(Formal formal) {
+    void resume(Frame<ClassSymbol> frame, Formal formal) {
+        finish(frame, resolveFormal(formal));
+    }
+
+    private ClassSymbol resolveFormal(Formal formal) {
         IdSymbol sym = formal.id.getSymbol();
         if (sym == null)
             return null;
@@ -66,332 +89,445 @@ public class ResolutionPassVisitor implements ASTVisitor<ClassSymbol> {
         if (!validateChecker.checkFormalResolution(formal))
             return null;
 
-        sym.setType((ClassSymbol) globals.lookup(formal.type.getText()));
+        var type = (ClassSymbol) globals.lookup(formal.type.id);
+        sym.setType(type);
         formal.id.setSymbol(sym);
 
-        return (ClassSymbol) globals.lookup(formal.type.getText());
-    }
-
-    @Override
-    public ClassSymbol visit(Feature feature) {
-        return null;
+        return type;
     }
 
     @Override
-    public ClassSymbol visit(Class classs) {
-        // check the inherited class is defined
-        if (classs.inherit != null) {
-            if(validateChecker.nonInheritable.contains(classs.inherit.getText()))
-                return null;
-            // check the defined parent & check the cycle
-            if (!validateChecker.checkInheritanceCycle(classs) || !validateChecker.isParentClassDefined(classs))
-                return null;
-        }
+    void resume(Frame<ClassSymbol> frame, Class classs) {
+        switch (frame.phase) {
+            case 0:
+                // check the inherited class is defined
+                if (classs.inherit != null) {
+                    if (validateChecker.nonInheritable.contains(classs.inherit.getText())) {
+                        finish(frame, null);
+                        return;
+                    }
+                    // check the defined parent & check the cycle
+                    if (!validateChecker.checkInheritanceCycle(classs) || !validateChecker.isParentClassDefined(classs)) {
+                        finish(frame, null);
+                        return;
+                    }
+                }
 
-        var clsSym = (ClassSymbol) globals.lookup(classs.type.getText());
-        if (clsSym == null) return null;
+                var clsSym = (ClassSymbol) globals.lookup(classs.type.id);
+                if (clsSym == null) {
+                    finish(frame, null);
+                    return;
+                }
 
-        var old = currentScope;
-        currentScope = clsSym;
+                frame.saved = currentScope;
+                currentScope = clsSym;
+                frame.phase = 1;
+            case 1:
+                if (frame.visitNext(classs.features))
+                    return;
 
-        for (var f : classs.features) {
-            f.accept(this);
+                currentScope = (Scope) frame.saved;
+                finish(frame, null);
         }
+    }
 
-        currentScope = old;
-        return null;
+    @Override
+    void resume(Frame<ClassSymbol> frame, Program program) {
+        if (!frame.visitNext(program.units))
+            finish(frame, null);
     }
 
     @Override
-    public ClassSymbol visit(Program program) {
+    void resume(Frame<ClassSymbol> frame, CompilationUnit unit) {
         // parse all the classes
-        program.classes.forEach(cls -> cls.accept(this));
-        return null;
+        if (!frame.visitNext(unit.classes))
+            finish(frame, null);
     }
 
     @Override
-    public ClassSymbol visit(Local local) {
-        IdSymbol sym = local.id.getSymbol();
-        if (sym == null)
-            return null;
+    void resume(Frame<ClassSymbol> frame, Local local) {
+        switch (frame.phase) {
+            case 0:
+                IdSymbol sym = local.id.getSymbol();
+                if (sym == null) {
+                    finish(frame, null);
+                    return;
+                }
 
-        // undefined type
-        String typeName = local.type.getText();
-        ClassSymbol declared = (ClassSymbol) globals.lookup(typeName);
-        if (declared == null) {
-            SymbolTable.error(local.ctx, local.type,
-                    "Let variable " + local.id.getToken().getText() +
-                            " has undefined type " + typeName);
-            return null;
-        }
+                // undefined type
+                String typeName = local.type.getText();
+                ClassSymbol declared = (ClassSymbol) globals.lookup(local.type.id);
+                if (declared == null) {
+                    context.error(local.type.position,
+                            "Let variable " + local.id.getText() +
+                                    " has undefined type " + typeName);
+                    finish(frame, null);
+                    return;
+                }
 
-        sym.setType(declared);
+                sym.setType(declared);
 
-        if (local.init != null) {
-            ClassSymbol exprType = local.init.accept(this);
+                frame.value = declared;
+                frame.phase = 1;
+                frame.visit(local.init);
+                return;
+            case 1:
+                finish(frame, frame.value);
         }
-
-        return declared;
     }
 
+    // The method symbol is kept in the frame, and the declared return type
+    // as its value.
     @Override
-    public ClassSymbol visit(Method method) {
-        if (method.id.getSymbol() == null) {
-            return null;
-        }
-
-        MethodSymbol currentMethodSymbol = (MethodSymbol) ((ClassSymbol) method.id.getSymbol().getScope())
-                .lookupMethod(method.id.getToken().getText());
-        String methodName = method.id.getToken().getText();
-        String className = ((ClassSymbol) method.id.getSymbol().getScope()).getName();
-        ClassSymbol declaredReturnType = (ClassSymbol) globals.lookup(method.returnType.getText());
-
-        currentScope = currentMethodSymbol;
-
-        // check return type exists
-        if (declaredReturnType == null) {
-            SymbolTable.error(method.ctx, method.returnType,
-                    "Class " + className +
-                            " has method " + methodName +
-                            " with undefined return type " + method.returnType.getText());
-            return null;
-        }
+    void resume(Frame<ClassSymbol> frame, Method method) {
+        String methodName = method.id.getText();
+        var currentMethodSymbol = (MethodSymbol) frame.saved;
+        ClassSymbol declaredReturnType = frame.value;
+
+        switch (frame.phase) {
+            case 0:
+                if (method.id.getSymbol() == null) {
+                    finish(frame, null);
+                    return;
+                }
 
-        currentMethodSymbol.setType(declaredReturnType);
+                currentMethodSymbol = (MethodSymbol) ((ClassSymbol) method.id.getSymbol().getScope())
+                        .lookupMethod(method.id.nameId);
+                String className = ((ClassSymbol) method.id.getSymbol().getScope()).getName();
+                declaredReturnType = (ClassSymbol) globals.lookup(method.returnType.id);
+
+                currentScope = currentMethodSymbol;
+
+                // check return type exists
+                if (declaredReturnType == null) {
+                    context.error(method.returnType.position,
+                            "Class " + className +
+                                    " has method " + methodName +
+                                    " with undefined return type " + method.returnType.getText());
+                    finish(frame, null);
+                    return;
+                }
 
-        // check params of method
-        for (var formal : method.formals) {
-            formal.accept(this);
-        }
+                currentMethodSymbol.setType(declaredReturnType);
+                frame.saved = currentMethodSymbol;
+                frame.value = declaredReturnType;
+                frame.phase = 1;
+            case 1:
+                // check params of method
+                if (frame.visitNext(method.formals))
+                    return;
+
+                // override method in parent classes
+                className = ((ClassSymbol) method.id.getSymbol().getScope()).getName();
+                if (!validateChecker.checkMethodOverride(method, currentMethodSymbol, className, methodName)) {
+                    finish(frame, null);
+                    return;
+                }
 
-        // override method in parent classes
-        if (!validateChecker.checkMethodOverride(method, currentMethodSymbol, className, methodName)) {
-            return null;
-        }
+                frame.phase = 2;
+                frame.visit(method.body());
+                return;
+            case 2:
+                ClassSymbol actualReturnType = frame.child;
+                if (actualReturnType == null) {
+                    finish(frame, null);
+                    return;
+                }
 
-        ClassSymbol actualReturnType = method.body.accept(this);
-        if (actualReturnType == null) {
-            return null;
-        }
+                if (!validateChecker.isCompatibleReturnType(declaredReturnType, actualReturnType, method, methodName)) {
+                    finish(frame, null);
+                    return;
+                }
 
-        if (!validateChecker.isCompatibleReturnType(declaredReturnType, actualReturnType, method, methodName)) {
-            return null;
+                currentScope = currentScope.getParent();
+                finish(frame, actualReturnType);
         }
-
-        currentScope = currentScope.getParent();
-        return actualReturnType;
     }
 
     @Override
-    public ClassSymbol visit(Attr attr) {
-        // redefinition of attr
-        if (!validateChecker.checkAttributeResolution(attr))
-            return null;
+    void resume(Frame<ClassSymbol> frame, Attr attr) {
+        switch (frame.phase) {
+            case 0:
+                // redefinition of attr
+                if (!validateChecker.checkAttributeResolution(attr)) {
+                    finish(frame, null);
+                    return;
+                }
 
-        // undefined class
-        String typeName = attr.type.getText();
-        var declared = (ClassSymbol) globals.lookup(typeName);
-        if (declared == null) {
-            var clsName = ((ClassSymbol) currentScope).getName();
-            SymbolTable.error(attr.ctx, attr.type,
-                    "Class " + clsName + " has attribute " +
-                            attr.id.getToken().getText() + " with undefined type " + typeName);
-            return null;
-        }
+                // undefined class
+                String typeName = attr.type.getText();
+                var declared = (ClassSymbol) globals.lookup(attr.type.id);
+                if (declared == null) {
+                    var clsName = ((ClassSymbol) currentScope).getName();
+                    context.error(attr.type.position,
+                            "Class " + clsName + " has attribute " +
+                                    attr.id.getText() + " with undefined type " + typeName);
+                    finish(frame, null);
+                    return;
+                }
 
-        var idSym = attr.id.getSymbol();
-        if (idSym != null) {
-            idSym.setType(declared);
-        }
+                var idSym = attr.id.getSymbol();
+                if (idSym != null) {
+                    idSym.setType(declared);
+                }
 
-        if (attr.init != null) {
-            ClassSymbol exprType = attr.init.accept(this); // type of expr
-            if (exprType != null) {
+                frame.value = declared;
+                frame.phase = 1;
+                frame.visit(attr.init);
+                return;
+            case 1:
+                declared = frame.value;
+                ClassSymbol exprType = frame.child; // type of expr
+                if (exprType != null) {
                     var lca = validateChecker.getCommonParrent(declared, exprType, currentScope);
-                if (lca == null || !lca.getName().equals(declared.getName())) {
-                    var tok = attr.init.getToken();
-                    SymbolTable.error(attr.ctx, tok,
-                            "Type " + exprType.getName() +
-                                    " of initialization expression of attribute " +
-                                    attr.id.getToken().getText() +
-                                    " is incompatible with declared type " + declared.getName());
+                    if (lca == null || lca.getId() != declared.getId()) {
+                        context.error(attr.init.position,
+                                "Type " + exprType.getName() +
+                                        " of initialization expression of attribute " +
+                                        attr.id.getText() +
+                                        " is incompatible with declared type " + declared.getName());
+                    }
                 }
-            }
-        }
 
-        return declared;
+                finish(frame, declared);
+        }
     }
 
     @Override
-    public ClassSymbol visit(Block block) {
-        ClassSymbol last = null;
-        for (var e : block.expressions) last = e.accept(this);
-        return last;
+    void resume(Frame<ClassSymbol> frame, Block block) {
+        // the type of the last expression
+        if (!frame.visitNext(block.expressions))
+            finish(frame, frame.child);
     }
 
     @Override
-    public ClassSymbol visit(If ifExpr) {
-        return null;
+    void resume(Frame<ClassSymbol> frame, If ifExpr) {
+        finish(frame, null);
     }
 
     @Override
-    public ClassSymbol visit(While whileExpr) {
-        return null;
+    void resume(Frame<ClassSymbol> frame, While whileExpr) {
+        finish(frame, null);
     }
 
+    // The scope to restore is kept in the frame. Between the locals, the
+    // current scope is the one of the locals declared so far, which the
+    // initialization of the next one is resolved in.
     @Override
-    public ClassSymbol visit(Let let) {
-        var saved = currentScope;
-        Scope s = currentScope;
-
-        for (var local : let.localVars) {
-            currentScope = s;
-            if (local.init != null)
-                local.init.accept(this);
-
-            // undefined type for local
-            String typeName = local.type.getText();
-            ClassSymbol declared = (ClassSymbol) globals.lookup(typeName);
-            if (declared == null) {
-                SymbolTable.error(local.ctx, local.type,
-                        "Let variable " + local.id.getToken().getText() +
-                                " has undefined type " + typeName);
-            }
-
-            Scope newScope = new DefaultScope(s);
-            currentScope = newScope;
+    void resume(Frame<ClassSymbol> frame, Let let) {
+        switch (frame.phase) {
+            case 0:
+                frame.saved = currentScope;
+                frame.phase = 1;
+            case 1:
+                if (frame.index > 0)
+                    declare(let.localVars.get(frame.index - 1));
+
+                if (frame.index < let.localVars.size()) {
+                    frame.visit(let.localVars.get(frame.index++).init);
+                    return;
+                }
 
-            IdSymbol sym = local.id.getSymbol();
-            if (sym != null) {
-                sym.setScope(newScope);
-                newScope.add(sym);
-                if (declared != null) sym.setType(declared);
-            }
+                frame.phase = 2;
+                frame.visit(let.body);
+                return;
+            case 2:
+                currentScope = (Scope) frame.saved;
+                finish(frame, frame.child);
+        }
+    }
 
-            s = newScope;
+    // Declares the given local in a new scope in the current one, once its
+    // initialization has been resolved.
+    private void declare(Local local) {
+        // undefined type for local
+        String typeName = local.type.getText();
+        ClassSymbol declared = (ClassSymbol) globals.lookup(local.type.id);
+        if (declared == null) {
+            context.error(local.type.position,
+                    "Let variable " + local.id.getText() +
+                            " has undefined type " + typeName);
         }
 
-        currentScope = s;
-        ClassSymbol bodyType = (let.body != null) ? let.body.accept(this) : null;
+        Scope newScope = new DefaultScope(currentScope);
+        currentScope = newScope;
 
-        currentScope = saved;
-        return bodyType;
+        IdSymbol sym = local.id.getSymbol();
+        if (sym != null) {
+            sym.setScope(newScope);
+            newScope.add(sym);
+            if (declared != null) sym.setType(declared);
+        }
     }
 
+    // The scope to restore is kept in the frame, and the type of the
+    // branches so far as its value.
     @Override
-    public ClassSymbol visit(Case caseExpr) {
-        var saved = currentScope;
-
-        ClassSymbol resultType = null;
-        for (var br : caseExpr.branches) {
-            currentScope = new DefaultScope(saved);
-            ClassSymbol t = br.accept(this);
-            if (t != null) {
-                resultType = (resultType == null) ? t
-                        : validateChecker.getCommonParrent(resultType, t, saved);
-            }
-        }
+    void resume(Frame<ClassSymbol> frame, Case caseExpr) {
+        switch (frame.phase) {
+            case 0:
+                frame.saved = currentScope;
+                frame.phase = 1;
+            case 1:
+                var saved = (Scope) frame.saved;
+                ClassSymbol t = frame.child;
+                if (t != null) {
+                    frame.value = (frame.value == null) ? t
+                            : validateChecker.getCommonParrent(frame.value, t, saved);
+                }
+
+                currentScope = new DefaultScope(saved);
+                if (frame.visitNext(caseExpr.branches))
+                    return;
 
-        currentScope = saved;
-        return resultType;
+                currentScope = saved;
+                finish(frame, frame.value);
+        }
     }
 
     @Override
-    public ClassSymbol visit(CaseBranch branch) {
-        Symbol idSym = (currentScope != null) ? currentScope.lookup(branch.name.getText()) : null;
-        if (!(idSym instanceof IdSymbol)) {
-            return (branch.expr != null) ? branch.expr.accept(this) : null;
-        }
+    void resume(Frame<ClassSymbol> frame, CaseBranch branch) {
+        switch (frame.phase) {
+            case 0:
+                frame.phase = 1;
+
+                Symbol idSym = (currentScope != null) ? currentScope.lookup(branch.name.id) : null;
+                if (!(idSym instanceof IdSymbol)) {
+                    frame.visit(branch.expr);
+                    return;
+                }
 
-        String typeName = branch.type.getText();
+                String typeName = branch.type.getText();
 
-        // illegal type SELF_TYPE
-        if ("SELF_TYPE".equals(typeName)) {
-            SymbolTable.error(branch.ctx, branch.type,
-                    "Case variable " + branch.name.getText() + " has illegal type SELF_TYPE");
-            // evaluate the expression
-            return (branch.expr != null) ? branch.expr.accept(this) : null;
-        }
+                // illegal type SELF_TYPE
+                if (branch.type.id == Names.SELF_TYPE) {
+                    context.error(branch.type.position,
+                            "Case variable " + branch.name.getText() + " has illegal type SELF_TYPE");
+                    // evaluate the expression
+                    frame.visit(branch.expr);
+                    return;
+                }
 
-        // undefined type
-        ClassSymbol declared = (ClassSymbol) globals.lookup(typeName);
-        if (declared == null) {
-            SymbolTable.error(branch.ctx, branch.type,
-                    "Case variable " + branch.name.getText() + " has undefined type " + typeName);
-            return (branch.expr != null) ? branch.expr.accept(this) : null;
-        }
+                // undefined type
+                ClassSymbol declared = (ClassSymbol) globals.lookup(branch.type.id);
+                if (declared == null) {
+                    context.error(branch.type.position,
+                            "Case variable " + branch.name.getText() + " has undefined type " + typeName);
+                    frame.visit(branch.expr);
+                    return;
+                }
 
-        ((IdSymbol) idSym).setType(declared);
+                ((IdSymbol) idSym).setType(declared);
 
-        return (branch.expr != null) ? branch.expr.accept(this) : declared;
+                frame.value = declared;
+                frame.visit(branch.expr);
+                return;
+            case 1:
+                // the declared type, if any, for a branch without expression
+                finish(frame, (branch.expr != null) ? frame.child : frame.value);
+        }
     }
 
     @Override
-    public ClassSymbol visit(Assign assign) {
+    void resume(Frame<ClassSymbol> frame, Assign assign) {
         String lhsName = assign.name.getText();
 
-        // assign to self
-        if ("self".equals(lhsName)) {
-            SymbolTable.error(assign.ctx, assign.name, "Cannot assign to self");
-            return (assign.expr != null) ? assign.expr.accept(this) : null;
-        }
-
-        // check the left var
-        Symbol s = currentScope.lookup(lhsName);
-        if (!(s instanceof IdSymbol)) {
-            SymbolTable.error(assign.ctx, assign.name, "Undefined identifier " + lhsName);
-            if (assign.expr != null)
-                assign.expr.accept(this);
-            return null;
-        }
+        switch (frame.phase) {
+            case 0:
+                // assign to self
+                if (assign.name.id == Names.SELF) {
+                    context.error(assign.name.position, "Cannot assign to self");
+                    frame.phase = 1;
+                    frame.visit(assign.expr);
+                    return;
+                }
 
-        IdSymbol idSym = (IdSymbol) s;
-        // left
-        ClassSymbol declared = idSym.getType();
+                // check the left var
+                Symbol s = currentScope.lookup(assign.name.id);
+                if (!(s instanceof IdSymbol)) {
+                    context.error(assign.name.position, "Undefined identifier " + lhsName);
+                    frame.phase = 2;
+                    frame.visit(assign.expr);
+                    return;
+                }
 
-        // rigth
-        ClassSymbol rhs = (assign.expr != null) ? assign.expr.accept(this) : null;
+                IdSymbol idSym = (IdSymbol) s;
+                // left
+                frame.value = idSym.getType();
+                frame.phase = 3;
+                frame.visit(assign.expr);
+                return;
+            case 1:
+                // assigned to self
+                finish(frame, frame.child);
+                return;
+            case 2:
+                // undefined identifier
+                finish(frame, null);
+                return;
+            case 3:
+                ClassSymbol declared = frame.value;
+
+                // rigth
+                ClassSymbol rhs = frame.child;
+
+                if (declared == null || rhs == null) {
+                    finish(frame, rhs);
+                    return;
+                }
 
-        if (declared == null || rhs == null) {
-            return rhs;
-        }
+                // compatibility right should be subtype of left
+                ClassSymbol lca = validateChecker.getCommonParrent(declared, rhs, currentScope);
+                if (lca == null || declared.getId() != lca.getId()) {
+                    context.error(assign.expr.position,
+                            "Type " + rhs.getName() +
+                                    " of assigned expression is incompatible with declared type " +
+                                    declared.getName() + " of identifier " + lhsName);
+                }
 
-        // compatibility right should be subtype of left
-        ClassSymbol lca = validateChecker.getCommonParrent(declared, rhs, currentScope);
-        if (lca == null || !declared.getName().equals(lca.getName())) {
-            SymbolTable.error(assign.ctx, assign.expr.getToken(),
-                    "Type " + rhs.getName() +
-                            " of assigned expression is incompatible with declared type " +
-                            declared.getName() + " of identifier " + lhsName);
+                finish(frame, rhs);
         }
-
-        return rhs;
     }
 
     @Override
-    public ClassSymbol visit(Dispatch dispatch) {
-        return null;
+    void resume(Frame<ClassSymbol> frame, Dispatch dispatch) {
+        finish(frame, null);
     }
 
     @Override
-    public ClassSymbol visit(StaticDispatch staticDispatch) {
-        return null;
+    void resume(Frame<ClassSymbol> frame, StaticDispatch staticDispatch) {
+        finish(frame, null);
     }
 
+    // The type of the left operand is kept as the value of the frame.
     @Override
-    public ClassSymbol visit(BinaryOp op) {
-        var lt = (op.left  != null) ? op.left.accept(this)  : null;
-        var rt = (op.right != null) ? op.right.accept(this) : null;
+    void resume(Frame<ClassSymbol> frame, BinaryOp op) {
+        switch (frame.phase) {
+            case 0:
+                frame.phase = 1;
+                frame.visit(op.left);
+                return;
+            case 1:
+                frame.value = frame.child;
+                frame.phase = 2;
+                frame.visit(op.right);
+                return;
+            case 2:
+                finish(frame, resolveBinaryOp(op, frame.value, frame.child));
+        }
+    }
+
+    private ClassSymbol resolveBinaryOp(BinaryOp op, ClassSymbol lt, ClassSymbol rt) {
         String sop = op.op; // "+", "-", "*", "/", "<", "<=", "="
 
         // + - * /
         if (sop.equals("+") || sop.equals("-") || sop.equals("*") || sop.equals("/")) {
             if (lt != null && !isInt(lt)) {
-                SymbolTable.error(op.ctx, op.left.getToken(),
+                context.error(op.left.position,
                         "Operand of " + sop + " has type " + lt.getName() + " instead of Int");
             }
             if (rt != null && !isInt(rt)) {
-                SymbolTable.error(op.ctx, op.right.getToken(),
+                context.error(op.right.position,
                         "Operand of " + sop + " has type " + rt.getName() + " instead of Int");
             }
             return INT();
@@ -400,11 +536,11 @@ public class ResolutionPassVisitor implements ASTVisitor<ClassSymbol> {
         // < <=
         if (sop.equals("<") || sop.equals("<=")) {
             if (lt != null && !isInt(lt)) {
-                SymbolTable.error(op.ctx, op.left.getToken(),
+                context.error(op.left.position,
                         "Operand of " + sop + " has type " + lt.getName() + " instead of Int");
             }
             if (rt != null && !isInt(rt)) {
-                SymbolTable.error(op.ctx, op.right.getToken(),
+                context.error(op.right.position,
                         "Operand of " + sop + " has type " + rt.getName() + " instead of Int");
             }
             return BOOL();
@@ -418,7 +554,7 @@ public class ResolutionPassVisitor implements ASTVisitor<ClassSymbol> {
                         (isBool(lt) && isBool(rt)) ||
                         (isStr(lt) && isStr(rt));
                 if (!ok) {
-                    SymbolTable.error(op.ctx, op.getToken(),
+                    context.error(op.position,
                             "Cannot compare " + (lt == null ? "Object" : lt.getName()) +
                                     " with " + (rt == null ? "Object" : rt.getName()));
                 }
@@ -430,38 +566,65 @@ public class ResolutionPassVisitor implements ASTVisitor<ClassSymbol> {
     }
 
     @Override
-    public ClassSymbol visit(Not notExpr) {
-        ClassSymbol t = (notExpr.expr != null) ? notExpr.expr.accept(this) : null;
-        if (t != null && !isBool(t)) {
-            SymbolTable.error(notExpr.ctx, notExpr.expr.getToken(),
-                    "Operand of not has type " + t.getName() + " instead of Bool");
+    void resume(Frame<ClassSymbol> frame, Not notExpr) {
+        switch (frame.phase) {
+            case 0:
+                frame.phase = 1;
+                frame.visit(notExpr.expr);
+                return;
+            case 1:
+                ClassSymbol t = frame.child;
+                if (t != null && !isBool(t)) {
+                    context.error(notExpr.expr.position,
+                            "Operand of not has type " + t.getName() + " instead of Bool");
+                }
+                finish(frame, BOOL());
         }
-        return BOOL();
     }
 
     @Override
-    public ClassSymbol visit(IsVoid isVoidExpr) {
-        if (isVoidExpr.expr != null) isVoidExpr.expr.accept(this);
-        return BOOL();
+    void resume(Frame<ClassSymbol> frame, IsVoid isVoidExpr) {
+        switch (frame.phase) {
+            case 0:
+                frame.phase = 1;
+                frame.visit(isVoidExpr.expr);
+                return;
+            case 1:
+                finish(frame, BOOL());
+        }
     }
 
     @Override
-    public ClassSymbol visit(New newExpr) {
-        return null;
+    void resume(Frame<ClassSymbol> frame, New newExpr) {
+        finish(frame, null);
     }
 
     @Override
-    public ClassSymbol visit(Paren paren) {
-       return (paren.expr!=null) ? paren.expr.accept(this) : null;
+    void resume(Frame<ClassSymbol> frame, Paren paren) {
+        switch (frame.phase) {
+            case 0:
+                frame.phase = 1;
+                frame.visit(paren.expr);
+                return;
+            case 1:
+                finish(frame, frame.child);
+        }
     }
 
     @Override
-    public ClassSymbol visit(Neg negExpr) {
-        ClassSymbol t = (negExpr.expr != null) ? negExpr.expr.accept(this) : null;
-        if (t != null && !isInt(t)) {
-            SymbolTable.error(negExpr.ctx, negExpr.expr.getToken(),
-                    "Operand of ~ has type " + t.getName() + " instead of Int");
+    void resume(Frame<ClassSymbol> frame, Neg negExpr) {
+        switch (frame.phase) {
+            case 0:
+                frame.phase = 1;
+                frame.visit(negExpr.expr);
+                return;
+            case 1:
+                ClassSymbol t = frame.child;
+                if (t != null && !isInt(t)) {
+                    context.error(negExpr.expr.position,
+                            "Operand of ~ has type " + t.getName() + " instead of Int");
+                }
+                finish(frame, INT());
         }
-        return INT();
     }
 }
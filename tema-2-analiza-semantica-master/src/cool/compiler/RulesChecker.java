@@ -1,13 +1,13 @@
 package cool.compiler;
 
 import cool.structures.*;
-import org.antlr.v4.runtime.Token;
 
 import java.util.*;
 
-import static cool.structures.SymbolTable.globals;
-
 public class RulesChecker {
+    private final CompilationContext context;
+    private final Scope globals;
+
     ArrayList<String> nonInheritable = new ArrayList<>(){{
         add("Int");
         add("String");
@@ -15,19 +15,24 @@ public class RulesChecker {
         add("SELF_TYPE");
     }};
 
+    public RulesChecker(CompilationContext context) {
+        this.context = context;
+        this.globals = context.symbolTable.globals;
+    }
+
     // check the invalid name SELF_TYPE and redefinition for class
     public boolean checkClassName(Class classs, Scope currentScope) {
         String name = classs.type.getText();
 
         // illegal name for class
-        if (name.equals("SELF_TYPE")){
-            SymbolTable.error(classs.ctx, classs.type, "Class has illegal name SELF_TYPE");
+        if (classs.type.id == Names.SELF_TYPE){
+            context.error(classs.type.position, "Class has illegal name SELF_TYPE");
             return false;
         }
 
         // redefinition
-        if (currentScope.lookup(name) != null) {
-            SymbolTable.error(classs.ctx, classs.type, "Class " + name + " is redefined");
+        if (currentScope.lookup(classs.type.id) != null) {
+            context.error(classs.type.position, "Class " + name + " is redefined");
             return false;
         }
         return true;
@@ -38,7 +43,7 @@ public class RulesChecker {
         String name = classs.type.getText();
 
         if (nonInheritable.contains(classs.inherit.getText())) {
-            SymbolTable.error(classs.ctx, classs.inherit, "Class " + name + " has illegal parent " +
+            context.error(classs.inherit.position, "Class " + name + " has illegal parent " +
                     classs.inherit.getText());
             return false;
         }
@@ -47,11 +52,11 @@ public class RulesChecker {
 
     public boolean isParentClassDefined(Class classs) {
         String name = classs.type.getText();
-        Token parent = classs.inherit;
+        Name parent = classs.inherit;
         String parentName = parent.getText();
 
-        if (globals.lookup(parentName) == null) {
-            SymbolTable.error(classs.ctx, classs.inherit, "Class " + name +
+        if (globals.lookup(parent.id) == null) {
+            context.error(classs.inherit.position, "Class " + name +
                     " has undefined parent " + parentName);
             return false;
         }
@@ -60,17 +65,16 @@ public class RulesChecker {
 
     public boolean checkInheritanceCycle(Class classs) {
         String name = classs.type.getText();
-        Token parent = classs.inherit;
-        String parentName = parent.getText();
+        Name parent = classs.inherit;
 
-        ClassSymbol parentSym = (ClassSymbol) globals.lookup(parentName);
+        ClassSymbol parentSym = (ClassSymbol) globals.lookup(parent.id);
         while (parentSym != null) {
-            if (parentSym.getName().equals(name)) {
-                SymbolTable.error(classs.ctx, classs.type, "Inheritance cycle for class " +
+            if (parentSym.getId() == classs.type.id) {
+                context.error(classs.type.position, "Inheritance cycle for class " +
                         name);
                 return false;
             }
-            parentSym = (ClassSymbol) globals.lookup(parentSym.getParentName());
+            parentSym = (ClassSymbol) globals.lookup(parentSym.getParentId());
         }
         return true;
     }
@@ -86,35 +90,35 @@ public class RulesChecker {
             return null;
         }
 
-        if (c1.getName().equals(c2.getName())) {
+        if (c1.getId() == c2.getId()) {
             return c1;
         }
 
-        if (c1.getName().equals("SELF_TYPE")) {
+        if (c1.getId() == Names.SELF_TYPE) {
             c1 = (ClassSymbol) currentScope;
         }
 
-        if (c2.getName().equals("SELF_TYPE")) {
+        if (c2.getId() == Names.SELF_TYPE) {
             c2 = (ClassSymbol) currentScope;
         }
 
-        Set<String> ancestorsOfC1 = new HashSet<>();
+        Set<Integer> ancestorsOfC1 = new HashSet<>();
         ClassSymbol current = c1;
 
         while (current != null) {
-            ancestorsOfC1.add(current.getName());
-            current = (ClassSymbol) globals.lookup(current.getParentName());
+            ancestorsOfC1.add(current.getId());
+            current = (ClassSymbol) globals.lookup(current.getParentId());
         }
 
         current = c2;
         while (current != null) {
-            if (ancestorsOfC1.contains(current.getName())) {
+            if (ancestorsOfC1.contains(current.getId())) {
                 return current;
             }
-            current = (ClassSymbol) globals.lookup(current.getParentName());
+            current = (ClassSymbol) globals.lookup(current.getParentId());
         }
 
-        return (ClassSymbol) globals.lookup("Object");
+        return (ClassSymbol) globals.lookup(Names.OBJECT);
     }
 
     public boolean checkAttributeResolution(Attr attribute) {
@@ -123,15 +127,15 @@ public class RulesChecker {
 
         ClassSymbol scope = (ClassSymbol) attribute.id.getSymbol().getScope();
 
-        if (scope.getParentName() != null) {
-            ClassSymbol parent = (ClassSymbol) globals.lookup(scope.getParentName());
+        if (scope.getParentId() != Names.NONE) {
+            ClassSymbol parent = (ClassSymbol) globals.lookup(scope.getParentId());
             while (parent != null) {
-                if (parent.lookup(attribute.id.token.getText()) != null) {
-                    SymbolTable.error(attribute.ctx, attribute.token, "Class " + scope.getName() +
-                            " redefines inherited attribute " + attribute.id.token.getText());
+                if (parent.lookup(attribute.id.nameId) != null) {
+                    context.error(attribute.position, "Class " + scope.getName() +
+                            " redefines inherited attribute " + attribute.id.getText());
                     return false;
                 }
-                parent = (ClassSymbol) globals.lookup(parent.getParentName());
+                parent = (ClassSymbol) globals.lookup(parent.getParentId());
             }
         }
         return true;
@@ -139,10 +143,10 @@ public class RulesChecker {
 
     public boolean checkMethodDefinition(Method method, Scope currentScope) {
         if (currentScope instanceof ClassSymbol) {
-            Symbol sym = ((ClassSymbol) currentScope).lookupMethod(method.id.token.getText());
+            Symbol sym = ((ClassSymbol) currentScope).lookupMethod(method.id.nameId);
             if (sym != null) {
-                SymbolTable.error(method.ctx, method.token, "Class " + ((ClassSymbol) currentScope).getName() +
-                        " redefines method " + method.id.token.getText());
+                context.error(method.position, "Class " + ((ClassSymbol) currentScope).getName() +
+                        " redefines method " + method.id.getText());
                 return false;
             }
         }
@@ -154,21 +158,21 @@ public class RulesChecker {
         String methodName = ((MethodSymbol) currentScope).getName();
         String className = ((ClassSymbol) currentScope.getParent()).getName();
 
-        if (formal.id.token.getText().equals("self")) {
-            SymbolTable.error(formal.ctx, formal.token, "Method " + methodName + " of class " + className +
+        if (formal.id.nameId == Names.SELF) {
+            context.error(formal.position, "Method " + methodName + " of class " + className +
                     " has formal parameter with illegal name self");
             return false;
         }
 
-        if (((MethodSymbol) currentScope).hasSymbol(formal.id.token.getText()) != null) {
-            SymbolTable.error(formal.ctx, formal.token, "Method " + methodName + " of class " + className
-                    + " redefines formal parameter " + formal.id.token.getText());
+        if (((MethodSymbol) currentScope).hasSymbol(formal.id.nameId) != null) {
+            context.error(formal.position, "Method " + methodName + " of class " + className
+                    + " redefines formal parameter " + formal.id.getText());
             return false;
         }
 
-        if (formal.type.getText().equals("SELF_TYPE")) {
-            SymbolTable.error(formal.ctx, formal.type, "Method " + methodName + " of class " + className +
-                    " has formal parameter " + formal.id.token.getText() + " with illegal type SELF_TYPE");
+        if (formal.type.id == Names.SELF_TYPE) {
+            context.error(formal.type.position, "Method " + methodName + " of class " + className +
+                    " has formal parameter " + formal.id.getText() + " with illegal type SELF_TYPE");
             return false;
         }
 
@@ -179,11 +183,11 @@ public class RulesChecker {
         String methodName = ((MethodSymbol) formal.id.getSymbol().getScope()).getName();
         String className = ((ClassSymbol) (formal.id.getSymbol().getScope().getParent())).getName();
 
-        ClassSymbol type = (ClassSymbol) globals.lookup(formal.type.getText());
+        ClassSymbol type = (ClassSymbol) globals.lookup(formal.type.id);
         if (type == null) {
-            SymbolTable.error(formal.ctx, formal.type,
+            context.error(formal.type.position,
                     "Method " + methodName + " of class " + className + " has formal parameter "
-                            + formal.id.token.getText() + " with undefined type " + formal.type.getText());
+                            + formal.id.getText() + " with undefined type " + formal.type.getText());
             return false;
         }
         return true;
@@ -193,14 +197,14 @@ public class RulesChecker {
         ClassSymbol currentClass = (ClassSymbol) method.id.getSymbol().getScope();
 
         while (currentClass != null) {
-            MethodSymbol overriddenMethod = (MethodSymbol) currentClass.lookupMethod(methodName);
+            MethodSymbol overriddenMethod = (MethodSymbol) currentClass.lookupMethod(currentMethod.getId());
 
             if (overriddenMethod != null) {
                 String comparisonResult = overriddenMethod.compare(currentMethod);
 
                 if (!comparisonResult.isEmpty()) {
                     if (comparisonResult.contains("number")) {
-                        SymbolTable.error(method.ctx, method.token,
+                        context.error(method.position,
                                 "Class " + className +
                                         " overrides method " + methodName +
                                         " with different number of formal parameters");
@@ -210,8 +214,8 @@ public class RulesChecker {
                     return false;
                 }
 
-                if (!currentMethod.getType().getName().equals(overriddenMethod.getType().getName())) {
-                    SymbolTable.error(method.ctx, method.returnType,
+                if (currentMethod.getType().getId() != overriddenMethod.getType().getId()) {
+                    context.error(method.returnType.position,
                             "Class " + className +
                                     " overrides method " + methodName +
                                     " but changes return type from " +
@@ -220,7 +224,7 @@ public class RulesChecker {
                     return false;
                 }
             }
-            currentClass = (ClassSymbol) globals.lookup(currentClass.getParentName());
+            currentClass = (ClassSymbol) globals.lookup(currentClass.getParentId());
         }
         return true;
     }
@@ -232,8 +236,8 @@ public class RulesChecker {
         String newType = tokens[2];
 
         for (var formal : method.formals) {
-            if (formal.id.token.getText().equals(paramName)) {
-                SymbolTable.error(method.ctx, formal.type,
+            if (formal.id.getText().equals(paramName)) {
+                context.error(formal.type.position,
                         "Class " + className +
                                 " overrides method " + methodName +
                                 " but changes type of formal parameter " + paramName +
@@ -244,10 +248,10 @@ public class RulesChecker {
     }
 
     public boolean isCompatibleReturnType(ClassSymbol declaredType, ClassSymbol actualType, Method method, String methodName) {
-        String commonParentName = getCommonParrent(declaredType, actualType, method.id.getSymbol().getScope()).getName();
+        int commonParentId = getCommonParrent(declaredType, actualType, method.id.getSymbol().getScope()).getId();
 
-        if (!declaredType.getName().equals(commonParentName)) {
-            SymbolTable.error(method.ctx, method.body.getToken(),
+        if (declaredType.getId() != commonParentId) {
+            context.error(method.body().position,
                     "Type " + actualType.getName() +
                             " of the body of method " + methodName +
                             " is incompatible with declared return type " + declaredType.getName());
@@ -0,0 +1,47 @@
+package cool.compiler;
+
+import cool.structures.ClassSymbol;
+
+import java.util.Arrays;
+
+// Types the resolution pass found for the nodes of a program, by node id,
+// for the phases after it. Ids are given out by the table itself, from 0,
+// to the nodes it is given a type for, so that numbering costs no walk of
+// its own and lazily parsed bodies are not parsed for it.
+//
+// A node may still have an id from another table, as the compile daemon
+// keeps ASTs from one compilation to the next. The table keeps the node of
+// each id it gave out, and an id counts only for that node: get has no
+// type for it, and set gives it an id of this table.
+final class TypeTable {
+    private ASTNode[] nodes = new ASTNode[1024];
+    private ClassSymbol[] types = new ClassSymbol[1024];
+    private int size = 0;
+
+    void set(ASTNode node, ClassSymbol type) {
+        int id = node.nodeId;
+        if (!owns(node)) {
+            // Nodes without an id have no type to overwrite.
+            if (type == null)
+                return;
+            id = node.nodeId = size++;
+            if (id == types.length) {
+                nodes = Arrays.copyOf(nodes, id * 2);
+                types = Arrays.copyOf(types, id * 2);
+            }
+            nodes[id] = node;
+        }
+        types[id] = type;
+    }
+
+    // The type of the given node, or null if it has none.
+    ClassSymbol get(ASTNode node) {
+        return owns(node) ? types[node.nodeId] : null;
+    }
+
+    // True if the id of the given node was given out by this table.
+    private boolean owns(ASTNode node) {
+        int id = node.nodeId;
+        return id >= 0 && id < size && nodes[id] == node;
+    }
+}
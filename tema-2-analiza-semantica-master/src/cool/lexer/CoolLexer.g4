@@ -7,30 +7,32 @@ lexer grammar CoolLexer;
 tokens { ERROR }
 
 @members{    
+    // Reused for decoding every string constant.
+    private final StringBuilder stringBuffer = new StringBuilder();
+
+    // If set, equal string constants share one String.
+    private java.util.Map<String, String> stringTable = null;
+
+    public void setStringTable(java.util.Map<String, String> stringTable) {
+        this.stringTable = stringTable;
+    }
+
+    // Nesting depth of the block comment being skipped.
+    private int commentDepth = 0;
+
     private void raiseError(String msg) {
         setText(msg);
         setType(ERROR);
     }
 
+    // Decodes the string constant just matched, as StringConstants does.
     private void processMyString() {
-        String str = getText();
-
-        str = str.substring(1, str.length() - 1);
-
-        str = str.replace("\\n", "\n");
-        str = str.replace("\\r", "\r");
-        str = str.replace("\\t", "\t");
-        str = str.replace("\\f", "\f");
-        str = str.replace("\\\"", "\"");
-        str = str.replace("\\\\", "\\");
-
-        if (str.length() > 1024) {
-            raiseError("String constant too long");
-        } else if (str.contains("\0")) {
-            raiseError("String contains null character");
-        } else {
-            setText(str);
+        String error = StringConstants.decode(getText(), stringBuffer);
+        if (error != null) {
+            raiseError(error);
+            return;
         }
+        setText(StringConstants.intern(stringBuffer.toString(), stringTable));
     }
 }
 // keywords
@@ -84,30 +86,27 @@ fragment DIGITS : DIGIT+;
 fragment FRACTION : ('.' DIGITS?)?;
 fragment EXPONENT : 'e' ('+' | '-')? DIGITS;
 fragment LETTER : [a-zA-Z];
-fragment ESCAPED_CHAR: '\\' [btnrf"\\];
+// A backslash always escapes the character after it, a newline included,
+// so that a string ends at the first quote that is not escaped.
+fragment STRING_CHAR
+    : '\\' ~('\r' | '\n')
+    | '\\' NEW_LINE
+    | ~('\r' | '\n' | '"' | '\\')
+    ;
 
 TYPE: ([A-Z] (LETTER | '_' | DIGIT)*);
 ID: ((LETTER | '_')(LETTER | '_' | DIGIT)* | SELF | SELF_TYPE);
 INT: DIGIT+;
 FLOAT: (DIGITS ('.' DIGITS?)? | '.' DIGITS) EXPONENT?;
 STRING
-    : '"' ( ESCAPED_CHAR
-           | '\\' NEW_LINE
-           | ~('\r' | '\n' | '"')
-          )* '"' {
+    : '"' STRING_CHAR* '"' {
               processMyString();
           }
-    | '"' ( ESCAPED_CHAR
-           | '\\' NEW_LINE
-           | ~('\r' | '\n' | '"')
-          )* NEW_LINE {
-              raiseError("Unterminated string constant");
+    | '"' STRING_CHAR* NEW_LINE {
+              raiseError(StringConstants.UNTERMINATED);
           }
-    | '"' ( ESCAPED_CHAR
-           | '\\' NEW_LINE
-           | ~('\r' | '\n' | '"')
-          )* EOF {
-              raiseError("EOF in string constant");
+    | '"' STRING_CHAR* '\\'? EOF {
+              raiseError(StringConstants.EOF_IN_STRING);
           }
     ;
 
@@ -117,10 +116,12 @@ LINE_COMMENT
 
 UNMATCHED_BLOCK_COMMENT: '*)' { raiseError("Unmatched *)"); };
 
+// Block comments nest. They are lexed in COMMENT mode, which keeps count
+// of the nesting depth, so that they take linear time and constant stack.
+// The whole comment is one token, grown with more, and thus errors are
+// reported at its start.
 BLOCK_COMMENT
-    : '(*'
-      (BLOCK_COMMENT | .)*?
-      ('*)'{skip();} | EOF { raiseError("EOF in comment"); })
+    : '(*' { commentDepth = 1; } -> more, mode(COMMENT)
     ;
 
 WS
@@ -131,4 +132,33 @@ ERROR_CHAR
     : . {
         raiseError("Invalid character: " + getText());
     }
+    ;
+
+mode COMMENT;
+
+COMMENT_OPEN
+    : '(*' { commentDepth++; } -> more
+    ;
+
+COMMENT_CLOSE
+    : '*)' {
+        if (--commentDepth == 0) {
+            mode(DEFAULT_MODE);
+            skip();
+        } else {
+            more();
+        }
+    }
+    ;
+
+COMMENT_EOF
+    : EOF {
+        mode(DEFAULT_MODE);
+        raiseError("EOF in comment");
+    }
+    ;
+
+// Runs of text, and parentheses or stars not part of the above.
+COMMENT_TEXT
+    : (~[(*]+ | [(*]) -> more
     ;
\ No newline at end of file
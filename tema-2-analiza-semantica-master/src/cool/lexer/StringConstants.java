@@ -0,0 +1,59 @@
+package cool.lexer;
+
+import java.util.Map;
+
+// Decoding of string constants and their errors, shared by CoolLexer and
+// CoolScanner so that both lexers give the same text and the same messages.
+public final class StringConstants {
+    // Longest string constant allowed, after decoding.
+    public static final int MAX_LENGTH = 1024;
+
+    public static final String UNTERMINATED = "Unterminated string constant";
+    public static final String EOF_IN_STRING = "EOF in string constant";
+    public static final String TOO_LONG = "String constant too long";
+    public static final String CONTAINS_NULL = "String contains null character";
+
+    private StringConstants() {}
+
+    // Decodes the given string constant, quotes included, into the given
+    // buffer in a single pass, and returns null, or the error message if it
+    // is not a valid one. \b, \t, \n, \f and \r stand for the control
+    // characters; any other escaped character, an escaped newline included,
+    // stands for itself. A string that gets too long fails right away, and
+    // takes precedence over a null character.
+    public static String decode(String text, StringBuilder buffer) {
+        buffer.setLength(0);
+        boolean hasNull = false;
+
+        // Skip the quotes.
+        int end = text.length() - 1;
+        for (int i = 1; i < end; i++) {
+            char c = text.charAt(i);
+
+            if (c == '\\') {
+                c = text.charAt(++i);
+                switch (c) {
+                    case 'b': c = '\b'; break;
+                    case 't': c = '\t'; break;
+                    case 'n': c = '\n'; break;
+                    case 'f': c = '\f'; break;
+                    case 'r': c = '\r'; break;
+                    default: break;
+                }
+            }
+
+            if (buffer.length() == MAX_LENGTH)
+                return TOO_LONG;
+            buffer.append(c);
+            hasNull |= c == '\0';
+        }
+
+        return hasNull ? CONTAINS_NULL : null;
+    }
+
+    // The given text, or an equal one already in the given table, if any,
+    // so that equal string constants share one String.
+    public static String intern(String text, Map<String, String> table) {
+        return table == null ? text : table.computeIfAbsent(text, s -> s);
+    }
+}
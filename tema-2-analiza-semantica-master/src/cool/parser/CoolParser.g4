@@ -14,7 +14,7 @@ program
 
 class
     :
-    CLASS type=TYPE (INHERITS inherited=TYPE)? LBRACE (feature SEMI)* RBRACE SEMI
+    CLASS type=TYPE (INHERITS inherited=TYPE)? LBRACE (features+=feature SEMI)* RBRACE SEMI
     ;
 
 formal
@@ -31,7 +31,7 @@ feature
     :
     name=ID COLON type=TYPE (ASSIGN init=expr)?
     // local                                                                               // var
-    | name=ID LPAREN (arg=formal (COMMA formal)*)? RPAREN COLON returnType=TYPE LBRACE body=expr RBRACE   // func
+    | name=ID LPAREN (formals+=formal (COMMA formals+=formal)*)? RPAREN COLON returnType=TYPE LBRACE body=expr RBRACE   // func
     ;
 
 block
@@ -58,8 +58,8 @@ expr
   | STRING                                                                                  #str
   | BOOL                                                                                    #boolVal
 
-  | left=expr (DIV | MULT) right=expr                                                       #mulDiv
-  | left=expr (MINUS | PLUS) right=expr                                                     #addSub
-  | left=expr (LT | LE | EQUAL) right=expr                                                  #relational
+  | left=expr op=(DIV | MULT) right=expr                                                    #mulDiv
+  | left=expr op=(MINUS | PLUS) right=expr                                                  #addSub
+  | left=expr op=(LT | LE | EQUAL) right=expr                                               #relational
   | NOT e=expr                                                                              #not
   ;
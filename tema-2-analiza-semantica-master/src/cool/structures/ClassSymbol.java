@@ -1,27 +1,32 @@
 package cool.structures;
-import java.util.*;
 
 public class ClassSymbol extends Symbol implements Scope {
     private Scope parent;
-    private String parentName;
+    private int parentId;
 
-    private final Map<String, Symbol> attributes = new LinkedHashMap<>();
-    private final Map<String, Symbol> methods = new LinkedHashMap<>();
+    private final SymbolMap attributes = new SymbolMap();
+    private final SymbolMap methods = new SymbolMap();
 
-    public ClassSymbol(String name, String parentName) {
-        super(name);
-        this.parentName = parentName;
+    public ClassSymbol(Names names, String name, String parentName) {
+        this(names, names.id(name), names.id(parentName));
     }
 
-    public String getParentName() { return parentName; }
-    public void setParentName(String parentName) { this.parentName = parentName; }
+    public ClassSymbol(Names names, int id, int parentId) {
+        super(names, id);
+        this.parentId = parentId;
+    }
+
+    public int getParentId() { return parentId; }
+    public void setParentId(int parentId) {
+        checkNotFrozen();
+        this.parentId = parentId;
+    }
 
-    public boolean hasAttribute(String name) { return attributes.containsKey(name); }
+    public boolean hasAttribute(int id) { return attributes.containsKey(id); }
 
     public boolean addAttribute(Symbol sym) {
-        if (attributes.containsKey(sym.getName())) return false;
-        attributes.put(sym.getName(), sym);
-        return true;
+        checkNotFrozen();
+        return attributes.add(sym);
     }
 
     @Override
@@ -30,27 +35,33 @@ public class ClassSymbol extends Symbol implements Scope {
     }
 
     @Override
-    public Symbol lookup(String name) {
-        var sym = attributes.get(name);
+    public void freeze() {
+        super.freeze();
+        attributes.values().forEach(Symbol::freeze);
+        methods.values().forEach(Symbol::freeze);
+    }
+
+    @Override
+    public Symbol lookup(int id) {
+        var sym = attributes.get(id);
         if (sym != null) return sym;
-        if (parent != null) return parent.lookup(name);
+        if (parent != null) return parent.lookup(id);
         return null;
     }
 
     @Override
     public Scope getParent() { return parent; }
 
-    public Symbol lookupMethod(String name) {
-        var m = methods.get(name);
+    public Symbol lookupMethod(int id) {
+        var m = methods.get(id);
         if (m != null) return m;
         return (parent instanceof ClassSymbol)
-                ? ((ClassSymbol) parent).lookupMethod(name)
+                ? ((ClassSymbol) parent).lookupMethod(id)
                 : null;
     }
 
     public boolean addMethod(Symbol sym) {
-        if (methods.containsKey(sym.getName())) return false;
-        methods.put(sym.getName(), sym);
-        return true;
+        checkNotFrozen();
+        return methods.add(sym);
     }
 }
@@ -1,10 +1,12 @@
 package cool.structures;
 
-import java.util.*;
-
 public class DefaultScope implements Scope {
     
-    private Map<String, Symbol> symbols = new LinkedHashMap<>();
+    private SymbolMap symbols = new SymbolMap();
+
+    // Whether symbols is shared with other scopes, and must be copied
+    // before the first change.
+    private boolean shared = false;
     
     private Scope parent;
     
@@ -12,25 +14,36 @@ public class DefaultScope implements Scope {
         this.parent = parent;
     }
 
+    // Starts out with the given symbols, without copying them until a
+    // symbol is added.
+    DefaultScope(Scope parent, SymbolMap symbols) {
+        this.parent = parent;
+        this.symbols = symbols;
+        this.shared = true;
+    }
+
     @Override
     public boolean add(Symbol sym) {
-        if (symbols.containsKey(sym.getName()))
+        if (symbols.containsKey(sym.getId()))
             return false;
+
+        if (shared) {
+            symbols = new SymbolMap(symbols);
+            shared = false;
+        }
         
-        symbols.put(sym.getName(), sym);
-        
-        return true;
+        return symbols.add(sym);
     }
 
     @Override
-    public Symbol lookup(String name) {
-        var sym = symbols.get(name);
+    public Symbol lookup(int id) {
+        var sym = symbols.get(id);
         
         if (sym != null)
             return sym;
         
         if (parent != null)
-            return parent.lookup(name);
+            return parent.lookup(id);
         
         return null;
     }
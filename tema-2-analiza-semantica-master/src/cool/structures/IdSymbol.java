@@ -5,16 +5,24 @@ public class IdSymbol extends Symbol {
     private Scope scope;
 
 
-    public IdSymbol(String name) {
-        super(name);
+    public IdSymbol(Names names, String name) {
+        super(names, name);
     }
 
-    public IdSymbol(String name, ClassSymbol type) {
-        super(name);
+    public IdSymbol(Names names, int id) {
+        super(names, id);
+    }
+
+    public IdSymbol(Names names, String name, ClassSymbol type) {
+        super(names, name);
         this.type = type;
     }
 
-    public void setType(ClassSymbol t) { this.type = t; }
+    public void setType(ClassSymbol t) {
+        checkNotFrozen();
+        this.type = t;
+    }
+
     public ClassSymbol getType() { return type; }
 
     public Scope getScope() {
@@ -22,6 +30,7 @@ public class IdSymbol extends Symbol {
     }
 
     public void setScope(Scope scope) {
+        checkNotFrozen();
         this.scope = scope;
     }
 }
@@ -3,16 +3,22 @@ import java.util.*;
 
 public class MethodSymbol extends IdSymbol implements Scope {
     private Scope parent;
-    private Map<String, Symbol> parameters = new LinkedHashMap<>();
+    // By the id of their name, in order.
+    private final SymbolMap parameters = new SymbolMap();
     private String returnType;
 
-    public MethodSymbol(String name, Scope parent) {
-        super(name);
+    public MethodSymbol(Names names, String name, Scope parent) {
+        super(names, name);
         this.parent = parent;
     }
 
-    public MethodSymbol(String name, Scope parent, String returnType) {
-        super(name);
+    public MethodSymbol(Names names, int id, Scope parent) {
+        super(names, id);
+        this.parent = parent;
+    }
+
+    public MethodSymbol(Names names, String name, Scope parent, String returnType) {
+        super(names, name);
         this.parent = parent;
         this.returnType = returnType;
     }
@@ -21,36 +27,36 @@ public class MethodSymbol extends IdSymbol implements Scope {
         return returnType;
     }
 
-    public Map<String, Symbol> getParameters() {
-        return parameters;
+    public List<Symbol> getParameters() {
+        return parameters.values();
     }
 
     public void setReturnType(String returnType) {
+        checkNotFrozen();
         this.returnType = returnType;
     }
 
-    public void setParameters(Map<String, Symbol> parameters) {
-        this.parameters = parameters;
-    }
-
     @Override
     public boolean add(Symbol sym) {
-        if (parameters.containsKey(sym.getName()))
-            return false;
+        checkNotFrozen();
+        return parameters.add((IdSymbol) sym);
+    }
 
-        parameters.put(sym.getName(), (IdSymbol) sym);
-        return true;
+    @Override
+    public void freeze() {
+        super.freeze();
+        parameters.values().forEach(Symbol::freeze);
     }
 
     @Override
-    public Symbol lookup(String name) {
-        var sym = parameters.get(name);
+    public Symbol lookup(int id) {
+        var sym = hasSymbol(id);
 
         if (sym != null)
             return sym;
 
         if (parent != null)
-            return parent.lookup(name);
+            return parent.lookup(id);
 
         return null;
     }
@@ -60,11 +66,8 @@ public class MethodSymbol extends IdSymbol implements Scope {
         return parent;
     }
 
-    public Symbol hasSymbol(String str) {
-        if (parameters.containsKey(str))
-            return parameters.get(str);
-
-        return null;
+    public Symbol hasSymbol(int id) {
+        return parameters.get(id);
     }
 
     public String compare(MethodSymbol other) {
@@ -73,19 +76,17 @@ public class MethodSymbol extends IdSymbol implements Scope {
             return "with different number of formal parameters";
         }
 
-        List<String> thisParamNames = new ArrayList<>(this.parameters.keySet());
-        List<String> otherParamNames = new ArrayList<>(other.parameters.keySet());
-
-        for (int i = 0; i < thisParamNames.size(); i++) {
-            String paramName1 = thisParamNames.get(i);
-            String paramName2 = otherParamNames.get(i);
+        List<Symbol> thisParams = this.parameters.values();
+        List<Symbol> otherParams = other.parameters.values();
 
-            IdSymbol thisParam = (IdSymbol) this.parameters.get(paramName1);
-            IdSymbol otherParam = (IdSymbol) other.parameters.get(paramName2);
+        for (int i = 0; i < thisParams.size(); i++) {
+            IdSymbol thisParam = (IdSymbol) thisParams.get(i);
+            IdSymbol otherParam = (IdSymbol) otherParams.get(i);
+            String paramName2 = otherParam.getName();
 
             // compare types of parameters
             if (thisParam.getType() != null && otherParam.getType() != null) {
-                if (!(thisParam.getType().getName().equals(otherParam.getType().getName()))) {
+                if (thisParam.getType().getId() != otherParam.getType().getId()) {
                     return paramName2 + " " + thisParam.getType().getName() + " " + otherParam.getType().getName();
                 }
             }
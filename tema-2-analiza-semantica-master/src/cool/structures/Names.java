@@ -0,0 +1,86 @@
+package cool.structures;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Interned identifiers and type names of one compilation. Every name gets a
+// small int id the first time it is seen, and one String shared by
+// everything holding it, so that symbols and scopes compare and look up
+// names by id.
+//
+// Every table starts with the names of the prelude, in the same order, so
+// that they have the same ids in all tables, which the prelude symbols,
+// shared by all compilations, rely on. Parsing runs on several threads, so
+// names can be added concurrently.
+public final class Names {
+    // Ids of names that are not there.
+    public static final int NONE = -1;
+
+    public static final int OBJECT = 0;
+    public static final int IO = 1;
+    public static final int INT = 2;
+    public static final int STRING = 3;
+    public static final int BOOL = 4;
+    public static final int SELF = 5;
+    public static final int SELF_TYPE = 6;
+
+    // Every name the prelude symbols have, starting with the ones above.
+    private static final String[] PRELUDE = {
+            "Object", "IO", "Int", "String", "Bool", "self", "SELF_TYPE",
+            "abort", "type_name", "copy", "out_string", "out_int", "in_string", "in_int", "x",
+            "length", "concat", "substr", "s", "i", "l" };
+
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    // Text of each id, replaced by a larger copy as names are added.
+    private volatile String[] texts = new String[1024];
+    private int size = 0;
+
+    public Names() {
+        for (var name : PRELUDE)
+            id(name);
+    }
+
+    // Number of names in a table that has only the prelude.
+    public static int preludeSize() {
+        return PRELUDE.length;
+    }
+
+    // Id of the given name, which is added if it is new, or NONE for null.
+    public int id(String name) {
+        if (name == null)
+            return NONE;
+
+        var id = ids.get(name);
+        if (id != null)
+            return id;
+
+        synchronized (this) {
+            id = ids.get(name);
+            if (id != null)
+                return id;
+
+            var table = texts;
+            if (size == table.length)
+                table = Arrays.copyOf(table, size * 2);
+            table[size] = name;
+            texts = table;
+            ids.put(name, size);
+            return size++;
+        }
+    }
+
+    // Id of the given name if it has been added, or NONE, without adding it.
+    public int find(String name) {
+        var id = name == null ? null : ids.get(name);
+        return id == null ? NONE : id;
+    }
+
+    // The shared String of the given id, or null for NONE.
+    public String text(int id) {
+        return id == NONE ? null : texts[id];
+    }
+
+    public int size() {
+        return ids.size();
+    }
+}
@@ -3,7 +3,12 @@ package cool.structures;
 public interface Scope {
     public boolean add(Symbol sym);
     
-    public Symbol lookup(String str);
+    public Symbol lookup(int id);
+
+    public default Symbol lookup(Names names, String str) {
+        int id = names.find(str);
+        return id == Names.NONE ? null : lookup(id);
+    }
     
     public Scope getParent();
 }
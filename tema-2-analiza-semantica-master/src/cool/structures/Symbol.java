@@ -2,14 +2,38 @@ package cool.structures;
 
 public class Symbol {
     protected String name;
+    // Id of the name in the Names of the compilation.
+    private final int id;
+
+    // Set on symbols shared between compilations, which must not change.
+    private boolean frozen = false;
     
-    public Symbol(String name) {
-        this.name = name;
+    public Symbol(Names names, String name) {
+        this(names, names.id(name));
+    }
+
+    public Symbol(Names names, int id) {
+        this.id = id;
+        this.name = names.text(id);
     }
     
     public String getName() {
         return name;
     }
+
+    public int getId() {
+        return id;
+    }
+
+    // Makes this symbol, and the symbols it holds, immutable.
+    public void freeze() {
+        frozen = true;
+    }
+
+    protected void checkNotFrozen() {
+        if (frozen)
+            throw new UnsupportedOperationException("Symbol " + name + " is frozen");
+    }
     
     @Override
     public String toString() {
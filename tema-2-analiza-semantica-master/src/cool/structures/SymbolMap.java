@@ -0,0 +1,70 @@
+package cool.structures;
+
+import java.util.*;
+
+// Symbols by the id of their name, in the order they were added. A hash
+// table of ints over an array of the symbols, so that lookups neither box
+// nor compare Strings. Ids are small and dense, so they are their own hash.
+final class SymbolMap {
+    private Symbol[] symbols;
+    private int size = 0;
+    // Index in symbols plus one of each slot, or 0 for a free slot.
+    private int[] slots;
+
+    SymbolMap() {
+        symbols = new Symbol[4];
+        slots = new int[8];
+    }
+
+    SymbolMap(SymbolMap other) {
+        symbols = other.symbols.clone();
+        size = other.size;
+        slots = other.slots.clone();
+    }
+
+    Symbol get(int id) {
+        int mask = slots.length - 1;
+        for (int slot = id & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            var symbol = symbols[slots[slot] - 1];
+            if (symbol.getId() == id)
+                return symbol;
+        }
+        return null;
+    }
+
+    boolean containsKey(int id) {
+        return get(id) != null;
+    }
+
+    // Adds the given symbol, unless one of the same name is there already.
+    boolean add(Symbol symbol) {
+        if (containsKey(symbol.getId()))
+            return false;
+
+        if (size == symbols.length) {
+            symbols = Arrays.copyOf(symbols, size * 2);
+            slots = new int[symbols.length * 2];
+            for (int i = 0; i < size; i++)
+                insert(symbols[i].getId(), i);
+        }
+        symbols[size] = symbol;
+        insert(symbol.getId(), size++);
+        return true;
+    }
+
+    int size() {
+        return size;
+    }
+
+    List<Symbol> values() {
+        return Collections.unmodifiableList(Arrays.asList(symbols).subList(0, size));
+    }
+
+    private void insert(int id, int index) {
+        int mask = slots.length - 1;
+        int slot = id & mask;
+        while (slots[slot] != 0)
+            slot = (slot + 1) & mask;
+        slots[slot] = index + 1;
+    }
+}
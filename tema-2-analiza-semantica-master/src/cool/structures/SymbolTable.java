@@ -1,54 +1,58 @@
 package cool.structures;
 
 import java.io.File;
+import java.io.PrintStream;
+import java.util.*;
 
-import org.antlr.v4.runtime.*;
-import cool.parser.*;
-
-import cool.compiler.Compiler;
-
+// Global scope and semantic error state of one compilation.
 public class SymbolTable {
-    public static Scope globals;
+    // The basic classes, built once and frozen, so that all compilations,
+    // concurrent ones included, share them. Each global scope starts out
+    // as a copy-on-write view of them.
+    private static final SymbolMap PRELUDE = defineBasicClasses();
+
+    public final Scope globals = new DefaultScope(null, PRELUDE);
     
-    private static boolean semanticErrors;
+    // Where semantic error messages go.
+    private final PrintStream err;
     
-    public static void defineBasicClasses() {
-        globals = new DefaultScope(null);
-        semanticErrors = false;
-        
-        // TODO Populate global scope.
-        // Classes
-        ClassSymbol objectClass = new ClassSymbol("Object", null);
-        ClassSymbol ioClass = new ClassSymbol("IO", "Object");
-        ClassSymbol intClass = new ClassSymbol("Int", "Object");
-        ClassSymbol stringClass = new ClassSymbol("String", "Object");
-        ClassSymbol boolClass = new ClassSymbol("Bool", "Object");
+    private boolean semanticErrors = false;
+    
+    public SymbolTable(PrintStream err) {
+        this.err = err;
+    }
+    
+    private static SymbolMap defineBasicClasses() {
+        // Every name here is one of those all Names tables start with, so
+        // it has the same id in all compilations.
+        var names = new Names();
 
-        globals.add(objectClass);
-        globals.add(ioClass);
-        globals.add(intClass);
-        globals.add(stringClass);
-        globals.add(boolClass);
+        // Classes
+        ClassSymbol objectClass = new ClassSymbol(names, "Object", null);
+        ClassSymbol ioClass = new ClassSymbol(names, "IO", "Object");
+        ClassSymbol intClass = new ClassSymbol(names, "Int", "Object");
+        ClassSymbol stringClass = new ClassSymbol(names, "String", "Object");
+        ClassSymbol boolClass = new ClassSymbol(names, "Bool", "Object");
 
         // Methods
         // Object methods
-        var abortMethod = new MethodSymbol("abort", objectClass, "Object");
-        var typeNameMethod = new MethodSymbol("type_name", objectClass, "String");
-        var copyMethod = new MethodSymbol("copy", objectClass, "Object"); // TODO to chamge to SELF_TYPE
+        var abortMethod = new MethodSymbol(names, "abort", objectClass, "Object");
+        var typeNameMethod = new MethodSymbol(names, "type_name", objectClass, "String");
+        var copyMethod = new MethodSymbol(names, "copy", objectClass, "Object"); // TODO to chamge to SELF_TYPE
 
         objectClass.add(abortMethod);
         objectClass.add(typeNameMethod);
         objectClass.add(copyMethod);
 
         // IO methods
-        var outStringMethod = new MethodSymbol("out_string", ioClass, "IO");
-        var outIntMethod = new MethodSymbol("out_int", ioClass, "IO");
-        var inStringMethod = new MethodSymbol("in_string", ioClass, "String");
-        var inIntMethod = new MethodSymbol("in_int", ioClass, "Int");
+        var outStringMethod = new MethodSymbol(names, "out_string", ioClass, "IO");
+        var outIntMethod = new MethodSymbol(names, "out_int", ioClass, "IO");
+        var inStringMethod = new MethodSymbol(names, "in_string", ioClass, "String");
+        var inIntMethod = new MethodSymbol(names, "in_int", ioClass, "Int");
 
         // parameters in methods
-        outStringMethod.add(new IdSymbol("x", stringClass));
-        outIntMethod.add(new IdSymbol("x", stringClass));
+        outStringMethod.add(new IdSymbol(names, "x", stringClass));
+        outIntMethod.add(new IdSymbol(names, "x", stringClass));
 
         ioClass.add(outStringMethod);
         ioClass.add(outIntMethod);
@@ -56,52 +60,60 @@ public class SymbolTable {
         ioClass.add(inIntMethod);
 
         // String methods
-        var lengthMethod = new MethodSymbol("length", stringClass, "Int");
-        var concatMethod = new MethodSymbol("concat", stringClass, "String");
-        var substrMethod = new MethodSymbol("substr", stringClass, "String");
+        var lengthMethod = new MethodSymbol(names, "length", stringClass, "Int");
+        var concatMethod = new MethodSymbol(names, "concat", stringClass, "String");
+        var substrMethod = new MethodSymbol(names, "substr", stringClass, "String");
 
         // parameters in methods
-        concatMethod.add(new IdSymbol("s", stringClass));
-        substrMethod.add(new IdSymbol("i", intClass));
-        substrMethod.add(new IdSymbol("l", intClass));
+        concatMethod.add(new IdSymbol(names, "s", stringClass));
+        substrMethod.add(new IdSymbol(names, "i", intClass));
+        substrMethod.add(new IdSymbol(names, "l", intClass));
 
         stringClass.add(lengthMethod);
         stringClass.add(concatMethod);
         stringClass.add(substrMethod);
 
+        if (names.size() != Names.preludeSize())
+            throw new IllegalStateException("Prelude symbol named outside the prelude of Names");
+
+        // Never changed: global scopes copy it before adding to it.
+        var prelude = new SymbolMap();
+        for (var classSymbol : List.of(objectClass, ioClass, intClass, stringClass, boolClass)) {
+            classSymbol.freeze();
+            prelude.add(classSymbol);
+        }
+        return prelude;
     }
     
     /**
      * Displays a semantic error message.
      * 
-     * @param ctx Used to determine the enclosing class context of this error,
-     *            which knows the file name in which the class was defined.
-     * @param info Used for line and column information.
+     * @param fileName The file in which the enclosing class of this error
+     *                 was defined.
+     * @param line The line of the error.
+     * @param column The 0-based column of the error.
      * @param str The error message.
      */
-    public static void error(ParserRuleContext ctx, Token info, String str) {
-        while (! (ctx.getParent() instanceof CoolParser.ProgramContext))
-            ctx = ctx.getParent();
-        
-        String message = "\"" + new File(Compiler.fileNames.get(ctx)).getName()
-                + "\", line " + info.getLine()
-                + ":" + (info.getCharPositionInLine() + 1)
+    public void error(String fileName, int line, int column, String str) {
+        String message = "\"" + new File(fileName).getName()
+                + "\", line " + line
+                + ":" + (column + 1)
                 + ", Semantic error: " + str;
         
-        System.err.println(message);
+        err.println(message);
         
         semanticErrors = true;
     }
     
-    public static void error(String str) {
+    public void error(String str) {
         String message = "Semantic error: " + str;
         
-        System.err.println(message);
+        err.println(message);
         
         semanticErrors = true;
     }
     
-    public static boolean hasSemanticErrors() {
+    public boolean hasSemanticErrors() {
         return semanticErrors;
     }
 }
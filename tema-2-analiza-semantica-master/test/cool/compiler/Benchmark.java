@@ -0,0 +1,1057 @@
+package cool.compiler;
+
+import cool.lexer.*;
+import cool.parser.*;
+import cool.structures.Names;
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.atn.PredictionMode;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.CharBuffer;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Micro-benchmarks for the compiler front end, run on generated programs.
+// They live with Checks outside of src, which is all that is shipped, and
+// are compiled against the compiler's classes:
+//   javac -cp <classes>:antlr-4.13.0-complete.jar -d <classes> test/cool/compiler/*.java
+// Usage: java cool.compiler.Benchmark <suite> [classes]
+//    or: java cool.compiler.Benchmark comments [KB]
+public class Benchmark {
+    static final int WARMUP_ROUNDS = 5;
+    static final int MEASURED_ROUNDS = 10;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println("Usage: Benchmark <suite> [classes]");
+            return;
+        }
+
+        switch (args[0]) {
+            case "parse" -> benchmarkParse(size(args, 2000));
+            case "ast" -> benchmarkAst(size(args, 2000));
+            case "flat-ast" -> benchmarkFlatAst(size(args, 2000));
+            case "descent" -> benchmarkDescent(size(args, 2000));
+            case "cache" -> benchmarkCache(size(args, 2000));
+            case "split" -> benchmarkSplit(size(args, 2000));
+            case "lazy" -> benchmarkLazy(size(args, 2000));
+            case "lex" -> benchmarkLex(size(args, 2000));
+            case "chunked-lex" -> benchmarkChunkedLex(size(args, 2000));
+            case "scan" -> benchmarkScan(size(args, 2000));
+            case "comments" -> benchmarkComments(size(args, 1024));
+            case "incremental" -> benchmarkIncremental(size(args, 2000));
+            case "traversal" -> benchmarkTraversal(size(args, 2000));
+            case "switch" -> benchmarkSwitch(size(args, 2000));
+            case "passes" -> benchmarkPasses(size(args, 2000));
+            case "print" -> benchmarkPrint(size(args, 3100));
+            default -> System.err.println("Unknown suite " + args[0]);
+        }
+    }
+
+    static int size(String[] args, int defaultSize) {
+        return args.length > 1 ? Integer.parseInt(args[1]) : defaultSize;
+    }
+
+    // Full LL prediction against SLL prediction with LL fallback.
+    static void benchmarkParse(int classes) {
+        var source = Programs.generateProgram(classes, 42);
+        System.out.printf("parse: %d classes, %d KB%n", classes, source.length() / 1024);
+
+        var tokens = new CommonTokenStream(new CoolLexer(CharStreams.fromString(source)));
+        tokens.fill();
+
+        var options = new CompilerOptions();
+        for (var twoStage : new boolean[] { false, true }) {
+            options.twoStageParsing = twoStage;
+            var name = twoStage ? "SLL, then LL" : "LL";
+
+            // Cold run, with empty DFA caches.
+            new CoolParser(tokens).getInterpreter().clearDFA();
+            long cold = time(() -> parse(tokens, options));
+
+            var times = measure(() -> parse(tokens, options));
+            System.out.printf("  %-14s cold %6.1f ms, warm %6.1f ms%n", name, cold / 1e6, median(times) / 1e6);
+        }
+    }
+
+    static void parse(CommonTokenStream tokens, CompilerOptions options) {
+        tokens.seek(0);
+        var parser = new CoolParser(tokens);
+        parser.removeErrorListeners();
+        var errorListener = new Compiler.FileErrorListener("benchmark.cl");
+        if (options.twoStageParsing)
+            Compiler.parseTwoStage(parser, errorListener);
+        else
+            Compiler.parseFullLL(parser, errorListener);
+        if (!errorListener.errors.isEmpty())
+            throw new IllegalStateException(errorListener.errors.get(0));
+    }
+
+    // Parse tree plus ASTVisitorConstruction against building the AST during
+    // parsing. Also reports the heap still reachable from the AST, which in
+    // the first case includes the parse tree.
+    static void benchmarkAst(int classes) {
+        var source = Programs.generateProgram(classes, 42);
+        System.out.printf("ast: %d classes, %d KB%n", classes, source.length() / 1024);
+
+        var tokens = new CommonTokenStream(new CoolLexer(CharStreams.fromString(source)));
+        tokens.fill();
+
+        for (var direct : new boolean[] { false, true }) {
+            var name = direct ? "direct" : "parse tree";
+            var times = measure(() -> buildAst(tokens, direct, new Names()));
+
+            long before = usedHeap();
+            var ast = buildAst(tokens, direct, new Names());
+            long retained = usedHeap() - before;
+            System.out.printf("  %-14s warm %6.1f ms, retained %6.1f MB%n",
+                    name, median(times) / 1e6, retained / 1048576.0);
+            Objects.requireNonNull(ast);
+        }
+    }
+
+    static ASTNode buildAst(CommonTokenStream tokens, boolean direct, Names names) {
+        tokens.seek(0);
+        var parser = new CoolParser(tokens);
+        if (!direct)
+            return new ASTVisitorConstruction(0, names).visit(parser.program());
+
+        var astBuilder = new ASTListenerConstruction(parser, 0, names);
+        astBuilder.attach();
+        parser.program();
+        return astBuilder.getCompilationUnit();
+    }
+
+    // Heap retained by the object AST of a program against its FlatAST, per
+    // million AST nodes, names not counted as nodes. Also times flattening,
+    // rebuilding the object AST, and a walk over all nodes of each.
+    static void benchmarkFlatAst(int classes) {
+        var source = Programs.generateProgram(classes, 42);
+        System.out.printf("flat-ast: %d classes, %d KB%n", classes, source.length() / 1024);
+
+        var names = new Names();
+        long before = usedHeap();
+        var unit = Programs.parseUnit(source, names);
+        long objectBytes = usedHeap() - before;
+        var flat = FlatAST.of(unit);
+        unit = null;
+        long flatBytes = usedHeap() - before;
+
+        int nodes = nodeCount(flat);
+
+        var rebuilt = flat.toCompilationUnit(names);
+        var flattenTimes = measure(() -> FlatAST.of(rebuilt));
+        var rebuildTimes = measure(() -> flat.toCompilationUnit(names));
+        var visitTimes = measure(() -> rebuilt.accept(new DepthVisitor()));
+        var cursorTimes = measure(() -> {
+            if (walk(flat) != flat.size())
+                throw new IllegalStateException("Cursor missed nodes");
+        });
+
+        double perMillion = 1e6 / nodes / 1048576.0;
+        System.out.printf("  %d nodes, %d flat entries with names%n", nodes, flat.size());
+        System.out.printf("  %-14s retained %6.1f MB per million nodes, walk %6.1f ms%n",
+                "objects", objectBytes * perMillion, median(visitTimes) / 1e6);
+        System.out.printf("  %-14s retained %6.1f MB per million nodes, walk %6.1f ms%n",
+                "flat", flatBytes * perMillion, median(cursorTimes) / 1e6);
+        System.out.printf("  flatten %6.1f ms, rebuild %6.1f ms%n",
+                median(flattenTimes) / 1e6, median(rebuildTimes) / 1e6);
+    }
+
+    // Number of AST nodes in a FlatAST, names and absent children not
+    // counted.
+    static int nodeCount(FlatAST flat) {
+        int nodes = 0;
+        for (int node = 0; node < flat.size(); node++)
+            if (flat.kind(node) != NodeKind.NAME && flat.kind(node) != NodeKind.NONE)
+                nodes++;
+        return nodes;
+    }
+
+    // Number of nodes a cursor goes through, in preorder.
+    static int walk(FlatAST flat) {
+        var cursor = flat.cursor();
+        int nodes = 1;
+        while (true) {
+            if (cursor.gotoFirstChild()) {
+                nodes++;
+                continue;
+            }
+            while (!cursor.gotoNextSibling())
+                if (!cursor.gotoParent())
+                    return nodes;
+            nodes++;
+        }
+    }
+
+    // CoolParser, with SLL prediction and the AST built during parsing,
+    // against CoolDescent, from the same tokens to the same AST.
+    static void benchmarkDescent(int classes) {
+        var source = Programs.generateProgram(classes, 42);
+        System.out.printf("descent: %d classes, %d KB%n", classes, source.length() / 1024);
+
+        var tokens = new CommonTokenStream(new CoolLexer(CharStreams.fromString(source)));
+        tokens.fill();
+
+        var parserTimes = measure(() -> {
+            tokens.seek(0);
+            var parser = new CoolParser(tokens);
+            parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+            var astBuilder = new ASTListenerConstruction(parser, 0, new Names());
+            astBuilder.attach();
+            parser.program();
+            Objects.requireNonNull(astBuilder.getCompilationUnit());
+        });
+        System.out.printf("  %-14s warm %6.1f ms%n", "CoolParser", median(parserTimes) / 1e6);
+
+        var descentTimes = measure(() -> {
+            tokens.seek(0);
+            Objects.requireNonNull(new CoolDescent(tokens, 0, new Names()).parse());
+        });
+        System.out.printf("  %-14s warm %6.1f ms%n", "CoolDescent", median(descentTimes) / 1e6);
+    }
+
+    // CoolDescent parsing every method body, and only matching the braces
+    // around them, as for outlines. Parsing all lazy bodies afterwards shows
+    // what skipping them saves.
+    static void benchmarkLazy(int classes) {
+        var source = Programs.generateProgram(classes, 42);
+        System.out.printf("lazy: %d classes, %d KB%n", classes, source.length() / 1024);
+
+        var tokens = new CommonTokenStream(new CoolLexer(CharStreams.fromString(source)));
+        tokens.fill();
+
+        var eagerTimes = measure(() -> {
+            tokens.seek(0);
+            Objects.requireNonNull(new CoolDescent(tokens, 0, new Names()).parse());
+        });
+        var lazyTimes = measure(() -> {
+            tokens.seek(0);
+            Objects.requireNonNull(new CoolDescent(tokens, 0, new Names(), true).parse());
+        });
+        var forcedTimes = measure(() -> {
+            tokens.seek(0);
+            var unit = new CoolDescent(tokens, 0, new Names(), true).parse();
+            for (var classNode : unit.classes)
+                for (var feature : classNode.features)
+                    if (feature instanceof Method method)
+                        Objects.requireNonNull(method.body());
+        });
+
+        double eager = median(eagerTimes);
+        double lazy = median(lazyTimes);
+        System.out.printf("  %-14s warm %6.1f ms%n", "eager", eager / 1e6);
+        System.out.printf("  %-14s warm %6.1f ms, saves %.0f%%%n", "lazy", lazy / 1e6, 100.0 * (eager - lazy) / eager);
+        System.out.printf("  %-14s warm %6.1f ms%n", "lazy, forced", median(forcedTimes) / 1e6);
+    }
+
+    // Compiler.parseFile without an AST cache, with an empty one, which it
+    // fills, and with a warm one, which saves all of the lexing and parsing
+    // but still reads and hashes the file.
+    static void benchmarkCache(int classes) throws IOException {
+        var source = Programs.generateProgram(classes, 42);
+        System.out.printf("cache: %d classes, %d KB%n", classes, source.length() / 1024);
+
+        var file = Files.createTempFile("benchmark", ".cl");
+        var directory = Files.createTempDirectory("benchmark");
+        try {
+            Files.writeString(file, source);
+            var fileName = file.toString();
+
+            var options = new CompilerOptions();
+            var parseTimes = measure(() -> parseFile(fileName, options));
+
+            options.astCacheDirectory = directory.toString();
+            long cold = time(() -> parseFile(fileName, options));
+            long entrySize;
+            try (var entries = Files.list(directory)) {
+                entrySize = entries.mapToLong(entry -> entry.toFile().length()).sum();
+            }
+            var warmTimes = measure(() -> parseFile(fileName, options));
+
+            double parse = median(parseTimes);
+            double warm = median(warmTimes);
+            System.out.printf("  %-14s warm %6.1f ms%n", "no cache", parse / 1e6);
+            System.out.printf("  %-14s      %6.1f ms, entry of %d KB%n", "cache miss", cold / 1e6, entrySize / 1024);
+            System.out.printf("  %-14s warm %6.1f ms, saves %.1f ms (%.0f%%)%n",
+                    "cache hit", warm / 1e6, (parse - warm) / 1e6, 100.0 * (parse - warm) / parse);
+        } finally {
+            Files.delete(file);
+            try (var entries = Files.list(directory)) {
+                for (var entry : entries.toList())
+                    Files.delete(entry);
+            }
+            Files.delete(directory);
+        }
+    }
+
+    // Compiler.parseFile on one large file, parsed as a whole and split into
+    // chunks of classes, one task each. The speedup is bounded by the number
+    // of processors, which is printed along.
+    static void benchmarkSplit(int classes) throws IOException {
+        var source = Programs.generateProgram(classes, 42);
+        int threads = Runtime.getRuntime().availableProcessors();
+        System.out.printf("split: %d classes, %d KB, %d processors%n", classes, source.length() / 1024, threads);
+
+        var file = Files.createTempFile("benchmark", ".cl");
+        try {
+            Files.writeString(file, source);
+            var fileName = file.toString();
+
+            var options = new CompilerOptions();
+            var wholeTimes = measure(() -> parseFile(fileName, options));
+            options.splitFiles = true;
+            var splitTimes = measure(() -> parseFile(fileName, options));
+
+            double whole = median(wholeTimes);
+            double split = median(splitTimes);
+            System.out.printf("  %-14s warm %6.1f ms%n", "whole file", whole / 1e6);
+            System.out.printf("  %-14s warm %6.1f ms, %.2fx%n", "split", split / 1e6, whole / split);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    static Compiler.ParsedFile parseFile(String fileName, CompilerOptions options) {
+        try {
+            var cache = options.astCacheDirectory == null ? null : new ASTCache(Paths.get(options.astCacheDirectory));
+            var parsedFile = Compiler.parseFile(fileName, 0, options, cache, new Names());
+            Objects.requireNonNull(parsedFile.ast());
+            return parsedFile;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static long usedHeap() {
+        var runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    // Reading and lexing a file through CharStreams against a memory-mapped
+    // one. Both streams share the lexer's call sites, so the lex times of
+    // the second one are somewhat pessimistic.
+    static void benchmarkLex(int classes) throws IOException {
+        var source = Programs.generateProgram(classes, 42);
+        System.out.printf("lex: %d classes, %d KB%n", classes, source.length() / 1024);
+
+        var file = Files.createTempFile("benchmark", ".cl");
+        try {
+            Files.writeString(file, source);
+            var fileName = file.toString();
+
+            for (var mapped : new boolean[] { false, true }) {
+                var name = mapped ? "mapped" : "CharStreams";
+                var openTimes = measure(() -> open(fileName, mapped));
+                long allocated = allocatedBytes(() -> open(fileName, mapped));
+                var lexTimes = measure(() -> lex(open(fileName, mapped)));
+                System.out.printf("  %-14s open %6.1f ms, %6.1f MB allocated, lex %6.1f ms%n",
+                        name, median(openTimes) / 1e6, allocated / 1048576.0, median(lexTimes) / 1e6);
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    static CharStream open(String fileName, boolean mapped) {
+        try {
+            return mapped
+                    ? MappedCharStream.fromFileName(fileName)
+                    : CharStreams.fromFileName(fileName);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static void lex(CharStream input) {
+        var tokens = new CommonTokenStream(new CoolLexer(input));
+        tokens.fill();
+    }
+
+    // One CoolLexer against ChunkedLexing, on the same input. The speedup is
+    // bounded by the number of processors, which is printed along.
+    static void benchmarkChunkedLex(int classes) throws IOException {
+        var source = Programs.generateProgram(classes, 42);
+        int threads = Runtime.getRuntime().availableProcessors();
+        System.out.printf("chunked-lex: %d classes, %d KB, %d processors%n",
+                classes, source.length() / 1024, threads);
+
+        var input = CharStreams.fromString(source);
+        var builder = CodePointBuffer.builder(source.length());
+        builder.append(CharBuffer.wrap(source.toCharArray()));
+        var codePoints = builder.build();
+        var lexTimes = measure(() -> {
+            input.seek(0);
+            lex(input);
+        });
+        var chunkedTimes = measure(() -> {
+            try {
+                var tokens = new CommonTokenStream(ChunkedLexing.lex(codePoints, "chunked", new ConcurrentHashMap<>()));
+                tokens.fill();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+
+        double lex = median(lexTimes);
+        double chunked = median(chunkedTimes);
+        System.out.printf("  %-14s warm %6.1f ms%n", "CoolLexer", lex / 1e6);
+        System.out.printf("  %-14s warm %6.1f ms, %.2fx%n", "chunked", chunked / 1e6, lex / chunked);
+    }
+
+    // CoolLexer against the hand-written CoolScanner, on the same input.
+    static void benchmarkScan(int classes) {
+        var source = Programs.generateProgram(classes, 42);
+        var input = CharStreams.fromString(source);
+        int count = scan(new CoolLexer(input));
+        System.out.printf("scan: %d classes, %d KB, %d tokens%n", classes, source.length() / 1024, count);
+
+        for (var hand : new boolean[] { false, true }) {
+            var name = hand ? "CoolScanner" : "CoolLexer";
+            var times = measure(() -> {
+                input.seek(0);
+                scan(hand ? new CoolScanner(input) : new CoolLexer(input));
+            });
+            double seconds = median(times) / 1e9;
+            System.out.printf("  %-14s %6.1f ms, %6.1f MB/s, %6.2f M tokens/s%n",
+                    name, seconds * 1e3, source.length() / seconds / 1048576.0, count / seconds / 1e6);
+        }
+    }
+
+    // Counts the tokens, reading the text of each like the parser would.
+    static int scan(TokenSource lexer) {
+        int count = 0;
+        for (var token = lexer.nextToken(); token.getType() != Token.EOF; token = lexer.nextToken()) {
+            Objects.requireNonNull(token.getText());
+            count++;
+        }
+        return count;
+    }
+
+    // Block comments of the given size: one long comment, comments nested
+    // as deep as they can be, and the same left unclosed. Lexing must take
+    // linear time and constant stack, and still report the unclosed one.
+    static void benchmarkComments(int kilobytes) {
+        int length = kilobytes * 1024;
+        int depth = length / 4;
+        var inputs = new LinkedHashMap<String, String>();
+        inputs.put("long", "(*" + "text (with) * stars\n".repeat(length / 20) + "*) x");
+        inputs.put("nested", "(*".repeat(depth) + "*)".repeat(depth) + " x");
+        inputs.put("unclosed", "x " + "(*".repeat(depth) + "*)".repeat(depth - 1));
+        System.out.printf("comments: %d KB, nested %d deep%n", kilobytes, depth);
+
+        for (var entry : inputs.entrySet()) {
+            var input = CharStreams.fromString(entry.getValue());
+            var times = measure(() -> {
+                input.seek(0);
+                scan(new CoolLexer(input));
+            });
+
+            input.seek(0);
+            var tokens = new ArrayList<String>();
+            var lexer = new CoolLexer(input);
+            for (var token = lexer.nextToken(); token.getType() != Token.EOF; token = lexer.nextToken())
+                tokens.add(Programs.describe(token));
+            System.out.printf("  %-14s %6.1f ms, %s%n", entry.getKey(), median(times) / 1e6, tokens);
+        }
+    }
+
+    // Lexing the whole input against updating IncrementalTokens after an
+    // edit: typing and deleting a character near the middle, then opening
+    // and closing a string, whose effect reaches to the end of the line.
+    static void benchmarkIncremental(int classes) {
+        var source = Programs.generateProgram(classes, 42);
+        var tokens = new IncrementalTokens(source);
+        System.out.printf("incremental: %d classes, %d KB, %d tokens%n",
+                classes, source.length() / 1024, tokens.size());
+
+        var full = measure(() -> scan(new CoolLexer(CharStreams.fromString(source))));
+        System.out.printf("  %-14s %9.3f ms%n", "full lex", median(full) / 1e6);
+
+        int middle = source.indexOf("a <- a", source.length() / 2);
+        var edits = new LinkedHashMap<String, Runnable>();
+        edits.put("type a char", () -> {
+            tokens.edit(middle, 0, "b");
+            tokens.edit(middle, 1, "");
+        });
+        edits.put("open a string", () -> {
+            tokens.edit(middle, 0, "\"");
+            tokens.edit(middle, 1, "");
+        });
+
+        for (var entry : edits.entrySet()) {
+            var times = measure(entry.getValue());
+            System.out.printf("  %-14s %9.3f ms per edit%n", entry.getKey(), median(times) / 2e6);
+        }
+    }
+
+    // Depth of a normal program by recursion through accept, against
+    // ASTWalk, which keeps the path in frames on the heap. Then building
+    // the AST, the semantic passes and printing on an operator chain too
+    // deep for recursion.
+    static void benchmarkTraversal(int classes) {
+        var source = Programs.generateProgram(classes, 42);
+        var tokens = new CommonTokenStream(new CoolLexer(CharStreams.fromString(source)));
+        tokens.fill();
+        var ast = buildAst(tokens, true, new Names());
+        System.out.printf("traversal: %d classes, %d KB%n", classes, source.length() / 1024);
+
+        var visitor = new DepthVisitor();
+        var walk = new DepthWalk();
+        var recursiveTimes = measure(() -> visitor.depth(ast));
+        var walkTimes = measure(() -> walk.walk(ast));
+        if (visitor.depth(ast) != walk.walk(ast))
+            throw new IllegalStateException("Walk found another depth");
+        System.out.printf("  %-14s %6.1f ms, depth %d%n", "recursive", median(recursiveTimes) / 1e6, visitor.depth(ast));
+        System.out.printf("  %-14s %6.1f ms%n", "ASTWalk", median(walkTimes) / 1e6);
+
+        int operands = 200_000;
+        var chain = "class Main inherits IO {\n    x : Int <- 1" + " + 1".repeat(operands - 1) + ";\n};\n";
+        var chainTokens = new CommonTokenStream(new CoolLexer(CharStreams.fromString(chain)));
+        chainTokens.fill();
+
+        var discard = new PrintStream(OutputStream.nullOutputStream());
+        var context = new CompilationContext(discard, discard);
+        context.fileNames.add("chain.cl");
+
+        long start = System.nanoTime();
+        var deep = new Program(List.of((CompilationUnit) buildAst(chainTokens, false, context.names)));
+        long built = System.nanoTime();
+
+        new DefinitionPassVisitor(context).walk(deep);
+        new ResolutionPassVisitor(context).walk(deep);
+        long checked = System.nanoTime();
+
+        System.out.printf("  %-14s depth %d, AST from parse tree %6.1f ms, passes %6.1f ms%n",
+                operands + " operands", new DepthWalk().walk(deep),
+                (built - start) / 1e6, (checked - built) / 1e6);
+
+        // Printed lines are as long as the chain is deep, so a shorter one.
+        int printedOperands = 20_000;
+        var printed = "class Main inherits IO {\n    x : Int <- 1" + " + 1".repeat(printedOperands - 1) + ";\n};\n";
+        var printedTokens = new CommonTokenStream(new CoolLexer(CharStreams.fromString(printed)));
+        printedTokens.fill();
+        var printedAst = new Program(List.of((CompilationUnit) buildAst(printedTokens, false, new Names())));
+        long printTime = time(() -> new ASTPrintVisitor(discard).walk(printedAst));
+        System.out.printf("  %-14s print %6.1f ms%n", printedOperands + " operands", printTime / 1e6);
+    }
+
+    // The definition and resolution passes, each time with a new context,
+    // as for every compilation. The AST is parsed again with the names of
+    // each context, outside of the time measured.
+    static void benchmarkPasses(int classes) {
+        var source = Programs.generateProgram(classes, 42);
+        System.out.printf("passes: %d classes, %d KB%n", classes, source.length() / 1024);
+
+        var discard = new PrintStream(OutputStream.nullOutputStream());
+        var times = new long[MEASURED_ROUNDS];
+        for (int i = -WARMUP_ROUNDS; i < MEASURED_ROUNDS; i++) {
+            var context = new CompilationContext(discard, discard);
+            context.fileNames.add("generated.cl");
+            var checked = new Program(List.of(Programs.parseUnit(source, context.names)));
+            long time = time(() -> {
+                new DefinitionPassVisitor(context).walk(checked);
+                new ResolutionPassVisitor(context).walk(checked);
+            });
+            if (i >= 0)
+                times[i] = time;
+        }
+        System.out.printf("  %-14s warm %6.1f ms, %d nodes%n", "passes", median(times) / 1e6,
+                nodeCount(FlatAST.of(Programs.parseUnit(source, new Names()))));
+    }
+
+    // Printing the AST of a generated program, by default of about a million
+    // nodes, to a file, line by line as before and through the buffer of
+    // ASTPrintVisitor. Both print to a stream set up like System.out, and
+    // must print the same bytes.
+    static void benchmarkPrint(int classes) throws IOException {
+        var source = Programs.generateProgram(classes, 42);
+        var unit = Programs.parseUnit(source, new Names());
+        var program = new Program(List.of(unit));
+        System.out.printf("print: %d classes, %d nodes%n", classes, nodeCount(FlatAST.of(unit)));
+
+        var files = new Path[2];
+        for (int way = 0; way < 2; way++) {
+            boolean buffered = way == 1;
+            var file = Files.createTempFile("cool-print", ".txt");
+            file.toFile().deleteOnExit();
+            files[way] = file;
+
+            var times = measure(() -> {
+                try (var out = new PrintStream(new BufferedOutputStream(Files.newOutputStream(file), 128), true)) {
+                    (buffered ? new ASTPrintVisitor(out) : new LinePrinter(out)).walk(program);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            System.out.printf("  %-14s warm %7.1f ms, %d KB%n", buffered ? "buffered" : "line by line",
+                    median(times) / 1e6, Files.size(file) / 1024);
+        }
+
+        if (Files.mismatch(files[0], files[1]) != -1)
+            throw new IllegalStateException("Buffered printer output differs");
+    }
+
+    // ASTPrintVisitor as it printed before it had a buffer.
+    static final class LinePrinter extends ASTPrintVisitor {
+        final PrintStream out;
+
+        LinePrinter(PrintStream out) {
+            super(out);
+            this.out = out;
+        }
+
+        @Override
+        void printIndentation(String str) {
+            for (int i = 0; i < indent; i++)
+                out.print("  ");
+            out.println(str);
+        }
+    }
+
+    // A pass typing every expression, like ResolutionPassVisitor, as a
+    // visitor recursing through accept and as an ASTWalk, which reaches its
+    // resume methods by a switch on NodeKind. Other passes of both sorts run
+    // over the tree first, so that the calls in accept and in the switch of
+    // ASTWalk have seen several passes, as they do in the compiler.
+    static void benchmarkSwitch(int classes) {
+        var source = Programs.generateProgram(classes, 42);
+        System.out.printf("switch: %d classes, %d KB%n", classes, source.length() / 1024);
+
+        var unit = Programs.parseUnit(source, new Names());
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            unit.accept(new DepthVisitor());
+            new DepthWalk().walk(unit);
+            FlatAST.of(unit);
+        }
+        if (!new TypingVisitor().type(unit).equals(new TypingWalk().walk(unit)))
+            throw new IllegalStateException("TypingWalk differs from TypingVisitor");
+
+        // Both ways are measured in turns, and only the last turn is kept,
+        // as the JIT takes longer than the usual warm-up to settle on both.
+        var times = new double[2];
+        for (int turn = 0; turn < 4; turn++) {
+            times[0] = median(measure(() -> Objects.requireNonNull(new TypingVisitor().type(unit))));
+            times[1] = median(measure(() -> Objects.requireNonNull(new TypingWalk().walk(unit))));
+        }
+        System.out.printf("  %-14s warm %6.1f ms%n", "accept", times[0] / 1e6);
+        System.out.printf("  %-14s warm %6.1f ms%n", "ASTWalk", times[1] / 1e6);
+    }
+
+    // Types of expressions from the types of their subexpressions and the
+    // declared types of names, without scopes.
+    static final class TypingVisitor implements ASTVisitor<String> {
+        final Map<String, String> types = new HashMap<>();
+
+        String type(ASTNode node) {
+            if (node == null)
+                return null;
+            return node.accept(this);
+        }
+
+        String last(List<? extends ASTNode> nodes) {
+            String type = "Object";
+            for (var node : nodes)
+                type = type(node);
+            return type;
+        }
+
+        String declare(Id id, Name type, Expression init) {
+            type(init);
+            types.put(id.getText(), type.getText());
+            return type.getText();
+        }
+
+        public String visit(Id id) { return types.getOrDefault(id.getText(), "Object"); }
+        public String visit(Int integer) { return "Int"; }
+        public String visit(Str str) { return "String"; }
+        public String visit(Bool bool) { return "Bool"; }
+        public String visit(Formal formal) { return declare(formal.id, formal.type, null); }
+        public String visit(Feature feature) { return null; }
+        public String visit(Class classs) { last(classs.features); return classs.type.getText(); }
+        public String visit(Program program) { return last(program.units); }
+        public String visit(CompilationUnit unit) { return last(unit.classes); }
+        public String visit(Local local) { return declare(local.id, local.type, local.init); }
+        public String visit(Method method) { last(method.formals); return type(method.body()); }
+        public String visit(Attr attr) { return declare(attr.id, attr.type, attr.init); }
+        public String visit(Block block) { return last(block.expressions); }
+        public String visit(If ifExpr) {
+            type(ifExpr.cond);
+            var thenType = type(ifExpr.thenBranch);
+            return thenType.equals(type(ifExpr.elseBranch)) ? thenType : "Object";
+        }
+        public String visit(While whileExpr) { type(whileExpr.cond); type(whileExpr.body); return "Object"; }
+        public String visit(Let letExpr) { last(letExpr.localVars); return type(letExpr.body); }
+        public String visit(Case caseExpr) { type(caseExpr.expr); return last(caseExpr.branches); }
+        public String visit(CaseBranch branch) {
+            types.put(branch.name.getText(), branch.type.getText());
+            return type(branch.expr);
+        }
+        public String visit(Assign assign) { return type(assign.expr); }
+        public String visit(Dispatch dispatch) { last(dispatch.args); return "Object"; }
+        public String visit(StaticDispatch staticDispatch) {
+            type(staticDispatch.caller);
+            last(staticDispatch.args);
+            return "Object";
+        }
+        public String visit(BinaryOp op) {
+            type(op.left);
+            type(op.right);
+            return op.op.equals("<") || op.op.equals("<=") || op.op.equals("=") ? "Bool" : "Int";
+        }
+        public String visit(Not notExpr) { type(notExpr.expr); return "Bool"; }
+        public String visit(IsVoid isVoidExpr) { type(isVoidExpr.expr); return "Bool"; }
+        public String visit(New newExpr) { return newExpr.type.getText(); }
+        public String visit(Paren paren) { return type(paren.expr); }
+        public String visit(Neg negExpr) { type(negExpr.expr); return "Int"; }
+    }
+
+    // The types TypingVisitor finds, with an ASTWalk. The type of the last
+    // element of a list so far is kept as the value of the frame.
+    @SuppressWarnings("fallthrough")
+    static final class TypingWalk extends ASTWalk<String> {
+        final Map<String, String> types = new HashMap<>();
+
+        // Visits the nodes of the given list, and returns false once all of
+        // them have been, with the type of the last one, or Object for none,
+        // as the value of the frame.
+        boolean last(Frame<String> frame, List<? extends ASTNode> nodes) {
+            frame.value = frame.value == null ? "Object" : frame.child;
+            return frame.visitNext(nodes);
+        }
+
+        // Visits the given child, then finishes with the given type, or the
+        // type of the child if that is null.
+        void then(Frame<String> frame, ASTNode child, String type) {
+            if (frame.phase == 0) {
+                frame.phase = 1;
+                frame.visit(child);
+                return;
+            }
+            frame.finish(type != null ? type : frame.child);
+        }
+
+        // Types the given initializer, if any, then declares the name.
+        void declare(Frame<String> frame, Id id, Name type, Expression init) {
+            if (frame.phase == 0) {
+                frame.phase = 1;
+                frame.visit(init);
+                return;
+            }
+            types.put(id.getText(), type.getText());
+            frame.finish(type.getText());
+        }
+
+        void resume(Frame<String> frame, Id id) { frame.finish(types.getOrDefault(id.getText(), "Object")); }
+        void resume(Frame<String> frame, Int integer) { frame.finish("Int"); }
+        void resume(Frame<String> frame, Str str) { frame.finish("String"); }
+        void resume(Frame<String> frame, Bool bool) { frame.finish("Bool"); }
+        void resume(Frame<String> frame, Formal formal) { declare(frame, formal.id, formal.type, null); }
+        void resume(Frame<String> frame, Class classs) {
+            if (!last(frame, classs.features))
+                frame.finish(classs.type.getText());
+        }
+        void resume(Frame<String> frame, Program program) {
+            if (!last(frame, program.units))
+                frame.finish(frame.value);
+        }
+        void resume(Frame<String> frame, CompilationUnit unit) {
+            if (!last(frame, unit.classes))
+                frame.finish(frame.value);
+        }
+        void resume(Frame<String> frame, Local local) { declare(frame, local.id, local.type, local.init); }
+        void resume(Frame<String> frame, Method method) {
+            switch (frame.phase) {
+                case 0:
+                    if (last(frame, method.formals))
+                        return;
+                    frame.phase = 1;
+                    frame.visit(method.body());
+                    return;
+                case 1:
+                    frame.finish(frame.child);
+            }
+        }
+        void resume(Frame<String> frame, Attr attr) { declare(frame, attr.id, attr.type, attr.init); }
+        void resume(Frame<String> frame, Block block) {
+            if (!last(frame, block.expressions))
+                frame.finish(frame.value);
+        }
+        void resume(Frame<String> frame, If ifExpr) {
+            switch (frame.phase) {
+                case 0:
+                    frame.phase = 1;
+                    frame.visit(ifExpr.cond);
+                    return;
+                case 1:
+                    frame.phase = 2;
+                    frame.visit(ifExpr.thenBranch);
+                    return;
+                case 2:
+                    frame.value = frame.child;
+                    frame.phase = 3;
+                    frame.visit(ifExpr.elseBranch);
+                    return;
+                case 3:
+                    frame.finish(frame.value.equals(frame.child) ? frame.value : "Object");
+            }
+        }
+        void resume(Frame<String> frame, While whileExpr) {
+            switch (frame.phase) {
+                case 0:
+                    frame.phase = 1;
+                    frame.visit(whileExpr.cond);
+                    return;
+                case 1:
+                    frame.phase = 2;
+                    frame.visit(whileExpr.body);
+                    return;
+                case 2:
+                    frame.finish("Object");
+            }
+        }
+        void resume(Frame<String> frame, Let letExpr) {
+            switch (frame.phase) {
+                case 0:
+                    if (last(frame, letExpr.localVars))
+                        return;
+                    frame.phase = 1;
+                    frame.visit(letExpr.body);
+                    return;
+                case 1:
+                    frame.finish(frame.child);
+            }
+        }
+        void resume(Frame<String> frame, Case caseExpr) {
+            switch (frame.phase) {
+                case 0:
+                    frame.phase = 1;
+                    frame.visit(caseExpr.expr);
+                    return;
+                case 1:
+                    if (!last(frame, caseExpr.branches))
+                        frame.finish(frame.value);
+            }
+        }
+        void resume(Frame<String> frame, CaseBranch branch) {
+            if (frame.phase == 0)
+                types.put(branch.name.getText(), branch.type.getText());
+            then(frame, branch.expr, null);
+        }
+        void resume(Frame<String> frame, Assign assign) { then(frame, assign.expr, null); }
+        void resume(Frame<String> frame, Dispatch dispatch) {
+            if (!last(frame, dispatch.args))
+                frame.finish("Object");
+        }
+        void resume(Frame<String> frame, StaticDispatch staticDispatch) {
+            switch (frame.phase) {
+                case 0:
+                    frame.phase = 1;
+                    frame.visit(staticDispatch.caller);
+                    return;
+                case 1:
+                    if (!last(frame, staticDispatch.args))
+                        frame.finish("Object");
+            }
+        }
+        void resume(Frame<String> frame, BinaryOp op) {
+            switch (frame.phase) {
+                case 0:
+                    frame.phase = 1;
+                    frame.visit(op.left);
+                    return;
+                case 1:
+                    frame.phase = 2;
+                    frame.visit(op.right);
+                    return;
+                case 2:
+                    frame.finish(op.op.equals("<") || op.op.equals("<=") || op.op.equals("=") ? "Bool" : "Int");
+            }
+        }
+        void resume(Frame<String> frame, Not notExpr) { then(frame, notExpr.expr, "Bool"); }
+        void resume(Frame<String> frame, IsVoid isVoidExpr) { then(frame, isVoidExpr.expr, "Bool"); }
+        void resume(Frame<String> frame, New newExpr) { frame.finish(newExpr.type.getText()); }
+        void resume(Frame<String> frame, Paren paren) { then(frame, paren.expr, null); }
+        void resume(Frame<String> frame, Neg negExpr) { then(frame, negExpr.expr, "Int"); }
+    }
+
+    // Depth of a tree, by recursion.
+    static final class DepthVisitor implements ASTVisitor<Integer> {
+        int depth(ASTNode node) {
+            if (node == null)
+                return 0;
+            return node.accept(this);
+        }
+
+        int depth(List<? extends ASTNode> nodes) {
+            int max = 0;
+            for (var node : nodes)
+                max = Math.max(max, depth(node));
+            return max;
+        }
+
+        int depth(ASTNode... nodes) {
+            return depth(Arrays.asList(nodes));
+        }
+
+        public Integer visit(Id id) { return 1; }
+        public Integer visit(Int integer) { return 1; }
+        public Integer visit(Str str) { return 1; }
+        public Integer visit(Bool bool) { return 1; }
+        public Integer visit(Formal formal) { return 1 + depth(formal.id); }
+        public Integer visit(Feature feature) { return 1; }
+        public Integer visit(Class classs) { return 1 + depth(classs.features); }
+        public Integer visit(Program program) { return 1 + depth(program.units); }
+        public Integer visit(CompilationUnit unit) { return 1 + depth(unit.classes); }
+        public Integer visit(Local local) { return 1 + depth(local.id, local.init); }
+        public Integer visit(Method method) { return 1 + Math.max(depth(method.formals), depth(method.body())); }
+        public Integer visit(Attr attr) { return 1 + depth(attr.id, attr.init); }
+        public Integer visit(Block block) { return 1 + depth(block.expressions); }
+        public Integer visit(If ifExpr) { return 1 + depth(ifExpr.cond, ifExpr.thenBranch, ifExpr.elseBranch); }
+        public Integer visit(While whileExpr) { return 1 + depth(whileExpr.cond, whileExpr.body); }
+        public Integer visit(Let letExpr) { return 1 + Math.max(depth(letExpr.localVars), depth(letExpr.body)); }
+        public Integer visit(Case caseExpr) { return 1 + Math.max(depth(caseExpr.expr), depth(caseExpr.branches)); }
+        public Integer visit(CaseBranch branch) { return 1 + depth(branch.expr); }
+        public Integer visit(Assign assign) { return 1 + depth(assign.expr); }
+        public Integer visit(Dispatch dispatch) { return 1 + depth(dispatch.args); }
+        public Integer visit(StaticDispatch staticDispatch) {
+            return 1 + Math.max(depth(staticDispatch.caller), depth(staticDispatch.args));
+        }
+        public Integer visit(BinaryOp op) { return 1 + depth(op.left, op.right); }
+        public Integer visit(Not notExpr) { return 1 + depth(notExpr.expr); }
+        public Integer visit(IsVoid isVoidExpr) { return 1 + depth(isVoidExpr.expr); }
+        public Integer visit(New newExpr) { return 1; }
+        public Integer visit(Paren paren) { return 1 + depth(paren.expr); }
+        public Integer visit(Neg negExpr) { return 1 + depth(negExpr.expr); }
+    }
+
+    // Depth of a tree, as DepthVisitor finds it, with an ASTWalk. The depth
+    // of the deepest child so far is kept as the index of the frame, and the
+    // phase counts the children visited before the lists.
+    @SuppressWarnings("fallthrough")
+    static final class DepthWalk extends ASTWalk<Integer> {
+        Integer absent() {
+            return 0;
+        }
+
+        // Visits the given children, then the nodes of the given list, if
+        // any, and finishes with one more than the deepest of them.
+        void depth(Frame<Integer> frame, ASTNode first, ASTNode second, ASTNode third, List<? extends ASTNode> rest) {
+            if (frame.child != null)
+                frame.index = Math.max(frame.index, frame.child);
+            switch (frame.phase) {
+                case 0:
+                    frame.phase = 1;
+                    if (first != null) {
+                        frame.visit(first);
+                        return;
+                    }
+                case 1:
+                    frame.phase = 2;
+                    if (second != null) {
+                        frame.visit(second);
+                        return;
+                    }
+                case 2:
+                    frame.phase = 3;
+                    if (third != null) {
+                        frame.visit(third);
+                        return;
+                    }
+                case 3:
+                    if (rest != null && frame.visitNext(rest))
+                        return;
+                    frame.finish(1 + frame.index);
+            }
+        }
+
+        void depth(Frame<Integer> frame, ASTNode first, ASTNode second, ASTNode third) {
+            depth(frame, first, second, third, null);
+        }
+
+        void depth(Frame<Integer> frame, ASTNode first, ASTNode second) {
+            depth(frame, first, second, null, null);
+        }
+
+        void depth(Frame<Integer> frame, ASTNode first) {
+            depth(frame, first, null, null, null);
+        }
+
+        void depth(Frame<Integer> frame, ASTNode first, List<? extends ASTNode> rest) {
+            depth(frame, first, null, null, rest);
+        }
+
+        void depth(Frame<Integer> frame, List<? extends ASTNode> nodes) {
+            depth(frame, null, null, null, nodes);
+        }
+
+        void resume(Frame<Integer> frame, Id id) { frame.finish(1); }
+        void resume(Frame<Integer> frame, Int integer) { frame.finish(1); }
+        void resume(Frame<Integer> frame, Str str) { frame.finish(1); }
+        void resume(Frame<Integer> frame, Bool bool) { frame.finish(1); }
+        void resume(Frame<Integer> frame, Formal formal) { depth(frame, formal.id); }
+        void resume(Frame<Integer> frame, Class classs) { depth(frame, classs.features); }
+        void resume(Frame<Integer> frame, Program program) { depth(frame, program.units); }
+        void resume(Frame<Integer> frame, CompilationUnit unit) { depth(frame, unit.classes); }
+        void resume(Frame<Integer> frame, Local local) { depth(frame, local.id, local.init); }
+        void resume(Frame<Integer> frame, Method method) { depth(frame, method.body(), method.formals); }
+        void resume(Frame<Integer> frame, Attr attr) { depth(frame, attr.id, attr.init); }
+        void resume(Frame<Integer> frame, Block block) { depth(frame, block.expressions); }
+        void resume(Frame<Integer> frame, If ifExpr) {
+            depth(frame, ifExpr.cond, ifExpr.thenBranch, ifExpr.elseBranch);
+        }
+        void resume(Frame<Integer> frame, While whileExpr) { depth(frame, whileExpr.cond, whileExpr.body); }
+        void resume(Frame<Integer> frame, Let letExpr) { depth(frame, letExpr.body, letExpr.localVars); }
+        void resume(Frame<Integer> frame, Case caseExpr) { depth(frame, caseExpr.expr, caseExpr.branches); }
+        void resume(Frame<Integer> frame, CaseBranch branch) { depth(frame, branch.expr); }
+        void resume(Frame<Integer> frame, Assign assign) { depth(frame, assign.expr); }
+        void resume(Frame<Integer> frame, Dispatch dispatch) { depth(frame, dispatch.args); }
+        void resume(Frame<Integer> frame, StaticDispatch staticDispatch) {
+            depth(frame, staticDispatch.caller, staticDispatch.args);
+        }
+        void resume(Frame<Integer> frame, BinaryOp op) { depth(frame, op.left, op.right); }
+        void resume(Frame<Integer> frame, Not notExpr) { depth(frame, notExpr.expr); }
+        void resume(Frame<Integer> frame, IsVoid isVoidExpr) { depth(frame, isVoidExpr.expr); }
+        void resume(Frame<Integer> frame, New newExpr) { frame.finish(1); }
+        void resume(Frame<Integer> frame, Paren paren) { depth(frame, paren.expr); }
+        void resume(Frame<Integer> frame, Neg negExpr) { depth(frame, negExpr.expr); }
+    }
+
+    // Bytes allocated by the current thread while running the task.
+    static long allocatedBytes(Runnable task) {
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long before = threads.getCurrentThreadAllocatedBytes();
+        task.run();
+        return threads.getCurrentThreadAllocatedBytes() - before;
+    }
+
+    static long[] measure(Runnable task) {
+        for (int i = 0; i < WARMUP_ROUNDS; i++)
+            task.run();
+
+        var times = new long[MEASURED_ROUNDS];
+        for (int i = 0; i < MEASURED_ROUNDS; i++)
+            times[i] = time(task);
+        return times;
+    }
+
+    static long time(Runnable task) {
+        long start = System.nanoTime();
+        task.run();
+        return System.nanoTime() - start;
+    }
+
+    static double median(long[] times) {
+        var sorted = times.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
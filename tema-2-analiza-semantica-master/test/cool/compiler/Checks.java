@@ -0,0 +1,425 @@
+package cool.compiler;
+
+import cool.lexer.*;
+import cool.parser.*;
+import cool.structures.Names;
+import org.antlr.v4.runtime.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Checks of the alternative lexers, parsers and AST forms of the compiler
+// against the standard ones, on the given files or on seeded random
+// programs, a mismatch count printed per suite.
+// Usage: java cool.compiler.Checks scan <file>...
+//    or: java cool.compiler.Checks <suite> [rounds]
+public class Checks {
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println("Usage: Checks <suite> [rounds]");
+            return;
+        }
+
+        switch (args[0]) {
+            case "scan" -> checkScanner(Arrays.copyOfRange(args, 1, args.length));
+            case "incremental" -> checkIncremental(rounds(args, 100));
+            case "descent" -> checkDescent(rounds(args, 2000));
+            case "cache" -> checkCache(rounds(args, 500));
+            case "split" -> checkSplit(rounds(args, 2000));
+            case "lazy" -> checkLazy(rounds(args, 2000));
+            case "chunked-lex" -> checkChunkedLex(rounds(args, 500));
+            case "flat-ast" -> checkFlatAst(rounds(args, 2000));
+            default -> System.err.println("Unknown suite " + args[0]);
+        }
+    }
+
+    static int rounds(String[] args, int defaultRounds) {
+        return args.length > 1 ? Integer.parseInt(args[1]) : defaultRounds;
+    }
+
+    // Checks that CoolScanner produces exactly the tokens of CoolLexer on
+    // the given files, then on mutations of them that cut strings, comments
+    // and numbers at random places.
+    static void checkScanner(String[] fileNames) throws IOException {
+        var random = new Random(42);
+        int mismatches = 0;
+
+        for (var fileName : fileNames) {
+            var source = CharStreams.fromFileName(fileName).toString();
+            mismatches += compareTokens(fileName, source);
+
+            for (int i = 0; i < 100 && !source.isEmpty(); i++) {
+                int start = random.nextInt(source.length());
+                int end = Math.min(source.length(), start + random.nextInt(64));
+                var mutated = source.substring(0, start) + source.substring(end);
+                mismatches += compareTokens(fileName + " (cut " + start + "-" + end + ")", mutated);
+            }
+        }
+
+        System.out.printf("scan-check: %d file(s), %d mismatch(es)%n", fileNames.length, mismatches);
+    }
+
+    static int compareTokens(String name, String source) {
+        var expected = new CoolLexer(CharStreams.fromString(source));
+        expected.removeErrorListeners();
+        var actual = new CoolScanner(CharStreams.fromString(source));
+
+        while (true) {
+            var e = expected.nextToken();
+            var a = actual.nextToken();
+            if (!Programs.describe(e).equals(Programs.describe(a))) {
+                System.out.printf("%s: expected %s, got %s%n", name, Programs.describe(e), Programs.describe(a));
+                return 1;
+            }
+            if (e.getType() == Token.EOF)
+                return 0;
+        }
+    }
+
+    // Random edits to IncrementalTokens, each checked against lexing the
+    // whole buffer again. The edits insert pieces that open and close
+    // strings and comments, and characters outside the BMP, which take two
+    // chars in a String but one code point in the lexer.
+    static void checkIncremental(int rounds) {
+        var random = new Random(42);
+        String[] pieces = { "(*", "*)", "\"", "\\", "\n", "\r\n", "\r", "a", "B", "1", ".", "+", "-", "<", "=",
+                " ", "x1 ", "class ", "true", "--", "\t", "(", "*", ")", "\\\n", "\0", "\uD83D\uDE00", "\u00E9",
+                "\"\uD83D\uDE00\"" };
+        int edits = 0;
+        int mismatches = 0;
+
+        for (int round = 0; round < rounds; round++) {
+            var text = round % 3 == 0 ? Programs.generateProgram(3, round) : "";
+            var tokens = new IncrementalTokens(text);
+            var codePoints = new ArrayList<Integer>();
+            text.codePoints().forEach(codePoints::add);
+
+            for (int i = 0; i < 200; i++) {
+                int offset = random.nextInt(codePoints.size() + 1);
+                int removed = Math.min(codePoints.size() - offset,
+                        random.nextInt(4) == 0 ? random.nextInt(20) : random.nextInt(3));
+                var inserted = new StringBuilder();
+                for (int j = random.nextInt(4); j > 0; j--)
+                    inserted.append(pieces[random.nextInt(pieces.length)]);
+
+                codePoints.subList(offset, offset + removed).clear();
+                codePoints.addAll(offset, inserted.codePoints().boxed().toList());
+                tokens.edit(offset, removed, inserted.toString());
+                edits++;
+
+                var expected = new StringBuilder();
+                codePoints.forEach(expected::appendCodePoint);
+                if (compareTokens("round " + round + ", edit " + i, expected.toString(), tokens) > 0) {
+                    mismatches++;
+                    break;
+                }
+            }
+        }
+
+        System.out.printf("incremental-check: %d edits, %d mismatch(es)%n", edits, mismatches);
+    }
+
+    static int compareTokens(String name, String text, IncrementalTokens tokens) {
+        if (!tokens.getText().equals(text)) {
+            System.out.printf("%s: text differs%n", name);
+            return 1;
+        }
+
+        var lexer = new CoolLexer(CharStreams.fromString(text));
+        lexer.removeErrorListeners();
+        for (int i = 0; i < tokens.size(); i++) {
+            var e = lexer.nextToken();
+            var a = tokens.get(i);
+            if (!Programs.describe(e).equals(Programs.describe(a))) {
+                System.out.printf("%s: token %d expected %s, got %s%n", name, i, Programs.describe(e), Programs.describe(a));
+                return 1;
+            }
+        }
+        return 0;
+    }
+
+    // CoolDescent against CoolParser and ASTVisitorConstruction, on random
+    // programs using every rule, a third of them with tokens dropped, added
+    // or replaced. Both must build the same AST, or both reject the input.
+    static void checkDescent(int rounds) {
+        var random = new Random(42);
+        int rejected = 0;
+        int mismatches = 0;
+
+        for (int round = 0; round < rounds; round++) {
+            var source = Programs.randomProgram(random);
+            if (random.nextInt(3) == 0)
+                source = Programs.mutate(source, random);
+
+            var reference = referenceAst(source, 0);
+            var expected = reference == null ? null : Programs.describe(reference);
+            if (expected == null)
+                rejected++;
+
+            var unit = new CoolDescent(new CommonTokenStream(new CoolLexer(CharStreams.fromString(source))), 0, new Names()).parse();
+            var actual = unit == null ? null : Programs.describe(unit);
+            if (!Objects.equals(expected, actual)) {
+                System.out.printf("round %d: expected %s%n  got %s%n  for %s%n", round, expected, actual, source);
+                mismatches++;
+            }
+        }
+
+        System.out.printf("descent-check: %d programs, %d rejected, %d mismatch(es)%n", rounds, rejected, mismatches);
+    }
+
+    // The AST of the given source as the compiler builds it by default, with
+    // CoolParser and ASTVisitorConstruction, or null if it has syntax errors.
+    static CompilationUnit referenceAst(String source, int fileId) {
+        var parser = new CoolParser(new CommonTokenStream(new CoolLexer(CharStreams.fromString(source))));
+        parser.removeErrorListeners();
+        var tree = parser.program();
+        if (parser.getNumberOfSyntaxErrors() > 0)
+            return null;
+        return (CompilationUnit) new ASTVisitorConstruction(fileId, new Names()).visit(tree);
+    }
+
+    // ASTs stored in an ASTCache and loaded back, against the ASTs they were
+    // stored from, for random programs and, every tenth round, a generated
+    // one with strings and deeper line numbers. A truncated copy of each
+    // entry must load as missing.
+    static void checkCache(int rounds) throws IOException {
+        var random = new Random(42);
+        var directory = Files.createTempDirectory("benchmark");
+        int mismatches = 0;
+
+        try {
+            var cache = new ASTCache(directory);
+            for (int round = 0; round < rounds; round++) {
+                var source = round % 10 == 0 ? Programs.generateProgram(1 + round / 10, round) : Programs.randomProgram(random);
+                int fileId = random.nextInt(4);
+                var unit = referenceAst(source, fileId);
+                if (unit == null)
+                    continue;
+
+                var key = ASTCache.key(source.getBytes(StandardCharsets.UTF_8));
+                cache.store(key, unit);
+                var loaded = cache.load(key, fileId, new Names());
+                if (loaded == null || !Programs.describe(unit).equals(Programs.describe(loaded))) {
+                    System.out.printf("round %d: loaded %s%n  for %s%n",
+                            round, loaded == null ? "nothing" : Programs.describe(loaded), source);
+                    mismatches++;
+                }
+
+                var entry = Files.readAllBytes(directory.resolve(key));
+                Files.write(directory.resolve("truncated"), Arrays.copyOf(entry, random.nextInt(entry.length)));
+                if (cache.load("truncated", fileId, new Names()) != null) {
+                    System.out.printf("round %d: a truncated entry loaded%n", round);
+                    mismatches++;
+                }
+            }
+        } finally {
+            try (var entries = Files.list(directory)) {
+                for (var entry : entries.toList())
+                    Files.delete(entry);
+            }
+            Files.delete(directory);
+        }
+
+        System.out.printf("cache-check: %d programs, %d mismatch(es)%n", rounds, mismatches);
+    }
+
+    // ClassSplit against parsing the whole file, on random programs with
+    // comments, strings and line endings between and inside classes that
+    // the pre-scan must see through, a quarter of them mutated. Chunks are
+    // as small as they can be, so every class starts one. The split parse
+    // may give up, but must not build another AST, or one for a file with
+    // syntax errors.
+    static void checkSplit(int rounds) throws IOException {
+        var random = new Random(42);
+        String[] trivia = { "", "\n", "\r\n", "\t", "-- class X {\n", "(* class Y { *)", "(* (* class *) } *)\n",
+                "(*\nclass\n*)", "\uD83D\uDE00" };
+        String[] strings = { "\"} class {\"", "\"a\\\\\"", "\"\\\"class\\\"\"", "\"x\\\nclass {\"",
+                "\"(* --\"", "\"\\\\\"", "\"\\\\\".concat(\"} class {\")" };
+        int rejected = 0;
+        int declined = 0;
+        int mismatches = 0;
+
+        for (int round = 0; round < rounds; round++) {
+            var program = new StringBuilder();
+            for (int c = random.nextInt(5); c >= 0; c--) {
+                program.append(trivia[random.nextInt(trivia.length)]).append(Programs.randomProgram(random));
+                if (random.nextBoolean()) {
+                    program.append("class S").append(c).append(" {").append(trivia[random.nextInt(trivia.length)])
+                            .append(" s : String <- ").append(strings[random.nextInt(strings.length)]).append("; };\n");
+                }
+            }
+            var source = random.nextInt(4) == 0 ? Programs.mutate(program.toString(), random) : program.toString();
+
+            int fileId = random.nextInt(4);
+            var reference = referenceAst(source, fileId);
+            var unit = ClassSplit.parse(source, fileId, new Names(), 1);
+            if (reference == null)
+                rejected++;
+            if (unit == null) {
+                declined += reference == null ? 0 : 1;
+            } else if (reference == null || !Programs.describe(reference).equals(Programs.describe(unit))) {
+                System.out.printf("round %d: expected %s%n  got %s%n  for %s%n",
+                        round, reference == null ? "syntax errors" : Programs.describe(reference), Programs.describe(unit), source);
+                mismatches++;
+            }
+        }
+
+        System.out.printf("split-check: %d programs, %d rejected, %d others not split, %d mismatch(es)%n",
+                rounds, rejected, declined, mismatches);
+    }
+
+    // CoolDescent with lazy bodies against CoolParser and
+    // ASTVisitorConstruction, on random programs, a third of them mutated.
+    // Bodies are parsed in a random order, as passes may ask for them, and
+    // then the AST must be the same. Input with syntax errors must fail
+    // either when the outline is parsed or when a body is.
+    static void checkLazy(int rounds) {
+        var random = new Random(42);
+        int rejected = 0;
+        int mismatches = 0;
+
+        for (int round = 0; round < rounds; round++) {
+            var source = Programs.randomProgram(random);
+            if (random.nextInt(3) == 0)
+                source = Programs.mutate(source, random);
+
+            var reference = referenceAst(source, 0);
+            var expected = reference == null ? null : Programs.describe(reference);
+            if (expected == null)
+                rejected++;
+
+            var tokens = new CommonTokenStream(new CoolLexer(CharStreams.fromString(source)));
+            var unit = new CoolDescent(tokens, 0, new Names(), true).parse();
+            String actual = null;
+            if (unit != null) {
+                var methods = new ArrayList<Method>();
+                for (var classs : unit.classes)
+                    for (var feature : classs.features)
+                        if (feature instanceof Method method)
+                            methods.add(method);
+                Collections.shuffle(methods, random);
+                try {
+                    for (var method : methods)
+                        method.body();
+                    actual = Programs.describe(unit);
+                } catch (IllegalStateException e) {
+                    // A syntax error in a body.
+                }
+            }
+
+            if (!Objects.equals(expected, actual)) {
+                System.out.printf("round %d: expected %s%n  got %s%n  for %s%n", round, expected, actual, source);
+                mismatches++;
+            }
+        }
+
+        System.out.printf("lazy-check: %d programs, %d rejected, %d mismatch(es)%n", rounds, rejected, mismatches);
+    }
+
+    // ASTs flattened into a FlatAST and rebuilt, against the ASTs they were
+    // flattened from, for random programs and, every tenth round, a
+    // generated one with strings and deeper line numbers. A cursor must also
+    // go through the entries in order, as they are numbered in preorder.
+    static void checkFlatAst(int rounds) {
+        var random = new Random(42);
+        int nodes = 0;
+        int mismatches = 0;
+
+        for (int round = 0; round < rounds; round++) {
+            var source = round % 10 == 0 ? Programs.generateProgram(5, round) : Programs.randomProgram(random);
+            var unit = referenceAst(source, random.nextInt(4));
+            if (unit == null)
+                continue;
+
+            var flat = FlatAST.of(unit);
+            nodes += flat.size();
+            var expected = Programs.describe(unit);
+            var actual = Programs.describe(flat.toCompilationUnit(new Names()));
+            if (!expected.equals(actual)) {
+                System.out.printf("round %d: expected %s%n  got %s%n  for %s%n", round, expected, actual, source);
+                mismatches++;
+                continue;
+            }
+
+            var cursor = flat.cursor();
+            int next = 0;
+            while (cursor.node() == next && ++next < flat.size() && advance(cursor));
+            if (next != flat.size() || advance(cursor)) {
+                System.out.printf("round %d: cursor at %d after %d of %d entries%n",
+                        round, cursor.node(), next, flat.size());
+                mismatches++;
+            }
+        }
+
+        System.out.printf("flat-ast-check: %d programs, %d entries, %d mismatch(es)%n", rounds, nodes, mismatches);
+    }
+
+    // Moves the cursor to the next entry in preorder, or returns false at
+    // the end.
+    static boolean advance(FlatAST.Cursor cursor) {
+        if (cursor.gotoFirstChild())
+            return true;
+        while (!cursor.gotoNextSibling())
+            if (!cursor.gotoParent())
+                return false;
+        return true;
+    }
+
+    // ChunkedLexing against a single CoolLexer, on random programs with
+    // comments and strings running over several lines, and characters
+    // outside the BMP, cut into chunks a few lines long so that most chunks
+    // start inside one of them. Every tenth program is large enough to be
+    // read from its file in several blocks. The tokens must be the same,
+    // and string constants must be interned in the table passed in.
+    static void checkChunkedLex(int rounds) throws IOException {
+        var random = new Random(42);
+        String[] pieces = { "\n", "\r\n", "(* class\n", "*)\n", "(* (*\n*) *)\n", "\"a\\\nb\\\n\"", "\"\\\n",
+                "-- (*\n", "\"\uD83D\uDE00\" ", "\u00E9", "\"s\" \"s\"\n", "\\\n" };
+        var file = Files.createTempFile("benchmark", ".cl");
+        int tokens = 0;
+        int mismatches = 0;
+
+        try {
+            for (int round = 0; round < rounds; round++) {
+                var source = new StringBuilder(round % 10 == 0 ? Programs.generateProgram(60, round) : "");
+                for (int i = random.nextInt(20); i >= 0; i--) {
+                    source.append(Programs.randomProgram(random));
+                    for (int j = random.nextInt(4); j > 0; j--)
+                        source.append(pieces[random.nextInt(pieces.length)]);
+                }
+                Files.writeString(file, source);
+
+                var expected = new CoolLexer(CharStreams.fromString(source.toString()));
+                expected.removeErrorListeners();
+                var table = new ConcurrentHashMap<String, String>();
+                var actual = ChunkedLexing.lex(ChunkedLexing.read(file), file.toString(), table,
+                        1 + random.nextInt(200));
+
+                for (int i = 0; ; i++) {
+                    var e = expected.nextToken();
+                    var a = actual.nextToken();
+                    if (!Programs.describe(e).equals(Programs.describe(a))) {
+                        System.out.printf("round %d: token %d expected %s, got %s%n", round, i, Programs.describe(e), Programs.describe(a));
+                        mismatches++;
+                        break;
+                    }
+                    if (a.getType() == CoolLexer.STRING && table.get(a.getText()) != a.getText()) {
+                        System.out.printf("round %d: token %d not interned, %s%n", round, i, Programs.describe(a));
+                        mismatches++;
+                        break;
+                    }
+                    tokens++;
+                    if (e.getType() == Token.EOF)
+                        break;
+                }
+            }
+        } finally {
+            Files.delete(file);
+        }
+
+        System.out.printf("chunked-lex-check: %d programs, %d tokens, %d mismatch(es)%n", rounds, tokens, mismatches);
+    }
+}
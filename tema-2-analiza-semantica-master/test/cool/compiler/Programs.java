@@ -0,0 +1,218 @@
+package cool.compiler;
+
+import cool.lexer.*;
+import cool.structures.Names;
+import org.antlr.v4.runtime.*;
+
+import java.util.*;
+
+// Random and generated Cool programs, and the means to parse and compare
+// them, for Benchmark and Checks.
+final class Programs {
+    private Programs() {}
+
+    // The AST of a program, with its tokens left to the garbage collector.
+    static CompilationUnit parseUnit(String source, Names names) {
+        var tokens = new CommonTokenStream(new CoolLexer(CharStreams.fromString(source)));
+        return Objects.requireNonNull(new CoolDescent(tokens, 0, names).parse());
+    }
+
+    // A small program with every kind of expression, nested a few levels.
+    static String randomProgram(Random random) {
+        var program = new StringBuilder();
+        for (int c = 1 + random.nextInt(2); c > 0; c--) {
+            program.append("class A").append(c).append(random.nextBoolean() ? " inherits B" : "").append(" {\n");
+            for (int f = random.nextInt(3); f > 0; f--) {
+                if (random.nextBoolean()) {
+                    program.append("    a").append(f).append(" : Int");
+                    if (random.nextBoolean())
+                        program.append(" <- ").append(randomExpression(random, 3));
+                } else {
+                    program.append("    m").append(f).append("(").append(random.nextBoolean() ? "p : Int, q : B" : "")
+                            .append(") : Int { ").append(randomExpression(random, 4)).append(" }");
+                }
+                program.append(";\n");
+            }
+            program.append("};\n");
+        }
+        return program.toString();
+    }
+
+    static String randomExpression(Random random, int depth) {
+        if (depth == 0) {
+            String[] leaves = { "x", "12", "\"s\"", "true", "self" };
+            return leaves[random.nextInt(leaves.length)];
+        }
+
+        int d = depth - 1;
+        return switch (random.nextInt(17)) {
+            case 0 -> "x <- " + randomExpression(random, d);
+            case 1 -> randomExpression(random, d) + (random.nextBoolean() ? "@A" : "") + ".f("
+                    + randomArguments(random, d) + ")";
+            case 2 -> "g(" + randomArguments(random, d) + ")";
+            case 3 -> "if " + randomExpression(random, d) + " then " + randomExpression(random, d)
+                    + " else " + randomExpression(random, d) + " fi";
+            case 4 -> "while " + randomExpression(random, d) + " loop " + randomExpression(random, d) + " pool";
+            case 5 -> {
+                var block = new StringBuilder("{ ");
+                for (int i = random.nextInt(3); i >= 0; i--)
+                    block.append(randomExpression(random, d)).append("; ");
+                yield block + "}";
+            }
+            case 6 -> "let a : Int" + (random.nextBoolean() ? " <- " + randomExpression(random, d) : "")
+                    + (random.nextBoolean() ? ", b : B" : "") + " in " + randomExpression(random, d);
+            case 7 -> "case " + randomExpression(random, d) + " of y : Int => " + randomExpression(random, d) + "; "
+                    + (random.nextBoolean() ? "z : B => " + randomExpression(random, d) + ";" : "") + " esac";
+            case 8 -> "new T";
+            case 9 -> "isvoid " + randomExpression(random, d);
+            case 10 -> "~" + randomExpression(random, d);
+            case 11 -> "(" + randomExpression(random, d) + ")";
+            case 12 -> "not " + randomExpression(random, d);
+            default -> {
+                String[] operators = { "+", "-", "*", "/", "<", "<=", "=" };
+                yield randomExpression(random, d) + " " + operators[random.nextInt(operators.length)] + " "
+                        + randomExpression(random, d);
+            }
+        };
+    }
+
+    static String randomArguments(Random random, int depth) {
+        var arguments = new ArrayList<String>();
+        for (int i = random.nextInt(3); i > 0; i--)
+            arguments.add(randomExpression(random, depth));
+        return String.join(", ", arguments);
+    }
+
+    // The program with one or two of its space-separated words dropped,
+    // replaced, or preceded by another token.
+    static String mutate(String program, Random random) {
+        String[] tokens = { "(", ")", ".", "@", "<-", ";", ",", "in", "{", "}", "+", "not", "x", "esac", "class",
+                "=>", "*)", "#" };
+        var words = new ArrayList<>(Arrays.asList(program.split(" ")));
+        for (int i = 1 + random.nextInt(2); i > 0 && !words.isEmpty(); i--) {
+            int at = random.nextInt(words.size());
+            switch (random.nextInt(3)) {
+                case 0 -> words.remove(at);
+                case 1 -> words.add(at, tokens[random.nextInt(tokens.length)]);
+                default -> words.set(at, tokens[random.nextInt(tokens.length)]);
+            }
+        }
+        return String.join(" ", words);
+    }
+
+    // A token with its type, text and position, to compare token streams.
+    static String describe(Token token) {
+        return String.format("%s [%s] %d:%d %d-%d",
+                CoolLexer.VOCABULARY.getSymbolicName(token.getType()), token.getText(),
+                token.getLine(), token.getCharPositionInLine(), token.getStartIndex(), token.getStopIndex());
+    }
+
+    // Everything in an AST, positions included, to compare ASTs built in
+    // different ways.
+    static String describe(ASTNode node) {
+        var describer = new TreeDescriber();
+        describer.append(node);
+        return describer.text.toString();
+    }
+
+    static final class TreeDescriber implements ASTVisitor<Void> {
+        final StringBuilder text = new StringBuilder();
+
+        void append(Object part) {
+            if (part == null) {
+                text.append('-');
+            } else if (part instanceof String string) {
+                text.append(string);
+            } else if (part instanceof Name name) {
+                text.append(name.text).append('@').append(name.position);
+            } else if (part instanceof List<?> list) {
+                text.append('[');
+                for (var element : list) {
+                    append(element);
+                    text.append(' ');
+                }
+                text.append(']');
+            } else {
+                var node = (ASTNode) part;
+                text.append(node.getClass().getSimpleName()).append('@').append(node.getPosition()).append('(');
+                node.accept(this);
+                text.append(')');
+            }
+        }
+
+        Void describe(Object... parts) {
+            for (var part : parts) {
+                append(part);
+                text.append(' ');
+            }
+            return null;
+        }
+
+        public Void visit(Id id) { return describe(id.getText()); }
+        public Void visit(Int integer) { return describe(integer.getText()); }
+        public Void visit(Str str) { return describe(str.getText()); }
+        public Void visit(Bool bool) { return describe(bool.getText()); }
+        public Void visit(Formal formal) { return describe(formal.id, formal.type); }
+        public Void visit(Feature feature) { return null; }
+        public Void visit(Class classs) { return describe(classs.type, classs.inherit, classs.features); }
+        public Void visit(Program program) { return describe(program.units); }
+        public Void visit(CompilationUnit unit) { return describe(unit.classes); }
+        public Void visit(Local local) { return describe(local.id, local.type, local.init); }
+        public Void visit(Method method) {
+            return describe(method.id, method.formals, method.returnType, method.body());
+        }
+        public Void visit(Attr attr) { return describe(attr.id, attr.type, attr.init); }
+        public Void visit(Block block) { return describe(block.expressions); }
+        public Void visit(If ifExpr) { return describe(ifExpr.cond, ifExpr.thenBranch, ifExpr.elseBranch); }
+        public Void visit(While whileExpr) { return describe(whileExpr.cond, whileExpr.body); }
+        public Void visit(Let letExpr) { return describe(letExpr.localVars, letExpr.body); }
+        public Void visit(Case caseExpr) { return describe(caseExpr.expr, caseExpr.branches); }
+        public Void visit(CaseBranch branch) { return describe(branch.name, branch.type, branch.expr); }
+        public Void visit(Assign assign) { return describe(assign.name, assign.expr); }
+        public Void visit(Dispatch dispatch) { return describe(dispatch.name, dispatch.args); }
+        public Void visit(StaticDispatch staticDispatch) {
+            return describe(staticDispatch.caller, staticDispatch.type, staticDispatch.name, staticDispatch.args);
+        }
+        public Void visit(BinaryOp op) { return describe(op.left, op.op, op.right); }
+        public Void visit(Not notExpr) { return describe(notExpr.expr); }
+        public Void visit(IsVoid isVoidExpr) { return describe(isVoidExpr.expr); }
+        public Void visit(New newExpr) { return describe(newExpr.type); }
+        public Void visit(Paren paren) { return describe(paren.expr); }
+        public Void visit(Neg negExpr) { return describe(negExpr.expr); }
+    }
+
+    // Generates a well-formed program exercising every kind of expression,
+    // with a few long operator chains and nested expressions per method.
+    static String generateProgram(int classes, long seed) {
+        var random = new Random(seed);
+        var program = new StringBuilder();
+
+        for (int c = 0; c < classes; c++) {
+            program.append("class C").append(c);
+            if (c > 0)
+                program.append(" inherits C").append(random.nextInt(c));
+            program.append(" {\n");
+            program.append("    x").append(c).append(" : Int <- ").append(random.nextInt(100)).append(";\n");
+            program.append("    s").append(c).append(" : String <- \"text\\t").append(c).append("\\n\";\n");
+
+            for (int m = 0; m < 4; m++) {
+                program.append("    m").append(c).append('_').append(m)
+                        .append("(a : Int, b : Bool, o : IO) : Int {\n");
+                program.append("        {\n");
+                program.append("            a <- a + ").append(random.nextInt(10)).append(" * (a - 1) / 2;\n");
+                program.append("            if a < 10 then o.out_int(a) else o@IO.out_string(\"big\") fi;\n");
+                program.append("            let y : Int <- a + 1, z : Int in while y <= 10 loop y <- y + 1 pool;\n");
+                program.append("            case o of i : IO => i; v : Object => new IO; esac;\n");
+                program.append("            b <- not isvoid o = b;\n");
+                program.append("            ~a + ").append(random.nextInt(10)).append(" * (a - 2);\n");
+                program.append("            (((a + 1) * (a + 2)) - ((a + 3) * (a + 4)));\n");
+                program.append("        }\n");
+                program.append("    };\n");
+            }
+
+            program.append("};\n\n");
+        }
+
+        return program.toString();
+    }
+}